@@ -0,0 +1,87 @@
+package io.github.x45iq.jtube;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@code BandwidthLimiter} class represents token bucket limiting download speed.
+ * One limiter can be shared by several downloads or engines to cap their total speed,
+ * the limit can be changed at any time.
+ *
+ * @author Artem Shein
+ */
+public final class BandwidthLimiter {
+    private long bytesPerSecond;
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * Allocates a new {@code BandwidthLimiter}
+     *
+     * @param bytesPerSecond max speed in bytes per second, {@code 0} means unlimited
+     */
+    public BandwidthLimiter(long bytesPerSecond) {
+        if (bytesPerSecond < 0) throw new IndexOutOfBoundsException("n >= 0");
+        this.bytesPerSecond = bytesPerSecond;
+        this.tokens = bytesPerSecond;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Returns max speed in bytes per second
+     *
+     * @return {@code long} value, {@code 0} means unlimited
+     */
+    public synchronized long bytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * Sets max speed in bytes per second
+     *
+     * @param bytesPerSecond speed, {@code 0} means unlimited
+     */
+    public synchronized void bytesPerSecond(long bytesPerSecond) {
+        if (bytesPerSecond < 0) throw new IndexOutOfBoundsException("n >= 0");
+        refill();
+        this.bytesPerSecond = bytesPerSecond;
+        this.tokens = Math.min(tokens, bytesPerSecond);
+    }
+
+    //waits until the bucket has tokens for the bytes, a read larger than the burst is paid off in parts,
+    //so the bucket never runs into debt other callers would have to wait out,
+    //returns false if the abort signal comes first
+    boolean acquire(long bytes, CountDownLatch abortSignal) throws InterruptedException {
+        assert bytes >= 0;
+        assert abortSignal != null;
+        while (bytes > 0) {
+            long waitNanos;
+            synchronized (this) {
+                if (bytesPerSecond == 0) {
+                    return true;
+                }
+                refill();
+                long part = Math.min(bytes, bytesPerSecond);
+                if (tokens >= part) {
+                    tokens -= part;
+                    bytes -= part;
+                    continue;
+                }
+                waitNanos = (long) Math.ceil((part - tokens) * TimeUnit.SECONDS.toNanos(1) / bytesPerSecond);
+            }
+            //the limit may change meanwhile, so the tokens are checked again after waiting
+            if (abortSignal.await(waitNanos, TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        if (bytesPerSecond > 0) {
+            tokens = Math.min(bytesPerSecond, tokens + (double) (now - lastRefill) * bytesPerSecond / TimeUnit.SECONDS.toNanos(1));
+        }
+        lastRefill = now;
+    }
+}
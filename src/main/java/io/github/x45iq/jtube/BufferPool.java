@@ -0,0 +1,40 @@
+package io.github.x45iq.jtube;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//process-wide pool of read buffers, engines come and go with downloads but their buffers are reused
+final class BufferPool {
+    static final int BUFFER_SIZE = 1024 * 64;
+    private static final int MAX_POOLED = 256;
+    static final BufferPool SHARED = new BufferPool(MAX_POOLED);
+    private final ConcurrentLinkedQueue<byte[]> buffers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger(0);
+    private final int maxPooled;
+
+    BufferPool(int maxPooled) {
+        assert maxPooled >= 0;
+        this.maxPooled = maxPooled;
+    }
+
+    byte[] take() {
+        byte[] buffer = buffers.poll();
+        if (buffer == null) {
+            return new byte[BUFFER_SIZE];
+        }
+        pooled.decrementAndGet();
+        return buffer;
+    }
+
+    //buffers of other sizes and buffers over the pool size are left to the garbage collector
+    void give(byte[] buffer) {
+        assert buffer != null;
+        if (buffer.length != BUFFER_SIZE || pooled.incrementAndGet() > maxPooled) {
+            if (buffer.length == BUFFER_SIZE) {
+                pooled.decrementAndGet();
+            }
+            return;
+        }
+        buffers.offer(buffer);
+    }
+}
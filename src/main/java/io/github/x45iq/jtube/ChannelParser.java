@@ -6,6 +6,7 @@ import com.google.gson.JsonObject;
 import org.jsoup.nodes.Document;
 
 import java.io.IOException;
+import java.util.Objects;
 
 /**
  * The {@code ChannelParser} class represents tool to get {@code Channel} object by url.
@@ -13,11 +14,22 @@ import java.io.IOException;
  * @author Artem Shein
  */
 public final class ChannelParser {
+    private final HttpTransport transport;
+
     /**
      * Default constructor.
      */
     public ChannelParser() {
+        this(NetTools.DEFAULT_TRANSPORT);
+    }
 
+    /**
+     * Constructor that allows {@code ChannelParser} to send requests by the given transport.
+     *
+     * @param transport transport of requests
+     */
+    public ChannelParser(HttpTransport transport) {
+        this.transport = Objects.requireNonNull(transport);
     }
 
     /**
@@ -49,7 +61,7 @@ public final class ChannelParser {
         return new ChannelMeta(title, description, id, externalId, thumbnail);
     }
 
-    private static Channel parsePage(Document page) throws ResponseParsingException, IOException {
+    private static Channel parsePage(HttpTransport transport, Document page) throws ResponseParsingException, IOException {
         JsonObject mainJson = ContainersApiTools.parseInitialData(page);
 
         ChannelMeta channelMeta = parseMeta(mainJson);
@@ -64,7 +76,7 @@ public final class ChannelParser {
                 .getAsJsonObject("richGridRenderer")
                 .getAsJsonArray("contents");
 
-        return new Channel(channelMeta, ContainersApiTools.parseVideos(page, items, json -> getChannelVideo(json, channelMeta.title())));
+        return new Channel(channelMeta, ContainersApiTools.parseVideos(transport, page, items, json -> getChannelVideo(json, channelMeta.title())));
     }
 
     private static ContainerVideo getChannelVideo(JsonObject item, String owner) {
@@ -93,8 +105,8 @@ public final class ChannelParser {
     public Channel parse(String url) throws IOException, ResponseParsingException, IllegalArgumentException {
         String id = UrlPatternsTool.getChannelUrlId(url).orElseThrow(() -> new IllegalArgumentException("Not supported url: " + url));
 
-        Document page = NetTools.getPage(String.format("https://www.youtube.com/%s/videos", id));
+        Document page = NetTools.getPage(transport, String.format("https://www.youtube.com/%s/videos", id));
 
-        return parsePage(page);
+        return parsePage(transport, page);
     }
 }
@@ -0,0 +1,186 @@
+package io.github.x45iq.jtube;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+import java.util.Objects;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+
+final class ChunkPublisher implements Publisher<ByteBuffer> {
+    private final BiFunction<WritableByteChannel, Runnable, DownloadTask<Void>> download;
+
+    //the download gets the channel to write chunks and the hook to release a write waiting for demand
+    ChunkPublisher(BiFunction<WritableByteChannel, Runnable, DownloadTask<Void>> download) {
+        assert download != null;
+        this.download = download;
+    }
+
+    //every subscriber gets its own download of the whole stream
+    @Override
+    public void subscribe(Subscriber<? super ByteBuffer> subscriber) {
+        ChunkSubscription subscription = new ChunkSubscription(Objects.requireNonNull(subscriber));
+        subscriber.onSubscribe(subscription);
+        subscription.start(download);
+    }
+
+    //the download writes chunks in order to this channel, a write waits until the subscriber requests the chunk,
+    //a lock instead of a monitor doesn't pin the carrier of a virtual worker while it waits
+    private static final class ChunkSubscription implements Subscription, WritableByteChannel {
+        private final Subscriber<? super ByteBuffer> subscriber;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition stateChanged = lock.newCondition();
+        private long demand = 0;
+        private boolean cancelled = false;
+        private boolean aborted = false;
+        private boolean terminated = false;
+        private DownloadTask<Void> task = null;
+
+        private ChunkSubscription(Subscriber<? super ByteBuffer> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        private void start(BiFunction<WritableByteChannel, Runnable, DownloadTask<Void>> download) {
+            DownloadTask<Void> started;
+            try {
+                started = download.apply(this, this::abort);
+            } catch (UncheckedIOException e) {
+                terminate(e.getCause());
+                return;
+            } catch (RuntimeException e) {
+                terminate(e);
+                return;
+            }
+            lock.lock();
+            try {
+                task = started;
+                if (cancelled) {
+                    started.cancel();
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+            started.future().whenComplete((result, e) -> {
+                if (e == null) {
+                    terminate(null);
+                } else {
+                    terminate(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+                }
+            });
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                terminate(new IllegalArgumentException("non-positive subscription request"));
+                cancel();
+                return;
+            }
+            lock.lock();
+            try {
+                demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                stateChanged.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void cancel() {
+            DownloadTask<Void> cancelledTask;
+            lock.lock();
+            try {
+                if (cancelled) {
+                    return;
+                }
+                cancelled = true;
+                cancelledTask = task;
+                stateChanged.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            if (cancelledTask != null) {
+                cancelledTask.cancel();
+            }
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            lock.lock();
+            try {
+                while (demand == 0 && !cancelled && !aborted) {
+                    try {
+                        stateChanged.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException();
+                    }
+                }
+                if (cancelled || aborted) {
+                    throw new ClosedChannelException();
+                }
+                demand--;
+            } finally {
+                lock.unlock();
+            }
+            //the buffer of a worker is reused, the subscriber gets its own copy
+            byte[] chunk = new byte[src.remaining()];
+            src.get(chunk);
+            subscriber.onNext(ByteBuffer.wrap(chunk).asReadOnlyBuffer());
+            return chunk.length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            lock.lock();
+            try {
+                return !cancelled && !aborted;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void close() {
+
+        }
+
+        private void abort() {
+            lock.lock();
+            try {
+                aborted = true;
+                stateChanged.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void terminate(Throwable e) {
+            lock.lock();
+            try {
+                //a cancelled subscription gets no more signals
+                if (terminated || cancelled) {
+                    return;
+                }
+                terminated = true;
+            } finally {
+                lock.unlock();
+            }
+            if (e == null) {
+                subscriber.onComplete();
+            } else {
+                subscriber.onError(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package io.github.x45iq.jtube;
+
+import com.google.gson.JsonObject;
+
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * The {@code ClientProfile} class represents InnerTube client the player response is requested as.
+ * Responses for mobile clients usually carry plain stream urls, so signatures don't have to be deciphered.
+ * A profile without a client version takes the context of the web page and needs one watch page read first.
+ *
+ * @author Artem Shein
+ */
+public final class ClientProfile {
+    /**
+     * Web client with the context of the watch page, stream urls are usually ciphered
+     */
+    public static final ClientProfile WEB = new Builder()
+            .clientName("WEB")
+            .clientId(1)
+            .build();
+    /**
+     * Android app client
+     */
+    public static final ClientProfile ANDROID = new Builder()
+            .clientName("ANDROID")
+            .clientVersion("19.09.37")
+            .clientId(3)
+            .userAgent("com.google.android.youtube/19.09.37 (Linux; U; Android 11) gzip")
+            .clientField("androidSdkVersion", 30)
+            .clientField("osName", "Android")
+            .clientField("osVersion", "11")
+            .build();
+    /**
+     * iOS app client
+     */
+    public static final ClientProfile IOS = new Builder()
+            .clientName("IOS")
+            .clientVersion("19.09.3")
+            .clientId(5)
+            .userAgent("com.google.ios.youtube/19.09.3 (iPhone14,3; U; CPU iOS 15_6 like Mac OS X)")
+            .clientField("deviceMake", "Apple")
+            .clientField("deviceModel", "iPhone14,3")
+            .clientField("osName", "iPhone")
+            .clientField("osVersion", "15.6.0.19G71")
+            .build();
+    private final String clientName;
+    private final String clientVersion;
+    private final int clientId;
+    private final String userAgent;
+    private final JsonObject clientFields;
+
+    private ClientProfile(Builder builder) {
+        this.clientName = builder.clientName;
+        this.clientVersion = builder.clientVersion;
+        this.clientId = builder.clientId;
+        this.userAgent = builder.userAgent;
+        this.clientFields = builder.clientFields.deepCopy();
+    }
+
+    /**
+     * Returns InnerTube client name
+     *
+     * @return {@code String} value
+     */
+    public String clientName() {
+        return clientName;
+    }
+
+    /**
+     * Returns InnerTube client version, empty for the version of the web page
+     *
+     * @return {@code Optional<String>} value
+     */
+    public Optional<String> clientVersion() {
+        return Optional.ofNullable(clientVersion);
+    }
+
+    /**
+     * Returns InnerTube client id sent in the {@code X-YouTube-Client-Name} header
+     *
+     * @return {@code int} value
+     */
+    public int clientId() {
+        return clientId;
+    }
+
+    /**
+     * Returns user agent of requests, empty for a random browser user agent
+     *
+     * @return {@code Optional<String>} value
+     */
+    public Optional<String> userAgent() {
+        return Optional.ofNullable(userAgent);
+    }
+
+    JsonObject clientFields() {
+        return clientFields.deepCopy();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ClientProfile that = (ClientProfile) o;
+        return clientId == that.clientId && clientName.equals(that.clientName) && Objects.equals(clientVersion, that.clientVersion)
+                && Objects.equals(userAgent, that.userAgent) && clientFields.equals(that.clientFields);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(clientName, clientVersion, clientId, userAgent, clientFields);
+    }
+
+    @Override
+    public String toString() {
+        return "ClientProfile{" +
+                "clientName='" + clientName + '\'' +
+                ", clientVersion='" + clientVersion + '\'' +
+                ", clientId=" + clientId +
+                '}';
+    }
+
+    /**
+     * The {@code ClientProfile.Builder} class represents a builder for ClientProfile.
+     */
+    public static final class Builder implements Cloneable {
+        private String clientName = null;
+        private String clientVersion = null;
+        private int clientId = 1;
+        private String userAgent = null;
+        private JsonObject clientFields = new JsonObject();
+
+        /**
+         * Sets InnerTube client name, e.g. {@code "ANDROID"}
+         *
+         * @param clientName name
+         * @return {@code Builder}
+         */
+        public Builder clientName(String clientName) {
+            this.clientName = clientName;
+            return this;
+        }
+
+        /**
+         * Sets InnerTube client version, without a version the context of the web page is used
+         *
+         * @param clientVersion version or {@code null}
+         * @return {@code Builder}
+         */
+        public Builder clientVersion(String clientVersion) {
+            this.clientVersion = clientVersion;
+            return this;
+        }
+
+        /**
+         * Sets InnerTube client id sent in the {@code X-YouTube-Client-Name} header
+         *
+         * @param clientId id
+         * @return {@code Builder}
+         */
+        public Builder clientId(int clientId) {
+            this.clientId = clientId;
+            return this;
+        }
+
+        /**
+         * Sets user agent of requests
+         *
+         * @param userAgent user agent or {@code null} for a random browser user agent
+         * @return {@code Builder}
+         */
+        public Builder userAgent(String userAgent) {
+            this.userAgent = userAgent;
+            return this;
+        }
+
+        /**
+         * Adds field to the client object of the request context
+         *
+         * @param name  field name
+         * @param value field value
+         * @return {@code Builder}
+         */
+        public Builder clientField(String name, String value) {
+            clientFields.addProperty(Objects.requireNonNull(name), Objects.requireNonNull(value));
+            return this;
+        }
+
+        /**
+         * Adds field to the client object of the request context
+         *
+         * @param name  field name
+         * @param value field value
+         * @return {@code Builder}
+         */
+        public Builder clientField(String name, int value) {
+            clientFields.addProperty(Objects.requireNonNull(name), value);
+            return this;
+        }
+
+        /**
+         * Returns {@code ClientProfile} with {@code Builder} params
+         *
+         * @return {@code ClientProfile} object;
+         */
+        public ClientProfile build() {
+            Objects.requireNonNull(clientName);
+            if (clientId <= 0) throw new IndexOutOfBoundsException("n > 0");
+            try {
+                return new ClientProfile((Builder) this.clone());
+            } catch (CloneNotSupportedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package io.github.x45iq.jtube;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+//writes the header of a clip and then the downloaded spans one after another, so positions in the stream are mapped to the output
+final class ClipPacketWriter implements PacketWriter {
+    private final PacketWriter writer;
+    private final byte[] header;
+    private final long[] spanStarts;
+    private final long[] spanEnds;
+    private final long[] outputStarts;
+    private final AtomicBoolean headerWritten = new AtomicBoolean(false);
+
+    ClipPacketWriter(PacketWriter writer, byte[] header, List<PacketPlanner.Packet> spans) {
+        assert writer != null;
+        assert header != null;
+        assert spans != null;
+        this.writer = writer;
+        this.header = header;
+        this.spanStarts = new long[spans.size()];
+        this.spanEnds = new long[spans.size()];
+        this.outputStarts = new long[spans.size()];
+        long output = header.length;
+        for (int i = 0; i < spans.size(); i++) {
+            PacketPlanner.Packet span = spans.get(i);
+            assert i == 0 || span.start >= spanEnds[i - 1];
+            spanStarts[i] = span.start;
+            spanEnds[i] = span.end;
+            outputStarts[i] = output;
+            output += span.length();
+        }
+    }
+
+    static long length(byte[] header, List<PacketPlanner.Packet> spans) {
+        return header.length + spans.stream().mapToLong(PacketPlanner.Packet::length).sum();
+    }
+
+    //packets never cross spans, so one lookup maps the whole buffer
+    @Override
+    public void write(long position, ByteBuffer buffer) throws IOException {
+        writeHeader();
+        int low = 0;
+        int high = spanStarts.length - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (spanStarts[middle] <= position) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        assert spanStarts.length > 0 && position >= spanStarts[low] && position + buffer.remaining() <= spanEnds[low];
+        writer.write(outputStarts[low] + position - spanStarts[low], buffer);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    public void complete() throws IOException {
+        writeHeader();
+        writer.complete();
+    }
+
+    @Override
+    public void abort() {
+        writer.abort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+
+    //written by the first packet, a stream writer must not block the thread starting the download
+    private void writeHeader() throws IOException {
+        if (header.length > 0 && headerWritten.compareAndSet(false, true)) {
+            writer.write(0, ByteBuffer.wrap(header));
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package io.github.x45iq.jtube;
+
+//AIMD limit of simultaneous packet requests of one download, driven by throughput measured over fixed intervals
+final class ConcurrencyController {
+    private static final double RISE_THRESHOLD = 1.05;
+    private static final double FALL_THRESHOLD = 0.8;
+    private static final double FALL_DECREASE = 0.75;
+    private static final double CONGESTION_DECREASE = 0.5;
+    private final int minLimit;
+    private final int maxLimit;
+    private final long intervalNanos;
+    private int limit;
+    private boolean slowStart = true;
+    private long intervalStart = -1;
+    private long intervalBytes = 0;
+    private int intervalCongestion = 0;
+    private double lastThroughput = 0;
+
+    ConcurrencyController(int minLimit, int maxLimit, long intervalNanos) {
+        assert minLimit > 0;
+        assert maxLimit >= minLimit;
+        assert intervalNanos > 0;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.intervalNanos = intervalNanos;
+        this.limit = minLimit;
+    }
+
+    static ConcurrencyController fixed(int limit) {
+        return new ConcurrencyController(limit, limit, Long.MAX_VALUE);
+    }
+
+    int limit() {
+        return limit;
+    }
+
+    //takes totals of transferred bytes and congestion signals (throttling, resets) since the download start
+    void update(long transferredBytes, int congestionSignals, long nanoTime) {
+        if (minLimit == maxLimit) {
+            return;
+        }
+        if (intervalStart < 0) {
+            intervalStart = nanoTime;
+            intervalBytes = transferredBytes;
+            intervalCongestion = congestionSignals;
+            return;
+        }
+        long elapsed = nanoTime - intervalStart;
+        if (elapsed < intervalNanos) {
+            return;
+        }
+        double throughput = (double) (transferredBytes - intervalBytes) / elapsed;
+        if (congestionSignals > intervalCongestion) {
+            //the server pushes back, no more probing upward
+            slowStart = false;
+            limit = Math.max(minLimit, (int) (limit * CONGESTION_DECREASE));
+        } else if (throughput > lastThroughput * RISE_THRESHOLD) {
+            //slow start doubles until the first sign of saturation, then the limit grows by one per interval
+            limit = Math.min(maxLimit, slowStart ? limit * 2 : limit + 1);
+        } else if (throughput < lastThroughput * FALL_THRESHOLD) {
+            slowStart = false;
+            limit = Math.max(minLimit, (int) (limit * FALL_DECREASE));
+        } else {
+            slowStart = false;
+        }
+        lastThroughput = throughput;
+        intervalStart = nanoTime;
+        intervalBytes = transferredBytes;
+        intervalCongestion = congestionSignals;
+    }
+}
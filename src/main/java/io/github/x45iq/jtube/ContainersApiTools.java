@@ -35,7 +35,8 @@ class ContainersApiTools {
         throw new ResponseParsingException("Initial data not found");
     }
 
-    static List<ContainerVideo> parseVideos(Document document, JsonArray items, Function<JsonObject, ContainerVideo> parseFunc) throws ResponseParsingException, IOException {
+    static List<ContainerVideo> parseVideos(HttpTransport transport, Document document, JsonArray items, Function<JsonObject, ContainerVideo> parseFunc) throws ResponseParsingException, IOException {
+        assert transport != null;
         assert document != null;
         assert items != null;
         assert parseFunc != null;
@@ -52,7 +53,7 @@ class ContainersApiTools {
                 videos.add(parseFunc.apply(items.get(i).getAsJsonObject()));
             }
             if (items.get(items.size() - 1).getAsJsonObject().has("continuationItemRenderer")) {
-                items = getContinue(items.get(items.size() - 1).getAsJsonObject(), apiKey, context);
+                items = getContinue(transport, items.get(items.size() - 1).getAsJsonObject(), apiKey, context);
             } else {
                 videos.add(parseFunc.apply(items.get(items.size() - 1).getAsJsonObject()));
                 break;
@@ -75,7 +76,8 @@ class ContainersApiTools {
         throw new ResponseParsingException("API key not found");
     }
 
-    static JsonArray getContinue(JsonObject lastObject, String apiKey, JsonObject context) throws IOException {
+    static JsonArray getContinue(HttpTransport transport, JsonObject lastObject, String apiKey, JsonObject context) throws IOException {
+        assert transport != null;
         assert lastObject != null;
         assert apiKey != null;
         assert context != null;
@@ -89,7 +91,7 @@ class ContainersApiTools {
                 .getAsJsonObject("webCommandMetadata")
                 .get("apiUrl").getAsString();
         context.addProperty("continuation", token);
-        String page = NetTools.postApi(String.format(API_TEMPLATE, apiUrl, apiKey), context);
+        String page = NetTools.postApi(transport, String.format(API_TEMPLATE, apiUrl, apiKey), context);
         return new Gson().fromJson(page, JsonObject.class)
                 .getAsJsonArray("onResponseReceivedActions")
                 .get(0).getAsJsonObject()
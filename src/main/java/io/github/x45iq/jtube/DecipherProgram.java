@@ -0,0 +1,101 @@
+package io.github.x45iq.jtube;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Function;
+import org.mozilla.javascript.RhinoException;
+import org.mozilla.javascript.ScriptableObject;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+//decipher code of one player version compiled once, its sealed scope is shared by all parsers and threads
+final class DecipherProgram {
+    private static final int MAX_PROGRAMS = 8;
+    private static final int OPTIMIZATION_LEVEL = 9;
+    private static final String PLAYER_PATH_PREFIX = "/s/player/";
+    //recently used player versions, old players leave the cache as new ones are released
+    private static final Map<String, DecipherProgram> programs = new LinkedHashMap<String, DecipherProgram>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, DecipherProgram> eldest) {
+            return size() > MAX_PROGRAMS;
+        }
+    };
+    private final ScriptableObject scope;
+    private final Function function;
+
+    private DecipherProgram(ScriptableObject scope, Function function) {
+        this.scope = scope;
+        this.function = function;
+    }
+
+    static Optional<DecipherProgram> cached(String jsFileName) {
+        assert jsFileName != null;
+        synchronized (programs) {
+            return Optional.ofNullable(programs.get(version(jsFileName)));
+        }
+    }
+
+    static DecipherProgram compile(String jsFileName, String funcName, String code) throws JTubeException {
+        assert jsFileName != null;
+        assert funcName != null;
+        assert code != null;
+        Context rhino = Context.enter();
+        try {
+            rhino.setOptimizationLevel(OPTIMIZATION_LEVEL);
+            //the player code gets no access to java classes
+            ScriptableObject scope = rhino.initSafeStandardObjects(null, true);
+            rhino.compileString(code, jsFileName, 1, null).exec(rhino, scope);
+            Object function = scope.get(funcName, scope);
+            if (!(function instanceof Function)) {
+                throw new JTubeException("decipher function not found: " + funcName);
+            }
+            scope.sealObject();
+            DecipherProgram program = new DecipherProgram(scope, (Function) function);
+            synchronized (programs) {
+                programs.put(version(jsFileName), program);
+            }
+            return program;
+        } catch (RhinoException e) {
+            throw new JTubeException("Bad js compile", e);
+        } finally {
+            Context.exit();
+        }
+    }
+
+    static void evict(String jsFileName) {
+        assert jsFileName != null;
+        synchronized (programs) {
+            programs.remove(version(jsFileName));
+        }
+    }
+
+    String decipher(String signature) throws JTubeException {
+        assert signature != null;
+        Context rhino = Context.enter();
+        try {
+            rhino.setOptimizationLevel(OPTIMIZATION_LEVEL);
+            Object result = function.call(rhino, scope, scope, new Object[]{signature});
+            if (!(result instanceof CharSequence)) {
+                throw new JTubeException("Bad js run");
+            }
+            return result.toString();
+        } catch (RhinoException e) {
+            throw new JTubeException("Bad js run", e);
+        } finally {
+            Context.exit();
+        }
+    }
+
+    //the version is the directory right after /s/player/, every locale and variant of a player shares the same code
+    static String version(String jsFileName) {
+        assert jsFileName != null;
+        int start = jsFileName.indexOf(PLAYER_PATH_PREFIX);
+        if (start < 0) {
+            return jsFileName;
+        }
+        start += PLAYER_PATH_PREFIX.length();
+        int end = jsFileName.indexOf('/', start);
+        return end < 0 ? jsFileName : jsFileName.substring(start, end);
+    }
+}
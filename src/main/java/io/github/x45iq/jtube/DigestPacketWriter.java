@@ -0,0 +1,43 @@
+package io.github.x45iq.jtube;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+final class DigestPacketWriter implements PacketWriter {
+    private final PacketWriter writer;
+    private final RollingDigest digest;
+
+    DigestPacketWriter(PacketWriter writer, RollingDigest digest) {
+        assert writer != null;
+        assert digest != null;
+        this.writer = writer;
+        this.digest = digest;
+    }
+
+    @Override
+    public void write(long position, ByteBuffer buffer) throws IOException {
+        ByteBuffer data = buffer.duplicate();
+        writer.write(position, buffer);
+        digest.update(position, data);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    public void complete() throws IOException {
+        writer.complete();
+    }
+
+    @Override
+    public void abort() {
+        writer.abort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
@@ -0,0 +1,360 @@
+package io.github.x45iq.jtube;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The {@code DownloadEngine} class represents pool of download workers, which can be shared by
+ * several {@code StreamingDataDownloader} objects.
+ * Total count of simultaneous packet requests never exceeds count of workers,
+ * packets of active downloads are scheduled fairly according to their priorities.
+ *
+ * @author Artem Shein
+ */
+public final class DownloadEngine implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(DownloadEngine.class);
+    private static final String WORKER_NAME = "jtube-download-";
+    private static final double STRIDE = 1.0;
+    private static final long HEDGE_CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition workAvailable = lock.newCondition();
+    private final List<DownloadJob> jobs = new ArrayList<>();
+    private final List<Thread> workers = new ArrayList<>();
+    private final boolean virtual;
+    private final BandwidthLimiter bandwidthLimiter;
+    private final HttpTransport transport;
+    private double pass = 0;
+    private boolean closed = false;
+
+    private DownloadEngine(Builder builder) {
+        this.bandwidthLimiter = builder.bandwidthLimiter;
+        this.transport = builder.transport;
+        ThreadFactory virtualFactory = builder.virtualThreads ? virtualThreadFactory() : null;
+        for (int i = 0; i < builder.workersCount; i++) {
+            Thread worker;
+            if (virtualFactory != null) {
+                worker = virtualFactory.newThread(this::work);
+            } else {
+                worker = new Thread(this::work, WORKER_NAME + i);
+                worker.setDaemon(true);
+            }
+            workers.add(worker);
+        }
+        this.virtual = virtualFactory != null;
+        workers.forEach(Thread::start);
+    }
+
+    //Thread.ofVirtual() appeared in java 21, the library is built for java 8
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, WORKER_NAME, 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            logger.debug("Virtual threads are not available", e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns limiter of total speed of all downloads of this engine
+     *
+     * @return an {@code Optional} describing the limiter, or an empty {@code Optional}, if there is no such
+     */
+    public Optional<BandwidthLimiter> bandwidthLimiter() {
+        return Optional.ofNullable(bandwidthLimiter);
+    }
+
+    /**
+     * Returns transport of packet requests of all downloads of this engine
+     *
+     * @return {@code HttpTransport} transport
+     */
+    public HttpTransport transport() {
+        return transport;
+    }
+
+    /**
+     * Returns is workers are virtual threads
+     *
+     * @return {@code true} if workers are virtual threads, otherwise {@code false}
+     */
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * Returns count of workers
+     *
+     * @return {@code int} value
+     */
+    public int workersCount() {
+        return workers.size();
+    }
+
+    /**
+     * Stops all workers, active downloads fail
+     */
+    @Override
+    public void close() {
+        List<DownloadJob> cancelled;
+        List<DownloadJob> finished = new ArrayList<>();
+        lock.lock();
+        try {
+            closed = true;
+            cancelled = new ArrayList<>(jobs);
+            cancelled.forEach(job -> cancelLocked(job, finished));
+            workAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        cancelled.forEach(job -> job.downloader().abort());
+        finished.forEach(DownloadJob::markDone);
+    }
+
+    void submit(DownloadJob job) {
+        assert job != null;
+        lock.lock();
+        try {
+            if (!closed) {
+                job.pass = pass;
+                jobs.add(job);
+                workAvailable.signalAll();
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        job.fail();
+        job.markDone();
+    }
+
+    void cancel(DownloadJob job) {
+        assert job != null;
+        List<DownloadJob> finished = new ArrayList<>();
+        lock.lock();
+        try {
+            cancelLocked(job, finished);
+        } finally {
+            lock.unlock();
+        }
+        job.downloader().abort();
+        finished.forEach(DownloadJob::markDone);
+    }
+
+    void pause(DownloadJob job, boolean paused) {
+        assert job != null;
+        lock.lock();
+        try {
+            job.paused(paused);
+            workAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void cancelLocked(DownloadJob job, List<DownloadJob> finished) {
+        if (job.isDone()) {
+            return;
+        }
+        job.fail();
+        completeIfFinished(job, finished);
+    }
+
+    private void work() {
+        List<DownloadJob> finished = new ArrayList<>();
+        while (true) {
+            DownloadJob job = null;
+            PacketPlanner.Packet packet = null;
+            PacketDownloader.InFlight hedge = null;
+            boolean stop = false;
+            lock.lock();
+            try {
+                while (finished.isEmpty()) {
+                    if (closed) {
+                        stop = true;
+                        break;
+                    }
+                    job = nextJob();
+                    if (job == null) {
+                        //a job without new packets may still hedge its stragglers
+                        for (DownloadJob tail : jobs) {
+                            if (inTail(tail) && tail.inFlight < tail.maxConnections() && (hedge = tail.downloader().straggler()) != null) {
+                                job = tail;
+                                break;
+                            }
+                        }
+                        if (job == null) {
+                            awaitWork();
+                            continue;
+                        }
+                        job.inFlight++;
+                        break;
+                    }
+                    packet = job.downloader().planner().next();
+                    if (packet == null) {
+                        job.exhausted = true;
+                        completeIfFinished(job, finished);
+                        continue;
+                    }
+                    job.inFlight++;
+                    job.pass += STRIDE / job.priority();
+                    pass = job.pass;
+                    break;
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (packet != null || hedge != null) {
+                byte[] buffer = BufferPool.SHARED.take();
+                boolean success;
+                try {
+                    success = packet != null
+                            ? job.downloader().downloadPacket(packet, buffer)
+                            : job.downloader().hedgePacket(hedge, buffer);
+                } finally {
+                    BufferPool.SHARED.give(buffer);
+                }
+                lock.lock();
+                try {
+                    job.inFlight--;
+                    if (!success) {
+                        job.fail();
+                    }
+                    job.updateConcurrency();
+                    completeIfFinished(job, finished);
+                    workAvailable.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+            //completion callbacks of a job must not run under the lock
+            finished.forEach(DownloadJob::markDone);
+            finished.clear();
+            if (stop) {
+                return;
+            }
+        }
+    }
+
+    private DownloadJob nextJob() {
+        DownloadJob best = null;
+        for (DownloadJob job : jobs) {
+            if (job.failed() || job.exhausted || job.paused() || job.inFlight >= job.maxConnections()) {
+                continue;
+            }
+            if (best == null || job.pass < best.pass) {
+                best = job;
+            }
+        }
+        return best;
+    }
+
+    //stragglers appear over time, so jobs in their tail are checked periodically
+    private void awaitWork() {
+        boolean tail = false;
+        for (DownloadJob job : jobs) {
+            tail |= inTail(job);
+        }
+        if (!tail) {
+            workAvailable.awaitUninterruptibly();
+            return;
+        }
+        try {
+            workAvailable.awaitNanos(HEDGE_CHECK_NANOS);
+        } catch (InterruptedException ignored) {
+            //workers are never interrupted
+        }
+    }
+
+    private static boolean inTail(DownloadJob job) {
+        return job.exhausted && !job.failed() && !job.paused() && job.inFlight > 0 && job.downloader().hedging();
+    }
+
+    private void completeIfFinished(DownloadJob job, List<DownloadJob> finished) {
+        if ((job.exhausted || job.failed()) && job.inFlight == 0 && jobs.remove(job)) {
+            finished.add(job);
+        }
+    }
+
+    /**
+     * The {@code DownloadEngine.Builder} class represents a builder for DownloadEngine.
+     */
+    public static final class Builder implements Cloneable {
+        private int workersCount = 40;
+        private boolean virtualThreads = true;
+        private BandwidthLimiter bandwidthLimiter = null;
+        private HttpTransport transport = NetTools.DEFAULT_TRANSPORT;
+
+        /**
+         * Sets count of workers, i.e. max count of simultaneous packet requests of all downloads
+         *
+         * @param workersCount count
+         * @return {@code Builder}
+         */
+        public Builder workersCount(int workersCount) {
+            this.workersCount = workersCount;
+            return this;
+        }
+
+        /**
+         * Sets is workers should be virtual threads. Virtual threads are used only on java 21 or newer,
+         * otherwise workers are platform threads
+         *
+         * @param virtualThreads {@code true} to use virtual threads when available
+         * @return {@code Builder}
+         */
+        public Builder virtualThreads(boolean virtualThreads) {
+            this.virtualThreads = virtualThreads;
+            return this;
+        }
+
+        /**
+         * Sets limiter of total speed of all downloads of the engine
+         *
+         * @param bandwidthLimiter limiter
+         * @return {@code Builder}
+         */
+        public Builder bandwidthLimiter(BandwidthLimiter bandwidthLimiter) {
+            this.bandwidthLimiter = bandwidthLimiter;
+            return this;
+        }
+
+        /**
+         * Sets transport of packet requests of all downloads of the engine.
+         * By default a shared {@code PooledHttpTransport} is used
+         *
+         * @param transport transport
+         * @return {@code Builder}
+         */
+        public Builder transport(HttpTransport transport) {
+            this.transport = Objects.requireNonNull(transport);
+            return this;
+        }
+
+        /**
+         * Returns {@code DownloadEngine} with {@code Builder} params
+         *
+         * @return {@code DownloadEngine} object;
+         */
+        public DownloadEngine build() {
+            if (workersCount <= 0) throw new IndexOutOfBoundsException("n > 0");
+            try {
+                return new DownloadEngine((Builder) this.clone());
+            } catch (CloneNotSupportedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
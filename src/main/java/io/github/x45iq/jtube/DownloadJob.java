@@ -0,0 +1,71 @@
+package io.github.x45iq.jtube;
+
+import java.util.concurrent.CompletableFuture;
+
+final class DownloadJob {
+    private final PacketDownloader downloader;
+    private final ConcurrencyController concurrency;
+    private final int priority;
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+    private volatile boolean failed = false;
+    private volatile boolean paused = false;
+    //guarded by the engine lock
+    int inFlight = 0;
+    double pass = 0;
+    boolean exhausted = false;
+
+    DownloadJob(PacketDownloader downloader, ConcurrencyController concurrency, int priority) {
+        assert downloader != null;
+        assert concurrency != null;
+        assert priority > 0;
+        this.downloader = downloader;
+        this.concurrency = concurrency;
+        this.priority = priority;
+    }
+
+    PacketDownloader downloader() {
+        return downloader;
+    }
+
+    //guarded by the engine lock
+    int maxConnections() {
+        return concurrency.limit();
+    }
+
+    //guarded by the engine lock
+    void updateConcurrency() {
+        concurrency.update(downloader.transferred(), downloader.congestion(), System.nanoTime());
+    }
+
+    int priority() {
+        return priority;
+    }
+
+    boolean failed() {
+        return failed;
+    }
+
+    void fail() {
+        failed = true;
+    }
+
+    boolean paused() {
+        return paused;
+    }
+
+    void paused(boolean paused) {
+        this.paused = paused;
+    }
+
+    boolean isDone() {
+        return done.isDone();
+    }
+
+    CompletableFuture<Void> done() {
+        return done;
+    }
+
+    void markDone() {
+        done.complete(null);
+    }
+}
@@ -0,0 +1,174 @@
+package io.github.x45iq.jtube;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+final class DownloadManifest {
+    private static final Logger logger = LoggerFactory.getLogger(DownloadManifest.class);
+    private static final String EXTENSION = "jtube";
+    private static final Pattern VIDEO_ID_REGEX = Pattern.compile("[?&]id=([^&]+)");
+    private static final Pattern ITAG_REGEX = Pattern.compile("[?&]itag=([^&]+)");
+    private String url;
+    private String id;
+    private String itag;
+    private long contentLength;
+    private long blockSize;
+    private String completed;
+    private String exportName;
+    private transient File exportFile;
+    private transient File file;
+    private transient BitSet blocks;
+
+    private DownloadManifest(File target, File exportFile, String url, long contentLength, long blockSize) {
+        this.exportName = exportFile.getName();
+        this.exportFile = exportFile;
+        this.file = manifestFile(target);
+        this.url = url;
+        this.id = findParam(url, VIDEO_ID_REGEX);
+        this.itag = findParam(url, ITAG_REGEX);
+        this.contentLength = contentLength;
+        this.blockSize = blockSize;
+        this.blocks = new BitSet();
+    }
+
+    //the manifest is kept next to the target file, while the data may go to another file
+    //when the target is taken by a finished download
+    static DownloadManifest create(File target, File exportFile, String url, long contentLength, long blockSize) {
+        assert target != null;
+        assert exportFile != null;
+        assert url != null;
+        assert contentLength >= 0;
+        assert blockSize > 0;
+        return new DownloadManifest(target, exportFile, url, contentLength, blockSize);
+    }
+
+    static Optional<DownloadManifest> load(File target) {
+        assert target != null;
+        File file = manifestFile(target);
+        if (!file.exists()) {
+            return Optional.empty();
+        }
+        try {
+            String json = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+            DownloadManifest manifest = new Gson().fromJson(json, DownloadManifest.class);
+            if (manifest == null || manifest.url == null || manifest.blockSize <= 0) {
+                return Optional.empty();
+            }
+            manifest.exportFile = manifest.exportName == null ? target : new File(target.getParentFile(), manifest.exportName);
+            manifest.file = file;
+            manifest.blocks = manifest.completed == null ? new BitSet() : BitSet.valueOf(Base64.getDecoder().decode(manifest.completed));
+            return Optional.of(manifest);
+        } catch (IOException | JsonParseException | IllegalArgumentException e) {
+            logger.error("Failed to read download manifest " + file, e);
+            return Optional.empty();
+        }
+    }
+
+    static Optional<String> resumeFileName(String url) {
+        assert url != null;
+        String id = findParam(url, VIDEO_ID_REGEX);
+        String itag = findParam(url, ITAG_REGEX);
+        if (id == null || itag == null) {
+            return Optional.empty();
+        }
+        return Optional.of(String.format("jtube_%s_%s", id, itag));
+    }
+
+    //stream urls are re-signed on every parse, so the same stream is recognized by its id, itag and length
+    synchronized boolean matches(String url, long contentLength) {
+        assert url != null;
+        if (this.contentLength != contentLength) {
+            return false;
+        }
+        if (this.url.equals(url)) {
+            return true;
+        }
+        return id != null && itag != null
+                && id.equals(findParam(url, VIDEO_ID_REGEX))
+                && itag.equals(findParam(url, ITAG_REGEX));
+    }
+
+    synchronized void url(String url) {
+        assert url != null;
+        this.url = url;
+    }
+
+    File exportFile() {
+        return exportFile;
+    }
+
+    long blockSize() {
+        return blockSize;
+    }
+
+    synchronized void complete(long start, long end) {
+        assert start >= 0;
+        assert end <= contentLength;
+        int from = (int) ((start + blockSize - 1) / blockSize);
+        int to = (int) (end == contentLength ? (end + blockSize - 1) / blockSize : end / blockSize);
+        if (from < to) {
+            blocks.set(from, to);
+        }
+    }
+
+    synchronized long completedBytes() {
+        long bytes = 0;
+        for (int i = blocks.nextSetBit(0); i >= 0; i = blocks.nextSetBit(i + 1)) {
+            bytes += Math.min(contentLength, (i + 1) * blockSize) - i * blockSize;
+        }
+        return bytes;
+    }
+
+    synchronized List<PacketPlanner.Packet> missing() {
+        List<PacketPlanner.Packet> spans = new ArrayList<>();
+        int i = blocks.nextClearBit(0);
+        while (i * blockSize < contentLength) {
+            int next = blocks.nextSetBit(i);
+            long end = next < 0 ? contentLength : Math.min(contentLength, next * blockSize);
+            spans.add(new PacketPlanner.Packet(i * blockSize, end));
+            if (next < 0) {
+                break;
+            }
+            i = blocks.nextClearBit(next);
+        }
+        return spans;
+    }
+
+    synchronized void save() throws IOException {
+        completed = Base64.getEncoder().encodeToString(blocks.toByteArray());
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        Files.write(temp.toPath(), new Gson().toJson(this).getBytes(StandardCharsets.UTF_8));
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    void delete() {
+        if (file.exists()) {
+            FileTools.deleteFile(file);
+        }
+    }
+
+    private static File manifestFile(File target) {
+        return new File(target.getParentFile(), String.format("%s.%s", target.getName(), EXTENSION));
+    }
+
+    private static String findParam(String url, Pattern pattern) {
+        Matcher mat = pattern.matcher(Objects.requireNonNull(url));
+        return mat.find() ? mat.group(1) : null;
+    }
+}
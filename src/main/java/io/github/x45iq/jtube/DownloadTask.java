@@ -0,0 +1,93 @@
+package io.github.x45iq.jtube;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The {@code DownloadTask} class represents running download of {@code StreamingData}.
+ *
+ * @param <T> type of the download result
+ * @author Artem Shein
+ */
+public final class DownloadTask<T> {
+    private final CompletableFuture<T> future = new CompletableFuture<>();
+    private final CompletableFuture<Void> released = new CompletableFuture<>();
+    private final DownloadEngine engine;
+    private final DownloadJob job;
+
+    DownloadTask(DownloadEngine engine, DownloadJob job) {
+        assert engine != null;
+        assert job != null;
+        this.engine = engine;
+        this.job = job;
+        future.whenComplete((result, e) -> {
+            if (future.isCancelled()) {
+                engine.cancel(job);
+            }
+        });
+    }
+
+    void complete(T result) {
+        future.complete(result);
+        released.complete(null);
+    }
+
+    void fail(Throwable e) {
+        future.completeExceptionally(e);
+        released.complete(null);
+    }
+
+    //a cancelled future is done at once, files and workers of the download are released later
+    void awaitReleased() {
+        released.join();
+    }
+
+    /**
+     * Returns future of the download result. The future completes exceptionally with {@code IOException} on error,
+     * cancelling the future cancels the download
+     *
+     * @return {@code CompletableFuture<T>} future
+     */
+    public CompletableFuture<T> future() {
+        return future;
+    }
+
+    /**
+     * Cancels the download, requests in progress are aborted by {@code HttpTransport.Response.abort()}.
+     * Their reads fail at once if the transport closes the connection without waiting, as {@code PooledHttpTransport} does
+     */
+    public void cancel() {
+        future.cancel(false);
+    }
+
+    /**
+     * Pauses the download, packets already in progress are completed, new packets are not requested
+     */
+    public void pause() {
+        engine.pause(job, true);
+    }
+
+    /**
+     * Resumes paused download
+     */
+    public void resume() {
+        engine.pause(job, false);
+    }
+
+    /**
+     * Returns is download paused
+     *
+     * @return {@code true} if the download is paused, otherwise {@code false}
+     */
+    public boolean isPaused() {
+        return job.paused();
+    }
+
+    /**
+     * Returns is download completed, failed or cancelled
+     *
+     * @return {@code true} if the download is done, otherwise {@code false}
+     */
+    public boolean isDone() {
+        return future.isDone();
+    }
+}
@@ -0,0 +1,21 @@
+package io.github.x45iq.jtube;
+
+/**
+ * The {@code Durability} class represents policy of flushing downloaded data to the storage device.
+ *
+ * @author Artem Shein
+ */
+public enum Durability {
+    /**
+     * Data is never forced, the operating system flushes it whenever it wants
+     */
+    NONE,
+    /**
+     * Data is forced periodically while downloading and once downloading is complete
+     */
+    PERIODIC,
+    /**
+     * Data is forced once downloading is complete
+     */
+    ON_COMPLETE
+}
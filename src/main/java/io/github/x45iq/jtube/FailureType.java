@@ -0,0 +1,64 @@
+package io.github.x45iq.jtube;
+
+import org.jsoup.HttpStatusException;
+
+import java.io.IOException;
+
+/**
+ * The {@code FailureType} class represents class of a failed packet request.
+ *
+ * @author Artem Shein
+ */
+public enum FailureType {
+    /**
+     * Connection error, timeout, broken body or 5xx server error
+     */
+    NETWORK,
+    /**
+     * Server asks to slow down: 429 or 503
+     */
+    THROTTLED,
+    /**
+     * Stream url is not valid anymore: 403, 404 or 410
+     */
+    EXPIRED_URL,
+    /**
+     * Requested range is outside of the stream: 416
+     */
+    RANGE_NOT_SATISFIABLE,
+    /**
+     * Any other 4xx response
+     */
+    CLIENT_ERROR,
+    /**
+     * Response doesn't match the request: unexpected status, {@code Content-Range} or length
+     */
+    INTEGRITY;
+
+    static FailureType of(IOException e) {
+        assert e != null;
+        if (e instanceof IntegrityException) {
+            return INTEGRITY;
+        }
+        if (!(e instanceof HttpStatusException)) {
+            return NETWORK;
+        }
+        return ofStatus(((HttpStatusException) e).getStatusCode());
+    }
+
+    static FailureType ofStatus(int status) {
+        switch (status) {
+            case 429:
+            case 503:
+                return THROTTLED;
+            case 403:
+            case 404:
+            case 410:
+                return EXPIRED_URL;
+            case 416:
+                return RANGE_NOT_SATISFIABLE;
+            default:
+                return status >= 400 && status < 500 ? CLIENT_ERROR : NETWORK;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package io.github.x45iq.jtube;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+final class FilePacketWriter implements PacketWriter {
+    private final FileChannel channel;
+    private final long contentLength;
+    private final Durability durability;
+    private final long forceIntervalNanos;
+    private final AtomicLong lastForce = new AtomicLong(System.nanoTime());
+
+    FilePacketWriter(FileChannel channel, long contentLength, Durability durability, long forceIntervalNanos) {
+        assert channel != null;
+        assert contentLength >= 0;
+        assert durability != null;
+        assert forceIntervalNanos > 0;
+        this.channel = channel;
+        this.contentLength = contentLength;
+        this.durability = durability;
+        this.forceIntervalNanos = forceIntervalNanos;
+    }
+
+    static FilePacketWriter open(File file, long contentLength, Durability durability, long forceIntervalNanos) throws IOException {
+        assert file != null;
+        assert contentLength >= 0;
+        assert durability != null;
+        assert forceIntervalNanos > 0;
+        RandomAccessFile accessFile = new RandomAccessFile(file, "rw");
+        try {
+            accessFile.setLength(contentLength);
+        } catch (IOException e) {
+            accessFile.close();
+            throw e;
+        }
+        //closing the channel closes the file
+        return new FilePacketWriter(accessFile.getChannel(), contentLength, durability, forceIntervalNanos);
+    }
+
+    @Override
+    public void write(long position, ByteBuffer buffer) throws IOException {
+        assert position >= 0;
+        assert buffer != null;
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        if (durability == Durability.PERIODIC) {
+            long last = lastForce.get();
+            long now = System.nanoTime();
+            if (now - last >= forceIntervalNanos && lastForce.compareAndSet(last, now)) {
+                channel.force(false);
+            }
+        }
+    }
+
+    void read(long position, ByteBuffer buffer) throws IOException {
+        assert position >= 0;
+        assert buffer != null;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read == -1) {
+                throw new EOFException(String.format("file ended at %s", position));
+            }
+            position += read;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        channel.force(false);
+    }
+
+    @Override
+    public void complete() throws IOException {
+        if (channel.size() != contentLength) {
+            throw new IntegrityException(String.format("file size is %s instead of %s", channel.size(), contentLength));
+        }
+        if (durability != Durability.NONE) {
+            channel.force(true);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
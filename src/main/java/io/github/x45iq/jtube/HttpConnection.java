@@ -0,0 +1,421 @@
+package io.github.x45iq.jtube;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.Proxy;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+
+//HTTP/1.1 connection over a socket owned by PooledHttpTransport,
+//closing the plain socket unblocks a read in progress at once, with or without TLS on top of it
+final class HttpConnection implements Closeable {
+    private static final int MAX_LINE_LENGTH = 1024 * 64;
+    private static final int MAX_HEADERS = 256;
+    private final Socket socket;
+    private final InputStream in;
+    private final OutputStream out;
+    private final boolean absoluteTarget;
+    private long idleSince = 0;
+
+    private HttpConnection(Socket socket, Socket stream, boolean absoluteTarget) throws IOException {
+        this.socket = socket;
+        this.in = new BufferedInputStream(stream.getInputStream());
+        this.out = new BufferedOutputStream(stream.getOutputStream());
+        this.absoluteTarget = absoluteTarget;
+    }
+
+    static HttpConnection open(URL url, Proxy proxy, int connectTimeoutMils, int readTimeoutMils) throws IOException {
+        assert url != null;
+        assert proxy != null;
+        boolean https = url.getProtocol().equals("https");
+        Socket socket = proxy.type() == Proxy.Type.SOCKS ? new Socket(proxy) : new Socket();
+        try {
+            socket.setSoTimeout(readTimeoutMils);
+            socket.setTcpNoDelay(true);
+            InetSocketAddress address;
+            if (proxy.type() == Proxy.Type.HTTP) {
+                InetSocketAddress proxyAddress = (InetSocketAddress) proxy.address();
+                address = new InetSocketAddress(proxyAddress.getHostString(), proxyAddress.getPort());
+            } else if (proxy.type() == Proxy.Type.SOCKS) {
+                //the proxy resolves the host
+                address = InetSocketAddress.createUnresolved(url.getHost(), port(url));
+            } else {
+                address = new InetSocketAddress(url.getHost(), port(url));
+            }
+            socket.connect(address, connectTimeoutMils);
+            if (!https) {
+                return new HttpConnection(socket, socket, proxy.type() == Proxy.Type.HTTP);
+            }
+            if (proxy.type() == Proxy.Type.HTTP) {
+                tunnel(socket, url);
+            }
+            SSLSocket ssl = (SSLSocket) ((SSLSocketFactory) SSLSocketFactory.getDefault())
+                    .createSocket(socket, url.getHost(), port(url), true);
+            SSLParameters parameters = ssl.getSSLParameters();
+            parameters.setEndpointIdentificationAlgorithm("HTTPS");
+            ssl.setSSLParameters(parameters);
+            ssl.startHandshake();
+            return new HttpConnection(socket, ssl, false);
+        } catch (IOException | RuntimeException e) {
+            closeQuietly(socket);
+            throw e;
+        }
+    }
+
+    static int port(URL url) {
+        return url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+    }
+
+    //https through an http proxy goes in a CONNECT tunnel, the proxy sees only the host
+    private static void tunnel(Socket socket, URL url) throws IOException {
+        String authority = url.getHost() + ":" + port(url);
+        OutputStream out = socket.getOutputStream();
+        out.write(String.format("CONNECT %s HTTP/1.1\r\nHost: %s\r\n\r\n", authority, authority).getBytes(StandardCharsets.ISO_8859_1));
+        out.flush();
+        //unbuffered, the bytes after the proxy response belong to the TLS handshake
+        InputStream in = socket.getInputStream();
+        String statusLine = readLine(in);
+        if (statusLine == null) {
+            throw new EOFException("proxy closed the connection");
+        }
+        int status = status(statusLine);
+        String line;
+        //headers of the proxy response are not needed
+        while (!(line = headerLine(in)).isEmpty()) {
+            continue;
+        }
+        if (status != 200) {
+            throw new ProtocolException(String.format("proxy refused tunnel to %s: %s", authority, statusLine));
+        }
+    }
+
+    void write(String method, URL url, Map<String, String> headers, byte[] body) throws IOException {
+        assert method != null;
+        assert url != null;
+        assert headers != null;
+        String file = url.getFile().isEmpty() ? "/" : url.getFile();
+        String target = absoluteTarget ? url.getProtocol() + "://" + url.getAuthority() + file : file;
+        StringBuilder head = new StringBuilder();
+        head.append(method).append(' ').append(target).append(" HTTP/1.1\r\n");
+        head.append("Host: ").append(url.getPort() == -1 ? url.getHost() : url.getHost() + ":" + url.getPort()).append("\r\n");
+        headers.forEach((name, value) -> {
+            if (name.equalsIgnoreCase("Host") || name.equalsIgnoreCase("Content-Length")
+                    || name.equalsIgnoreCase("Transfer-Encoding") || name.equalsIgnoreCase("Connection")) {
+                return;
+            }
+            if (name.indexOf('\r') >= 0 || name.indexOf('\n') >= 0 || value.indexOf('\r') >= 0 || value.indexOf('\n') >= 0) {
+                throw new IllegalArgumentException("Illegal character in header " + name);
+            }
+            head.append(name).append(": ").append(value).append("\r\n");
+        });
+        if (body != null) {
+            head.append("Content-Length: ").append(body.length).append("\r\n");
+        }
+        head.append("\r\n");
+        out.write(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+        if (body != null) {
+            out.write(body);
+        }
+        out.flush();
+    }
+
+    Head readHead(String method) throws IOException {
+        assert method != null;
+        while (true) {
+            String statusLine = readLine(in);
+            if (statusLine == null) {
+                throw new EOFException("server closed the connection");
+            }
+            int status = status(statusLine);
+            Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            String line;
+            while (!(line = headerLine(in)).isEmpty()) {
+                int colon = line.indexOf(':');
+                if (colon <= 0 || headers.size() == MAX_HEADERS) {
+                    throw new ProtocolException("bad header: " + line);
+                }
+                //the last value wins, as in HttpURLConnection
+                headers.put(line.substring(0, colon).trim(), line.substring(colon + 1).trim());
+            }
+            //interim responses are followed by the real one
+            if (status >= 100 && status < 200 && status != 101) {
+                continue;
+            }
+            String connection = headers.getOrDefault("Connection", "").toLowerCase();
+            boolean keepAlive = statusLine.startsWith("HTTP/1.0 ") ? connection.contains("keep-alive") : !connection.contains("close");
+            Body body;
+            if (method.equals("HEAD") || status == 204 || status == 304) {
+                body = new FixedBody(in, 0);
+            } else if (headers.getOrDefault("Transfer-Encoding", "").toLowerCase().contains("chunked")) {
+                body = new ChunkedBody(in);
+            } else if (headers.containsKey("Content-Length")) {
+                try {
+                    body = new FixedBody(in, Long.parseLong(headers.get("Content-Length")));
+                } catch (NumberFormatException e) {
+                    throw new ProtocolException("bad Content-Length: " + headers.get("Content-Length"));
+                }
+            } else {
+                //the end of the body is the end of the connection
+                body = new UntilCloseBody(in);
+                keepAlive = false;
+            }
+            return new Head(status, headers, body, keepAlive);
+        }
+    }
+
+    //a connection is given again only if the server hasn't closed it or sent anything while it was idle
+    boolean reusable(long keepAliveNanos) {
+        try {
+            return !socket.isClosed() && System.nanoTime() - idleSince < keepAliveNanos && in.available() == 0;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    void idle() {
+        idleSince = System.nanoTime();
+    }
+
+    //closes the plain socket only, closing the TLS socket could wait for a read in progress
+    @Override
+    public void close() {
+        closeQuietly(socket);
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            //nothing to do with a socket that failed to close
+        }
+    }
+
+    private static int status(String statusLine) throws ProtocolException {
+        String[] parts = statusLine.split(" ", 3);
+        if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+            throw new ProtocolException("bad status line: " + statusLine);
+        }
+        try {
+            return Integer.parseInt(parts[1]);
+        } catch (NumberFormatException e) {
+            throw new ProtocolException("bad status line: " + statusLine);
+        }
+    }
+
+    //returns null if the stream ends before the line starts
+    //a head cut off before its empty line is not a complete response
+    private static String headerLine(InputStream in) throws IOException {
+        String line = readLine(in);
+        if (line == null) {
+            throw new EOFException("connection closed in the middle of response headers");
+        }
+        return line;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b == -1) {
+                if (line.size() == 0) {
+                    return null;
+                }
+                throw new EOFException("connection closed in the middle of a line");
+            }
+            if (line.size() == MAX_LINE_LENGTH) {
+                throw new ProtocolException("line is too long");
+            }
+            line.write(b);
+        }
+        byte[] bytes = line.toByteArray();
+        int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+        return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+    }
+
+    static final class Head {
+        final int status;
+        final boolean keepAlive;
+        final Body body;
+        private final Map<String, String> headers;
+
+        private Head(int status, Map<String, String> headers, Body body, boolean keepAlive) {
+            this.status = status;
+            this.headers = headers;
+            this.body = body;
+            this.keepAlive = keepAlive;
+        }
+
+        Optional<String> header(String name) {
+            return Optional.ofNullable(headers.get(name));
+        }
+    }
+
+    abstract static class Body extends InputStream {
+        //the whole body is read, the connection is ready for the next response
+        abstract boolean finished();
+
+        //reads the rest of a short body, so the connection can be reused
+        boolean drain(long limit) throws IOException {
+            byte[] buffer = new byte[1024 * 8];
+            long drained = 0;
+            int read;
+            while (!finished() && drained < limit && (read = read(buffer)) != -1) {
+                drained += read;
+            }
+            return finished();
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+        }
+    }
+
+    private static final class FixedBody extends Body {
+        private final InputStream in;
+        private long remaining;
+
+        private FixedBody(InputStream in, long length) {
+            this.in = in;
+            this.remaining = length;
+        }
+
+        @Override
+        boolean finished() {
+            return remaining == 0;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining == 0) {
+                return -1;
+            }
+            if (len == 0) {
+                return 0;
+            }
+            int read = in.read(b, off, (int) Math.min(len, remaining));
+            if (read == -1) {
+                throw new EOFException(String.format("connection closed %s bytes before the end of the body", remaining));
+            }
+            remaining -= read;
+            return read;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), remaining);
+        }
+    }
+
+    private static final class ChunkedBody extends Body {
+        private final InputStream in;
+        private long chunkRemaining = 0;
+        private boolean firstChunk = true;
+        private boolean finished = false;
+
+        private ChunkedBody(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        boolean finished() {
+            return finished;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (finished) {
+                return -1;
+            }
+            if (len == 0) {
+                return 0;
+            }
+            if (chunkRemaining == 0) {
+                nextChunk();
+                if (finished) {
+                    return -1;
+                }
+            }
+            int read = in.read(b, off, (int) Math.min(len, chunkRemaining));
+            if (read == -1) {
+                throw new EOFException("connection closed in the middle of a chunk");
+            }
+            chunkRemaining -= read;
+            return read;
+        }
+
+        private void nextChunk() throws IOException {
+            //every chunk but the first one follows the line break ending the previous chunk
+            if (!firstChunk && !line().isEmpty()) {
+                throw new ProtocolException("chunk is longer than its size");
+            }
+            firstChunk = false;
+            String size = line();
+            int extension = size.indexOf(';');
+            try {
+                chunkRemaining = Long.parseLong((extension >= 0 ? size.substring(0, extension) : size).trim(), 16);
+            } catch (NumberFormatException e) {
+                throw new ProtocolException("bad chunk size: " + size);
+            }
+            if (chunkRemaining == 0) {
+                //trailers are skipped
+                while (!line().isEmpty()) {
+                    continue;
+                }
+                finished = true;
+            }
+        }
+
+        private String line() throws IOException {
+            String line = readLine(in);
+            if (line == null) {
+                throw new EOFException("connection closed in the middle of a chunked body");
+            }
+            return line;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return finished ? 0 : (int) Math.min(in.available(), chunkRemaining);
+        }
+    }
+
+    private static final class UntilCloseBody extends Body {
+        private final InputStream in;
+
+        private UntilCloseBody(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        boolean finished() {
+            return false;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return in.read(b, off, len);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return in.available();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package io.github.x45iq.jtube;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * The {@code HttpTransport} interface represents a way to execute HTTP requests of parsers and downloads.
+ * Implementations must be thread-safe, one transport is shared by all downloads of a {@code DownloadEngine}.
+ *
+ * @author Artem Shein
+ */
+public interface HttpTransport {
+    /**
+     * Executes the request. Responses with error status are returned as well, the caller checks the status
+     *
+     * @param request request
+     * @return {@code Response} that must be closed by the caller
+     * @throws IOException on network error
+     */
+    Response execute(Request request) throws IOException;
+
+    /**
+     * The {@code HttpTransport.Request} class represents HTTP request.
+     */
+    final class Request {
+        private final String method;
+        private final String url;
+        private final Map<String, String> headers;
+        private final byte[] body;
+
+        /**
+         * Constructor
+         *
+         * @param method HTTP method
+         * @param url    url
+         * @param headers headers of the request
+         * @param body   body of the request or {@code null}
+         */
+        public Request(String method, String url, Map<String, String> headers, byte[] body) {
+            this.method = Objects.requireNonNull(method);
+            this.url = Objects.requireNonNull(url);
+            this.headers = Collections.unmodifiableMap(new LinkedHashMap<>(Objects.requireNonNull(headers)));
+            this.body = body == null ? null : body.clone();
+        }
+
+        /**
+         * Returns HTTP method
+         *
+         * @return {@code String} method
+         */
+        public String method() {
+            return method;
+        }
+
+        /**
+         * Returns url
+         *
+         * @return {@code String} url
+         */
+        public String url() {
+            return url;
+        }
+
+        /**
+         * Returns headers of the request
+         *
+         * @return unmodifiable {@code Map<String, String>} of headers
+         */
+        public Map<String, String> headers() {
+            return headers;
+        }
+
+        /**
+         * Returns body of the request
+         *
+         * @return {@code Optional<byte[]>} body
+         */
+        public Optional<byte[]> body() {
+            return Optional.ofNullable(body).map(byte[]::clone);
+        }
+
+        @Override
+        public String toString() {
+            return "Request{" +
+                    "method='" + method + '\'' +
+                    ", url='" + url + '\'' +
+                    ", headers=" + headers +
+                    '}';
+        }
+    }
+
+    /**
+     * The {@code HttpTransport.Response} interface represents HTTP response with a streamed body.
+     */
+    interface Response extends Closeable {
+        /**
+         * Returns HTTP status code
+         *
+         * @return {@code int} status
+         */
+        int status();
+
+        /**
+         * Returns value of the header
+         *
+         * @param name case-insensitive name of the header
+         * @return {@code Optional<String>} value
+         */
+        Optional<String> header(String name);
+
+        /**
+         * Returns body of the response
+         *
+         * @return {@code InputStream} body
+         */
+        InputStream body();
+
+        /**
+         * Drops the connection without reading the rest of the body, could be called from any thread.
+         * A read of the body blocked in another thread must fail at once, the call must not wait for that read
+         */
+        void abort();
+    }
+}
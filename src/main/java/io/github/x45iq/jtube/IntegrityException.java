@@ -0,0 +1,15 @@
+package io.github.x45iq.jtube;
+
+import java.io.IOException;
+
+/**
+ * The {@code IntegrityException} class represents downloaded data not matching the request:
+ * unexpected status, {@code Content-Range} or length of a response, or a size of the whole download.
+ *
+ * @author Artem Shein
+ */
+public class IntegrityException extends IOException {
+    IntegrityException(String message) {
+        super(message);
+    }
+}
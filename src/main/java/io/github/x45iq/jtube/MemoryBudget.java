@@ -0,0 +1,77 @@
+package io.github.x45iq.jtube;
+
+/**
+ * The {@code MemoryBudget} class represents limit of downloaded data held in memory until it is written in order.
+ * One budget can be shared by several downloads to cap their total memory use,
+ * by default all downloads of the process share {@code MemoryBudget.global()}.
+ * The limit can be changed at any time.
+ *
+ * @author Artem Shein
+ */
+public final class MemoryBudget {
+    private static final MemoryBudget GLOBAL = new MemoryBudget(1024 * 1024 * 256);//256mb
+    private long bytes;
+    private long used = 0;
+
+    /**
+     * Allocates a new {@code MemoryBudget}
+     *
+     * @param bytes max size in bytes of data held in memory
+     */
+    public MemoryBudget(long bytes) {
+        if (bytes <= 0) throw new IndexOutOfBoundsException("n > 0");
+        this.bytes = bytes;
+    }
+
+    /**
+     * Returns budget shared by all downloads of the process, unless a download is given its own budget
+     *
+     * @return {@code MemoryBudget} budget
+     */
+    public static MemoryBudget global() {
+        return GLOBAL;
+    }
+
+    /**
+     * Returns max size in bytes of data held in memory
+     *
+     * @return {@code long} value
+     */
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    /**
+     * Sets max size in bytes of data held in memory, data already held is not released
+     *
+     * @param bytes size
+     */
+    public synchronized void bytes(long bytes) {
+        if (bytes <= 0) throw new IndexOutOfBoundsException("n > 0");
+        this.bytes = bytes;
+    }
+
+    /**
+     * Returns size in bytes of data held in memory now
+     *
+     * @return {@code long} value
+     */
+    public synchronized long used() {
+        return used;
+    }
+
+    //an empty budget always gives, so data larger than the whole budget can't stall forever
+    synchronized boolean tryAcquire(long size) {
+        assert size >= 0;
+        if (used > 0 && used + size > bytes) {
+            return false;
+        }
+        used += size;
+        return true;
+    }
+
+    synchronized void release(long size) {
+        assert size >= 0 && size <= used;
+        used -= size;
+    }
+}
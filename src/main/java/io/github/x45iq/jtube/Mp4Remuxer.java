@@ -0,0 +1,476 @@
+package io.github.x45iq.jtube;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+//remuxes fragmented ISO-BMFF streams as served for adaptive formats: ftyp, moov, sidx, then moof and mdat pairs
+final class Mp4Remuxer {
+    private static final Logger logger = LoggerFactory.getLogger(Mp4Remuxer.class);
+    private static final int VIDEO_TRACK_ID = 1;
+    private static final int AUDIO_TRACK_ID = 2;
+    private static final int TFHD_BASE_DATA_OFFSET = 0x1;
+    private static final int TFHD_SAMPLE_DESCRIPTION_INDEX = 0x2;
+    private static final int TFHD_DEFAULT_SAMPLE_DURATION = 0x8;
+    private static final int TFHD_DEFAULT_BASE_IS_MOOF = 0x20000;
+    private static final int TRUN_DATA_OFFSET = 0x1;
+    private static final int TRUN_FIRST_SAMPLE_FLAGS = 0x4;
+    private static final int TRUN_SAMPLE_DURATION = 0x100;
+    private static final int TRUN_SAMPLE_SIZE = 0x200;
+    private static final int TRUN_SAMPLE_FLAGS = 0x400;
+    private static final int TRUN_SAMPLE_COMPOSITION_OFFSET = 0x800;
+
+    private Mp4Remuxer() {
+
+    }
+
+    static void mux(InputStream video, InputStream audio, OutputStream out) throws IOException {
+        assert video != null;
+        assert audio != null;
+        assert out != null;
+        Input videoInput = new Input(video, VIDEO_TRACK_ID);
+        Input audioInput = new Input(audio, AUDIO_TRACK_ID);
+        videoInput.readHeader();
+        audioInput.readHeader();
+        Output output = new Output(out);
+        output.write(videoInput.ftyp);
+        output.write(mergeMoov(videoInput, audioInput));
+        int sequence = 1;
+        videoInput.nextFragment();
+        audioInput.nextFragment();
+        //fragments are interleaved by decode time, so a player never waits for data far ahead in the file
+        while (videoInput.moof != null || audioInput.moof != null) {
+            Input next = audioInput.moof == null || (videoInput.moof != null && videoInput.seconds() <= audioInput.seconds())
+                    ? videoInput
+                    : audioInput;
+            next.writeFragment(output, sequence++);
+            next.nextFragment();
+        }
+        out.flush();
+    }
+
+    private static byte[] mergeMoov(Input video, Input audio) throws IOException {
+        ByteBuffer mvhd = ByteBuffer.wrap(child(video.moov, "mvhd"));
+        ByteBuffer audioMvhd = ByteBuffer.wrap(child(audio.moov, "mvhd"));
+        long timescale = mvhdTimescale(mvhd);
+        long audioTimescale = mvhdTimescale(audioMvhd);
+        setMvhdDuration(mvhd, Math.max(mvhdDuration(mvhd), rescale(mvhdDuration(audioMvhd), audioTimescale, timescale)));
+        mvhd.putInt(mvhd.limit() - 4, AUDIO_TRACK_ID + 1);
+
+        byte[] audioTrak = child(audio.moov, "trak");
+        if (audioTimescale != timescale) {
+            rescaleTrak(audioTrak, audioTimescale, timescale);
+        }
+        ByteArrayOutputStream mvex = new ByteArrayOutputStream();
+        byte[] videoMvex = child(video.moov, "mvex");
+        for (Box box : children(videoMvex, headerSize(videoMvex))) {
+            if (!box.type.equals("trex")) {
+                mvex.write(videoMvex, box.offset, box.size);
+            }
+        }
+        mvex.write(video.trex);
+        mvex.write(audio.trex);
+
+        ByteArrayOutputStream moov = new ByteArrayOutputStream();
+        moov.write(mvhd.array());
+        moov.write(child(video.moov, "trak"));
+        moov.write(audioTrak);
+        moov.write(box("mvex", mvex.toByteArray()));
+        for (Box box : children(video.moov, headerSize(video.moov))) {
+            if (!box.type.equals("mvhd") && !box.type.equals("trak") && !box.type.equals("mvex")) {
+                moov.write(video.moov, box.offset, box.size);
+            }
+        }
+        return box("moov", moov.toByteArray());
+    }
+
+    private static long mvhdTimescale(ByteBuffer mvhd) {
+        return Integer.toUnsignedLong(mvhd.getInt(mvhd.get(8) == 1 ? 28 : 20));
+    }
+
+    private static long mvhdDuration(ByteBuffer mvhd) {
+        return mvhd.get(8) == 1 ? mvhd.getLong(32) : Integer.toUnsignedLong(mvhd.getInt(24));
+    }
+
+    private static void setMvhdDuration(ByteBuffer mvhd, long duration) {
+        if (mvhd.get(8) == 1) {
+            mvhd.putLong(32, duration);
+        } else {
+            mvhd.putInt(24, (int) Math.min(duration, 0xFFFFFFFFL));
+        }
+    }
+
+    //durations of tkhd and elst are in the timescale of the movie, which is taken from the video
+    private static void rescaleTrak(byte[] trak, long from, long to) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(trak);
+        for (Box box : children(trak, headerSize(trak))) {
+            if (box.type.equals("tkhd")) {
+                int durationOffset = box.offset + (buffer.get(box.offset + 8) == 1 ? 36 : 28);
+                if (buffer.get(box.offset + 8) == 1) {
+                    buffer.putLong(durationOffset, rescale(buffer.getLong(durationOffset), from, to));
+                } else {
+                    buffer.putInt(durationOffset, (int) rescale(Integer.toUnsignedLong(buffer.getInt(durationOffset)), from, to));
+                }
+            } else if (box.type.equals("edts")) {
+                for (Box elst : children(trak, box.offset + 8, box.offset + box.size)) {
+                    if (!elst.type.equals("elst")) {
+                        continue;
+                    }
+                    boolean wide = buffer.get(elst.offset + 8) == 1;
+                    long count = Integer.toUnsignedLong(buffer.getInt(elst.offset + 12));
+                    int entry = elst.offset + 16;
+                    for (long i = 0; i < count; i++) {
+                        if (wide) {
+                            buffer.putLong(entry, rescale(buffer.getLong(entry), from, to));
+                            entry += 20;
+                        } else {
+                            buffer.putInt(entry, (int) rescale(Integer.toUnsignedLong(buffer.getInt(entry)), from, to));
+                            entry += 12;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static long rescale(long value, long from, long to) {
+        if (from == to || value == -1 || value == 0xFFFFFFFFL) {
+            return value;
+        }
+        return (long) ((double) value * to / from);
+    }
+
+    private static byte[] box(String type, byte[] payload) {
+        ByteBuffer box = ByteBuffer.allocate(8 + payload.length);
+        box.putInt(8 + payload.length);
+        box.put(type.getBytes(StandardCharsets.ISO_8859_1));
+        box.put(payload);
+        return box.array();
+    }
+
+    private static byte[] child(byte[] parent, String type) throws IOException {
+        for (Box box : children(parent, headerSize(parent))) {
+            if (box.type.equals(type)) {
+                byte[] child = new byte[box.size];
+                System.arraycopy(parent, box.offset, child, 0, box.size);
+                return child;
+            }
+        }
+        throw new IOException(type + " box not found");
+    }
+
+    private static void replaceChild(byte[] parent, String type, byte[] child) throws IOException {
+        for (Box box : children(parent, headerSize(parent))) {
+            if (box.type.equals(type)) {
+                System.arraycopy(child, 0, parent, box.offset, box.size);
+                return;
+            }
+        }
+    }
+
+    private static int headerSize(byte[] box) {
+        return ByteBuffer.wrap(box).getInt(0) == 1 ? 16 : 8;
+    }
+
+    private static List<Box> children(byte[] data, int offset) throws IOException {
+        return children(data, offset, data.length);
+    }
+
+    private static List<Box> children(byte[] data, int offset, int end) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        List<Box> boxes = new ArrayList<>();
+        while (offset + 8 <= end) {
+            long size = Integer.toUnsignedLong(buffer.getInt(offset));
+            int header = 8;
+            if (size == 1) {
+                size = buffer.getLong(offset + 8);
+                header = 16;
+            } else if (size == 0) {
+                size = end - offset;
+            }
+            if (size < header || offset + size > end) {
+                throw new IOException("Malformed mp4 box at " + offset);
+            }
+            boxes.add(new Box(new String(data, offset + 4, 4, StandardCharsets.ISO_8859_1), offset, (int) size, header));
+            offset += (int) size;
+        }
+        return boxes;
+    }
+
+    private static final class Box {
+        private final String type;
+        private final int offset;
+        private final int size;
+        private final int header;
+
+        private Box(String type, int offset, int size, int header) {
+            this.type = type;
+            this.offset = offset;
+            this.size = size;
+            this.header = header;
+        }
+    }
+
+    private static final class Output {
+        private final OutputStream out;
+        private long position = 0;
+
+        private Output(OutputStream out) {
+            this.out = out;
+        }
+
+        private void write(byte[] data) throws IOException {
+            write(data, 0, data.length);
+        }
+
+        private void write(byte[] data, int offset, int length) throws IOException {
+            out.write(data, offset, length);
+            position += length;
+        }
+    }
+
+    private static final class Input {
+        private final DataInputStream in;
+        private final int trackId;
+        private final byte[] buffer = new byte[1024 * 64];
+        private long position = 0;
+        private byte[] ftyp;
+        private byte[] moov;
+        private byte[] trex;
+        private long timescale;
+        private long defaultSampleDuration;
+        private byte[] pendingHeader = null;
+        private byte[] moof = null;
+        private long moofPosition;
+        private long decodeTime = 0;
+        private long fragmentDuration;
+
+        private Input(InputStream in, int trackId) {
+            this.in = new DataInputStream(in);
+            this.trackId = trackId;
+        }
+
+        private void readHeader() throws IOException {
+            byte[] header;
+            while ((header = readBoxHeader()) != null) {
+                String type = type(header);
+                if (type.equals("ftyp")) {
+                    ftyp = readBox(header);
+                } else if (type.equals("moov")) {
+                    moov = readBox(header);
+                } else if (type.equals("moof") || type.equals("mdat")) {
+                    pendingHeader = header;
+                    break;
+                } else {
+                    skip(boxSize(header) - header.length);
+                }
+            }
+            if (ftyp == null || moov == null) {
+                throw new IOException("ftyp or moov box not found");
+            }
+            if (children(moov, headerSize(moov)).stream().filter(box -> box.type.equals("trak")).count() != 1) {
+                throw new IOException("Only streams with one track can be muxed");
+            }
+            byte[] mvex = child(moov, "mvex");
+            trex = child(mvex, "trex");
+            ByteBuffer.wrap(trex).putInt(12, trackId);
+            defaultSampleDuration = Integer.toUnsignedLong(ByteBuffer.wrap(trex).getInt(20));
+            byte[] trak = child(moov, "trak");
+            byte[] mdhd = child(child(trak, "mdia"), "mdhd");
+            timescale = Integer.toUnsignedLong(ByteBuffer.wrap(mdhd).getInt(mdhd[8] == 1 ? 28 : 20));
+            byte[] tkhd = child(trak, "tkhd");
+            ByteBuffer.wrap(tkhd).putInt(tkhd[8] == 1 ? 28 : 20, trackId);
+            //patched boxes are copies, so they are put back into the moov
+            replaceChild(trak, "tkhd", tkhd);
+            replaceChild(moov, "trak", trak);
+        }
+
+        private void nextFragment() throws IOException {
+            moof = null;
+            byte[] header = pendingHeader;
+            pendingHeader = null;
+            while (header != null || (header = readBoxHeader()) != null) {
+                String type = type(header);
+                if (type.equals("moof")) {
+                    moofPosition = position - header.length;
+                    moof = readBox(header);
+                    readTimes();
+                    return;
+                }
+                if (type.equals("mdat")) {
+                    logger.warn("mdat without moof is skipped");
+                }
+                skip(boxSize(header) - header.length);
+                header = null;
+            }
+        }
+
+        private double seconds() {
+            return (double) decodeTime / timescale;
+        }
+
+        private void readTimes() throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(moof);
+            fragmentDuration = 0;
+            for (Box traf : children(moof, headerSize(moof))) {
+                if (!traf.type.equals("traf")) {
+                    continue;
+                }
+                long defaultDuration = defaultSampleDuration;
+                for (Box box : children(moof, traf.offset + traf.header, traf.offset + traf.size)) {
+                    int flags = buffer.getInt(box.offset + 8) & 0xFFFFFF;
+                    if (box.type.equals("tfhd")) {
+                        int field = box.offset + 16;
+                        field += (flags & TFHD_BASE_DATA_OFFSET) != 0 ? 8 : 0;
+                        field += (flags & TFHD_SAMPLE_DESCRIPTION_INDEX) != 0 ? 4 : 0;
+                        if ((flags & TFHD_DEFAULT_SAMPLE_DURATION) != 0) {
+                            defaultDuration = Integer.toUnsignedLong(buffer.getInt(field));
+                        }
+                    } else if (box.type.equals("tfdt")) {
+                        decodeTime = moof[box.offset + 8] == 1
+                                ? buffer.getLong(box.offset + 12)
+                                : Integer.toUnsignedLong(buffer.getInt(box.offset + 12));
+                    } else if (box.type.equals("trun")) {
+                        fragmentDuration += trunDuration(buffer, box.offset, flags, defaultDuration);
+                    }
+                }
+            }
+        }
+
+        private long trunDuration(ByteBuffer buffer, int offset, int flags, long defaultDuration) {
+            long count = Integer.toUnsignedLong(buffer.getInt(offset + 12));
+            if ((flags & TRUN_SAMPLE_DURATION) == 0) {
+                return count * defaultDuration;
+            }
+            int sample = offset + 16;
+            sample += (flags & TRUN_DATA_OFFSET) != 0 ? 4 : 0;
+            sample += (flags & TRUN_FIRST_SAMPLE_FLAGS) != 0 ? 4 : 0;
+            int sampleSize = 4;
+            sampleSize += (flags & TRUN_SAMPLE_SIZE) != 0 ? 4 : 0;
+            sampleSize += (flags & TRUN_SAMPLE_FLAGS) != 0 ? 4 : 0;
+            sampleSize += (flags & TRUN_SAMPLE_COMPOSITION_OFFSET) != 0 ? 4 : 0;
+            long duration = 0;
+            for (long i = 0; i < count; i++, sample += sampleSize) {
+                duration += Integer.toUnsignedLong(buffer.getInt(sample));
+            }
+            return duration;
+        }
+
+        //moof and mdat are written next to each other, offsets to the samples are moved along with them
+        private void writeFragment(Output output, int sequence) throws IOException {
+            byte[] header;
+            while ((header = readBoxHeader()) != null && !type(header).equals("mdat")) {
+                skip(boxSize(header) - header.length);
+            }
+            if (header == null) {
+                throw new EOFException("mdat of a fragment not found");
+            }
+            long dataPosition = position;
+            long dataShift = output.position + moof.length + header.length - dataPosition;
+            long offsetShift = (moof.length + header.length) - (dataPosition - moofPosition);
+            patchMoof(sequence, dataShift, offsetShift);
+            output.write(moof);
+            output.write(header);
+            long remaining = boxSize(header) - header.length;
+            while (remaining > 0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    throw new EOFException("mdat ended before its size");
+                }
+                position += read;
+                remaining -= read;
+                output.write(buffer, 0, read);
+            }
+            decodeTime += fragmentDuration;
+        }
+
+        private void patchMoof(int sequence, long dataShift, long offsetShift) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(moof);
+            boolean firstTraf = true;
+            for (Box box : children(moof, headerSize(moof))) {
+                if (box.type.equals("mfhd")) {
+                    buffer.putInt(box.offset + 12, sequence);
+                } else if (box.type.equals("traf")) {
+                    boolean relativeToMoof = firstTraf;
+                    boolean hasBase = false;
+                    for (Box child : children(moof, box.offset + box.header, box.offset + box.size)) {
+                        int flags = buffer.getInt(child.offset + 8) & 0xFFFFFF;
+                        if (child.type.equals("tfhd")) {
+                            buffer.putInt(child.offset + 12, trackId);
+                            hasBase = (flags & TFHD_BASE_DATA_OFFSET) != 0;
+                            relativeToMoof |= (flags & TFHD_DEFAULT_BASE_IS_MOOF) != 0;
+                            if (hasBase) {
+                                buffer.putLong(child.offset + 16, buffer.getLong(child.offset + 16) + dataShift);
+                            }
+                        } else if (child.type.equals("trun") && (flags & TRUN_DATA_OFFSET) != 0 && !hasBase && relativeToMoof) {
+                            buffer.putInt(child.offset + 16, (int) (buffer.getInt(child.offset + 16) + offsetShift));
+                        }
+                    }
+                    firstTraf = false;
+                }
+            }
+        }
+
+        private byte[] readBoxHeader() throws IOException {
+            byte[] header = new byte[8];
+            int read = in.read(header, 0, 1);
+            if (read < 0) {
+                return null;
+            }
+            in.readFully(header, 1, 7);
+            position += 8;
+            if (ByteBuffer.wrap(header).getInt() == 1) {
+                byte[] large = new byte[16];
+                System.arraycopy(header, 0, large, 0, 8);
+                in.readFully(large, 8, 8);
+                position += 8;
+                header = large;
+            } else if (ByteBuffer.wrap(header).getInt() == 0) {
+                throw new IOException("Boxes without size are not supported");
+            }
+            return header;
+        }
+
+        private byte[] readBox(byte[] header) throws IOException {
+            long size = boxSize(header);
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Box is too large: " + size);
+            }
+            byte[] box = new byte[(int) size];
+            System.arraycopy(header, 0, box, 0, header.length);
+            in.readFully(box, header.length, box.length - header.length);
+            position += box.length - header.length;
+            return box;
+        }
+
+        private void skip(long count) throws IOException {
+            while (count > 0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, count));
+                if (read < 0) {
+                    throw new EOFException();
+                }
+                position += read;
+                count -= read;
+            }
+        }
+
+        private static String type(byte[] header) {
+            return new String(header, 4, 4, StandardCharsets.ISO_8859_1);
+        }
+
+        private static long boxSize(byte[] header) {
+            ByteBuffer buffer = ByteBuffer.wrap(header);
+            return header.length == 16 ? buffer.getLong(8) : Integer.toUnsignedLong(buffer.getInt(0));
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package io.github.x45iq.jtube;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Objects;
+
+/**
+ * The {@code Muxer} class represents tool to merge separately downloaded video and audio of adaptive formats
+ * into one file without external tools. Streams are copied without re-encoding.
+ * Both streams must have the same container: fragmented MP4 (mp4 video with m4a audio) or WebM (webm video with opus audio).
+ * Seek indexes of the inputs are not copied to the output
+ *
+ * @author Artem Shein
+ */
+public final class Muxer {
+    private static final int EBML_MAGIC = 0x1A45DFA3;
+
+    private Muxer() {
+
+    }
+
+    /**
+     * Merges video and audio streams to the output stream. Streams are read once and are not closed,
+     * the output stream is flushed
+     *
+     * @param video stream of {@code VideoStreamingData}
+     * @param audio stream of {@code AudioStreamingData}
+     * @param out   stream to write the merged file
+     * @throws IOException on error or if the streams can't be merged
+     */
+    public static void mux(InputStream video, InputStream audio, OutputStream out) throws IOException {
+        InputStream videoStream = new BufferedInputStream(Objects.requireNonNull(video));
+        InputStream audioStream = new BufferedInputStream(Objects.requireNonNull(audio));
+        Objects.requireNonNull(out);
+        boolean webm = isWebm(videoStream);
+        if (webm != isWebm(audioStream)) {
+            throw new IOException("Video and audio have different containers");
+        }
+        if (webm) {
+            WebmRemuxer.mux(videoStream, audioStream, out);
+        } else {
+            Mp4Remuxer.mux(videoStream, audioStream, out);
+        }
+    }
+
+    /**
+     * Merges video and audio files to the output file
+     *
+     * @param video  file of {@code VideoStreamingData}
+     * @param audio  file of {@code AudioStreamingData}
+     * @param output file to write the merged file
+     * @throws IOException on error or if the files can't be merged
+     */
+    public static void mux(File video, File audio, File output) throws IOException {
+        try (InputStream videoStream = new FileInputStream(Objects.requireNonNull(video));
+             InputStream audioStream = new FileInputStream(Objects.requireNonNull(audio));
+             OutputStream out = new BufferedOutputStream(new FileOutputStream(Objects.requireNonNull(output)))) {
+            mux(videoStream, audioStream, out);
+        }
+    }
+
+    private static boolean isWebm(InputStream in) throws IOException {
+        in.mark(4);
+        int magic = 0;
+        for (int i = 0; i < 4; i++) {
+            int read = in.read();
+            magic = (magic << 8) | (read < 0 ? 0 : read);
+        }
+        in.reset();
+        return magic == EBML_MAGIC;
+    }
+}
@@ -0,0 +1,439 @@
+package io.github.x45iq.jtube;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+
+import static io.github.x45iq.jtube.FileTools.*;
+
+/**
+ * The {@code MuxingDownloader} class represents tool to download {@code VideoStreamingData} and {@code AudioStreamingData}
+ * of adaptive formats into one file. Both streams are downloaded simultaneously and merged by {@code Muxer} as data arrives,
+ * so the file is written once and no temporary files are used
+ *
+ * @author Artem Shein
+ */
+public final class MuxingDownloader {
+    private final VideoStreamingData videoStreamingData;
+    private final AudioStreamingData audioStreamingData;
+    private final File folder;
+    private final String fileName;
+    private final int threadsCount;
+    private final long packetSize;
+    private final long reorderBufferSize;
+    private final int callbackTimeoutMils;
+    private final boolean clip;
+    private final long clipStartMils;
+    private final long clipEndMils;
+    private final RetryPolicy retryPolicy;
+    private final HttpTransport videoTransport;
+    private final HttpTransport audioTransport;
+    private final Consumer<Progress> progressCallback;
+
+    private MuxingDownloader(Builder builder) {
+        this.videoStreamingData = builder.videoStreamingData;
+        this.audioStreamingData = builder.audioStreamingData;
+        this.folder = builder.folder;
+        this.fileName = builder.fileName;
+        this.threadsCount = builder.threadsCount;
+        this.packetSize = builder.packetSize;
+        this.reorderBufferSize = builder.reorderBufferSize;
+        this.callbackTimeoutMils = builder.callbackTimeoutMils;
+        this.clip = builder.clip;
+        this.clipStartMils = builder.clipStartMils;
+        this.clipEndMils = builder.clipEndMils;
+        this.retryPolicy = builder.retryPolicy;
+        this.videoTransport = builder.videoTransport;
+        this.audioTransport = builder.audioTransport;
+        this.progressCallback = builder.progressCallback;
+    }
+
+    /**
+     * Downloads and merges video and audio in a format of the video
+     *
+     * @return {@code File} object to which video and audio were merged
+     * @throws IOException on error
+     */
+    public File download() throws IOException {
+        Objects.requireNonNull(folder);
+        File exportFile = createExportFile(folder, fileName, videoStreamingData.format());
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(exportFile))) {
+            download(out);
+        } catch (IOException | RuntimeException e) {
+            deleteFile(exportFile);
+            throw e;
+        }
+        return exportFile;
+    }
+
+    /**
+     * Downloads and merges video and audio to the stream. The stream is flushed, but not closed
+     *
+     * @param out stream to write the merged file
+     * @throws IOException on error
+     */
+    public void download(OutputStream out) throws IOException {
+        Objects.requireNonNull(out);
+        CombinedProgress progress = progressCallback == null ? null : new CombinedProgress(progressCallback);
+        Pipe videoPipe = Pipe.open();
+        Pipe audioPipe = Pipe.open();
+        DownloadTask<Void> videoTask;
+        DownloadTask<Void> audioTask;
+        try {
+            videoTask = start(videoStreamingData, videoTransport, videoPipe, progress == null ? null : progress::video);
+        } catch (UncheckedIOException e) {
+            close(videoPipe);
+            close(audioPipe);
+            throw e.getCause();
+        }
+        try {
+            audioTask = start(audioStreamingData, audioTransport, audioPipe, progress == null ? null : progress::audio);
+        } catch (UncheckedIOException e) {
+            videoTask.cancel();
+            videoTask.awaitReleased();
+            close(videoPipe);
+            close(audioPipe);
+            throw e.getCause();
+        }
+        try (InputStream video = Channels.newInputStream(videoPipe.source());
+             InputStream audio = Channels.newInputStream(audioPipe.source())) {
+            Muxer.mux(video, audio, out);
+            //data after the end of a container is not muxed, but the downloads can't finish until it is read
+            drain(video);
+            drain(audio);
+            videoTask.future().join();
+            audioTask.future().join();
+        } catch (IOException | CompletionException e) {
+            videoTask.cancel();
+            audioTask.cancel();
+            videoTask.awaitReleased();
+            audioTask.awaitReleased();
+            //a broken stream is only a consequence of a failed download, its failure is reported instead
+            IOException failure = failure(videoTask).orElse(failure(audioTask).orElse(null));
+            if (failure != null) {
+                throw failure;
+            }
+            throw e instanceof IOException ? (IOException) e : new IOException(e.getCause());
+        }
+    }
+
+    //every download has its own engine and transport, with shared ones a stream waiting for the muxer
+    //could hold all workers or all connections to the host, while the muxer waits for the other stream
+    private DownloadTask<Void> start(StreamingData streamingData, HttpTransport transport, Pipe pipe, Consumer<Progress> callback) {
+        Pipe.SinkChannel sink = pipe.sink();
+        //a connection per worker, so a worker never waits for a connection held by a worker waiting for the muxer
+        PooledHttpTransport ownTransport = transport == null
+                ? new PooledHttpTransport.Builder().maxConnectionsPerHost(threadsCount).build()
+                : null;
+        DownloadEngine engine = new DownloadEngine.Builder()
+                .workersCount(threadsCount)
+                .transport(ownTransport == null ? transport : ownTransport)
+                .build();
+        StreamingDataDownloader.Builder builder = new StreamingDataDownloader.Builder()
+                .streamingData(streamingData)
+                .engine(engine)
+                .threadsCount(threadsCount)
+                .packetSize(packetSize)
+                .reorderBufferSize(reorderBufferSize)
+                .callbackTimeout(callbackTimeoutMils)
+                .retryPolicy(retryPolicy)
+                .progressCallback(callback);
+        if (clip) {
+            builder.clip(clipStartMils, clipEndMils);
+        }
+        DownloadTask<Void> task;
+        try {
+            task = builder.build().downloadAsync(sink);
+        } catch (RuntimeException e) {
+            engine.close();
+            if (ownTransport != null) {
+                ownTransport.close();
+            }
+            throw e;
+        }
+        //the muxer reads the end of the stream once the sink is closed
+        task.future().whenComplete((result, e) -> {
+            engine.close();
+            if (ownTransport != null) {
+                ownTransport.close();
+            }
+            try {
+                sink.close();
+            } catch (IOException ignored) {
+            }
+        });
+        return task;
+    }
+
+    private static void close(Pipe pipe) throws IOException {
+        pipe.sink().close();
+        pipe.source().close();
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[8192];
+        while (in.read(buffer) != -1) {
+        }
+    }
+
+    private static Optional<IOException> failure(DownloadTask<Void> task) {
+        try {
+            task.future().getNow(null);
+            return Optional.empty();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            return cause instanceof IOException ? Optional.of((IOException) cause) : Optional.empty();
+        } catch (RuntimeException e) {
+            return Optional.empty();
+        }
+    }
+
+    //progress of both downloads reported as one
+    private static final class CombinedProgress {
+        private final Consumer<Progress> callback;
+        private Progress video = null;
+        private Progress audio = null;
+
+        private CombinedProgress(Consumer<Progress> callback) {
+            this.callback = callback;
+        }
+
+        private synchronized void video(Progress progress) {
+            video = progress;
+            emit();
+        }
+
+        private synchronized void audio(Progress progress) {
+            audio = progress;
+            emit();
+        }
+
+        private void emit() {
+            if (video == null || audio == null) {
+                return;
+            }
+            Map<FailureType, Integer> retries = new EnumMap<>(FailureType.class);
+            for (FailureType type : FailureType.values()) {
+                int count = video.retries(type) + audio.retries(type);
+                if (count > 0) {
+                    retries.put(type, count);
+                }
+            }
+            long eta = video.etaMils() < 0 || audio.etaMils() < 0 ? -1 : Math.max(video.etaMils(), audio.etaMils());
+            callback.accept(new Progress(video.downloaded() + audio.downloaded(), video.contentLen() + audio.contentLen(),
+                    retries, video.speed() + audio.speed(), eta));
+        }
+    }
+
+    /**
+     * The {@code MuxingDownloader.Builder} class represents a builder for MuxingDownloader.
+     */
+    public static final class Builder implements Cloneable {
+        private VideoStreamingData videoStreamingData = null;
+        private AudioStreamingData audioStreamingData = null;
+        private File folder = null;
+        private String fileName = null;
+        private int threadsCount = 20;
+        private long packetSize = 1024*100;//100kb
+        private long reorderBufferSize = 1024*1024*16;//16mb
+        private int callbackTimeoutMils = 1000;
+        private boolean clip = false;
+        private long clipStartMils = 0;
+        private long clipEndMils = 0;
+        private RetryPolicy retryPolicy = new RetryPolicy.Builder().build();
+        private HttpTransport videoTransport = null;
+        private HttpTransport audioTransport = null;
+        private Consumer<Progress> progressCallback = null;
+
+        /**
+         * Sets video streaming data
+         *
+         * @param videoStreamingData data
+         * @return {@code Builder}
+         */
+        public Builder videoStreamingData(VideoStreamingData videoStreamingData) {
+            this.videoStreamingData = videoStreamingData;
+            return this;
+        }
+
+        /**
+         * Sets audio streaming data
+         *
+         * @param audioStreamingData data
+         * @return {@code Builder}
+         */
+        public Builder audioStreamingData(AudioStreamingData audioStreamingData) {
+            this.audioStreamingData = audioStreamingData;
+            return this;
+        }
+
+        /**
+         * Sets parent folder for export file
+         *
+         * @param folder directory
+         * @return {@code Builder}
+         */
+        public Builder folder(File folder) {
+            this.folder = folder;
+            return this;
+        }
+
+        /**
+         * Sets filename for export file
+         *
+         * @param fileName name
+         * @return {@code Builder}
+         */
+        public Builder fileName(String fileName) {
+            this.fileName = fileName;
+            return this;
+        }
+
+        /**
+         * Sets downloading thread count of each stream
+         *
+         * @param threadsCount count
+         * @return {@code Builder}
+         */
+        public Builder threadsCount(int threadsCount) {
+            this.threadsCount = threadsCount;
+            return this;
+        }
+
+        /**
+         * Sets download packet size
+         *
+         * @param packetSize size
+         * @return {@code Builder}
+         */
+        public Builder packetSize(long packetSize) {
+            this.packetSize = packetSize;
+            return this;
+        }
+
+        /**
+         * Sets max size in bytes of data of each stream kept in memory until the muxer reads it
+         *
+         * @param reorderBufferSize size
+         * @return {@code Builder}
+         */
+        public Builder reorderBufferSize(long reorderBufferSize) {
+            this.reorderBufferSize = reorderBufferSize;
+            return this;
+        }
+
+        /**
+         * Sets min interval in mils between progress callbacks of each stream
+         *
+         * @param callbackTimeoutMils timeout
+         * @return {@code Builder}
+         */
+        public Builder callbackTimeout(int callbackTimeoutMils) {
+            this.callbackTimeoutMils = callbackTimeoutMils;
+            return this;
+        }
+
+        /**
+         * Downloads only a clip of video and audio, see {@code StreamingDataDownloader.Builder.clip}
+         *
+         * @param startMils start of the window
+         * @param endMils   end of the window
+         * @return {@code Builder}
+         */
+        public Builder clip(long startMils, long endMils) {
+            this.clip = true;
+            this.clipStartMils = startMils;
+            this.clipEndMils = endMils;
+            return this;
+        }
+
+        /**
+         * Sets rules of retrying failed packet requests
+         *
+         * @param retryPolicy policy
+         * @return {@code Builder}
+         */
+        public Builder retryPolicy(RetryPolicy retryPolicy) {
+            this.retryPolicy = retryPolicy;
+            return this;
+        }
+
+        /**
+         * Sets transport of packet requests of video. It must not be shared with audio and should allow
+         * {@code threadsCount} connections per host, otherwise workers of video waiting for the muxer may hold
+         * all connections the muxer needs for audio.
+         * By default every download uses its own {@code PooledHttpTransport} for each stream
+         *
+         * @param videoTransport transport
+         * @return {@code Builder}
+         */
+        public Builder videoTransport(HttpTransport videoTransport) {
+            this.videoTransport = Objects.requireNonNull(videoTransport);
+            return this;
+        }
+
+        /**
+         * Sets transport of packet requests of audio, see {@code videoTransport}
+         *
+         * @param audioTransport transport
+         * @return {@code Builder}
+         */
+        public Builder audioTransport(HttpTransport audioTransport) {
+            this.audioTransport = Objects.requireNonNull(audioTransport);
+            return this;
+        }
+
+        /**
+         * Sets progress callback, it gets progress of both streams together
+         *
+         * @param progressCallback callback
+         * @return {@code Builder}
+         */
+        public Builder progressCallback(Consumer<Progress> progressCallback) {
+            this.progressCallback = progressCallback;
+            return this;
+        }
+
+        /**
+         * Returns {@code MuxingDownloader} with {@code Builder} params
+         *
+         * @return {@code MuxingDownloader} object;
+         */
+        public MuxingDownloader build() {
+            Objects.requireNonNull(videoStreamingData);
+            Objects.requireNonNull(audioStreamingData);
+            Objects.requireNonNull(retryPolicy);
+            VideoFormat videoFormat = videoStreamingData.videoTrack().format();
+            AudioFormat audioFormat = audioStreamingData.audioTrack().format();
+            if ((videoFormat == VideoFormat.F_MP4) != (audioFormat == AudioFormat.F_M4A)) {
+                throw new IllegalArgumentException(String.format("%s video can't be muxed with %s audio", videoFormat, audioFormat));
+            }
+            if (videoTransport != null && videoTransport == audioTransport) {
+                throw new IllegalArgumentException("video and audio can't share a transport");
+            }
+            fileName = fileName == null ? createRandomFileName() : fileName;
+            if (threadsCount <= 0) throw new IndexOutOfBoundsException("n > 0");
+            if (packetSize <= 0) throw new IndexOutOfBoundsException("n > 0");
+            if (reorderBufferSize <= 0) throw new IndexOutOfBoundsException("n > 0");
+            if (callbackTimeoutMils < 0) throw new IndexOutOfBoundsException("n >= 0");
+            if (clip && (clipStartMils < 0 || clipEndMils <= clipStartMils)) throw new IndexOutOfBoundsException("0 <= start < end");
+            try {
+                return new MuxingDownloader((Builder) this.clone());
+            } catch (CloneNotSupportedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
@@ -1,51 +1,204 @@
 package io.github.x45iq.jtube;
 
 import com.google.gson.JsonObject;
-import org.jsoup.Connection;
+import org.jsoup.HttpStatusException;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
 
 class NetTools {
     private static final Logger logger = LoggerFactory.getLogger(NetTools.class);
+    static final HttpTransport DEFAULT_TRANSPORT = new PooledHttpTransport.Builder().build();
 
     private NetTools() {
 
     }
 
-    static Document getPage(String url) throws IOException {
+    static Document getPage(HttpTransport transport, String url) throws IOException {
+        assert transport != null;
         assert url != null;
-        return Jsoup
-                .connect(url)
-                .userAgent(RandomUserAgent.create())
-                .get();
+        Map<String, String> headers = new HashMap<>();
+        headers.put("User-Agent", RandomUserAgent.create());
+        headers.put("Accept-Encoding", "gzip");
+        try (HttpTransport.Response response = transport.execute(new HttpTransport.Request("GET", url, headers, null))) {
+            checkStatus(response, url);
+            return Jsoup.parse(body(response), null, url);
+        }
     }
 
-    static String postApi(String url, JsonObject post) throws IOException {
+    //the watch page is streamed through the scanner as chars, without building a document,
+    //reading stops as soon as the scanner has everything, the rest of the page is never downloaded
+    static WatchPageScanner getWatchPage(HttpTransport transport, String url) throws IOException {
+        assert transport != null;
+        assert url != null;
+        Map<String, String> headers = new HashMap<>();
+        headers.put("User-Agent", RandomUserAgent.create());
+        headers.put("Accept-Encoding", "gzip");
+        HttpTransport.Response response = transport.execute(new HttpTransport.Request("GET", url, headers, null));
+        WatchPageScanner scanner = new WatchPageScanner();
+        boolean ended = false;
+        try {
+            checkStatus(response, url);
+            Reader reader = new InputStreamReader(body(response), StandardCharsets.UTF_8);
+            char[] buffer = new char[1024 * 8];
+            long chars = 0;
+            int read = 0;
+            while (!scanner.complete() && (read = reader.read(buffer)) != -1) {
+                scanner.feed(buffer, 0, read);
+                chars += read;
+            }
+            ended = read == -1;
+            if (!ended) {
+                logger.debug(String.format("watch page %s read up to %s chars", url, chars));
+            }
+            return scanner;
+        } finally {
+            //closing a connection with unread body would drain it, so it is dropped instead
+            if (ended) {
+                response.close();
+            } else {
+                response.abort();
+            }
+        }
+    }
+
+    static String postApi(HttpTransport transport, String url, JsonObject post) throws IOException {
+        return postApi(transport, url, post, Collections.emptyMap());
+    }
+
+    //extra headers replace the default ones
+    static String postApi(HttpTransport transport, String url, JsonObject post, Map<String, String> extraHeaders) throws IOException {
+        assert transport != null;
         assert url != null;
         assert post != null;
-        return Jsoup.connect(url)
-                .userAgent(RandomUserAgent.create())
-                .ignoreContentType(true)
-                .header("Content-Type", "application/json")
-                .header("Accept", "*/*")
-                .requestBody(post.toString())
-                .post()
-                .body().text();
+        assert extraHeaders != null;
+        Map<String, String> headers = new HashMap<>();
+        headers.put("User-Agent", RandomUserAgent.create());
+        headers.put("Accept-Encoding", "gzip");
+        headers.put("Content-Type", "application/json");
+        headers.put("Accept", "*/*");
+        headers.putAll(extraHeaders);
+        byte[] body = post.toString().getBytes(StandardCharsets.UTF_8);
+        try (HttpTransport.Response response = transport.execute(new HttpTransport.Request("POST", url, headers, body))) {
+            checkStatus(response, url);
+            return new String(readAll(body(response)), StandardCharsets.UTF_8);
+        }
+    }
 
+    static long getContentLen(HttpTransport transport, String url) throws IOException {
+        assert transport != null;
+        assert url != null;
+        Map<String, String> headers = new HashMap<>();
+        headers.put("User-Agent", RandomUserAgent.create());
+        HttpTransport.Response response = transport.execute(new HttpTransport.Request("POST", url, headers, "x\u0000".getBytes(StandardCharsets.ISO_8859_1)));
+        try {
+            checkStatus(response, url);
+            return Long.parseLong(response.header("Content-Length").orElse("0"));
+        } finally {
+            //only headers are needed, reading the body would download the whole stream
+            response.abort();
+        }
+    }
+
+    static byte[] getRange(HttpTransport transport, String url, long start, long end) throws IOException {
+        assert transport != null;
+        assert url != null;
+        assert start >= 0;
+        assert end > start;
+        assert end - start <= Integer.MAX_VALUE;
+        HttpTransport.Response response = transport.execute(rangeRequest(url, start, end, RangeMode.HEADER));
+        boolean complete = false;
+        try {
+            checkStatus(response, url);
+            InputStream body = response.body();
+            //a server ignoring the range sends the whole stream from the start
+            skip(body, response.status() == 206 ? 0 : start);
+            byte[] data = new byte[(int) (end - start)];
+            int offset = 0;
+            int read;
+            while (offset < data.length && (read = body.read(data, offset, data.length - offset)) != -1) {
+                offset += read;
+            }
+            if (offset < data.length) {
+                throw new EOFException(String.format("range ended at %s of %s", start + offset, end));
+            }
+            complete = response.status() == 206;
+            return data;
+        } finally {
+            if (complete) {
+                response.close();
+            } else {
+                response.abort();
+            }
+        }
     }
 
-    static long getContentLen(String url) throws IOException {
+    //end is exclusive as everywhere in the library, while http ranges include their last byte
+    static HttpTransport.Request rangeRequest(String url, long start, long end, RangeMode mode) {
         assert url != null;
-        String len = Jsoup.connect(url)
-                .method(Connection.Method.POST)
-                .userAgent(RandomUserAgent.create())
-                .requestBody("x\u0000")
-                .ignoreContentType(true)
-                .execute().header("Content-Length");
-        return Long.parseLong(len == null ? "0" : len);
+        assert start >= 0;
+        assert end > start;
+        assert mode != null;
+        String range = String.format("%s-%s", start, end - 1);
+        Map<String, String> headers = new HashMap<>();
+        headers.put("User-Agent", RandomUserAgent.create());
+        if (mode == RangeMode.HEADER) {
+            headers.put("Range", "bytes=" + range);
+        } else {
+            url = String.format("%s%srange=%s", url, url.contains("?") ? "&" : "?", range);
+        }
+        return new HttpTransport.Request("POST", url, headers, "x\u0000".getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    static void skip(InputStream in, long count) throws IOException {
+        assert in != null;
+        assert count >= 0;
+        while (count > 0) {
+            long step = in.skip(count);
+            //skip may return 0 before the end, only read tells the end for sure
+            if (step <= 0) {
+                if (in.read() == -1) {
+                    throw new EOFException(String.format("stream ended %s bytes before the range", count));
+                }
+                step = 1;
+            }
+            count -= step;
+        }
+    }
+
+    static void checkStatus(HttpTransport.Response response, String url) throws HttpStatusException {
+        assert response != null;
+        assert url != null;
+        if (response.status() < 200 || response.status() >= 300) {
+            throw new HttpStatusException("HTTP error fetching URL", response.status(), url);
+        }
+    }
+
+    private static InputStream body(HttpTransport.Response response) throws IOException {
+        boolean gzip = response.header("Content-Encoding").map("gzip"::equalsIgnoreCase).orElse(false);
+        return gzip ? new GZIPInputStream(response.body()) : response.body();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
     }
 }
@@ -0,0 +1,164 @@
+package io.github.x45iq.jtube;
+
+import java.io.EOFException;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+final class OrderedPacketWriter implements PacketWriter {
+    private static final long BUDGET_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private final WritableByteChannel channel;
+    private final Flushable flushable;
+    private final Runnable abortHook;
+    private final long contentLength;
+    private final long windowSize;
+    private final MemoryBudget budget;
+    private final BufferPool pool;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition windowMoved = lock.newCondition();
+    private final Map<Long, ByteBuffer> pending = new HashMap<>();
+    private long emitted = 0;
+    private boolean aborted = false;
+
+    OrderedPacketWriter(WritableByteChannel channel, Flushable flushable, Runnable abortHook, long contentLength, long windowSize,
+                        MemoryBudget budget, BufferPool pool) {
+        assert channel != null;
+        assert contentLength >= 0;
+        assert windowSize > 0;
+        assert budget != null;
+        assert pool != null;
+        this.channel = channel;
+        this.flushable = flushable;
+        this.abortHook = abortHook;
+        this.contentLength = contentLength;
+        this.windowSize = windowSize;
+        this.budget = budget;
+        this.pool = pool;
+    }
+
+    //data ahead of the emitted position waits in memory, writers running too far ahead of the window
+    //or over the memory budget are blocked, the owner of the emitted position never waits for the budget
+    @Override
+    public void write(long position, ByteBuffer buffer) throws IOException {
+        assert position >= 0;
+        assert buffer != null;
+        int length = buffer.remaining();
+        lock.lock();
+        try {
+            while (true) {
+                if (aborted) {
+                    throw new InterruptedIOException("aborted");
+                }
+                if (position == emitted) {
+                    break;
+                }
+                if (position + length > emitted + windowSize) {
+                    windowMoved.awaitUninterruptibly();
+                } else if (budget.tryAcquire(length)) {
+                    byte[] chunk = length <= BufferPool.BUFFER_SIZE ? pool.take() : new byte[length];
+                    buffer.get(chunk, 0, length);
+                    pending.put(position, ByteBuffer.wrap(chunk, 0, length));
+                    return;
+                } else {
+                    //the budget is released by other downloads too, they can't signal this writer
+                    awaitNanos(BUDGET_POLL_NANOS);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        //only the owner of the emitted position gets here, the position can't move until it is written
+        ByteBuffer next = buffer;
+        boolean pooled = false;
+        while (next != null) {
+            int nextLength = next.remaining();
+            try {
+                while (next.hasRemaining()) {
+                    channel.write(next);
+                }
+            } catch (IOException e) {
+                if (pooled) {
+                    release(next);
+                }
+                abort();
+                throw e;
+            }
+            if (pooled) {
+                release(next);
+            }
+            lock.lock();
+            try {
+                emitted += nextLength;
+                next = pending.remove(emitted);
+                pooled = true;
+                windowMoved.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (flushable != null) {
+            flushable.flush();
+        }
+    }
+
+    @Override
+    public void complete() throws IOException {
+        lock.lock();
+        try {
+            if (emitted != contentLength) {
+                throw new EOFException(String.format("stream ended at %s of %s", emitted, contentLength));
+            }
+        } finally {
+            lock.unlock();
+        }
+        flush();
+    }
+
+    @Override
+    public void abort() {
+        lock.lock();
+        try {
+            aborted = true;
+            pending.values().forEach(this::release);
+            pending.clear();
+            windowMoved.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        //the owner of the emitted position may wait inside the channel
+        if (abortHook != null) {
+            abortHook.run();
+        }
+    }
+
+    private void release(ByteBuffer chunk) {
+        budget.release(chunk.limit());
+        pool.give(chunk.array());
+    }
+
+    private void awaitNanos(long nanos) throws InterruptedIOException {
+        try {
+            windowMoved.awaitNanos(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    //the channel belongs to the caller and stays open
+    @Override
+    public void close() {
+        abort();
+    }
+}
@@ -1,75 +1,410 @@
 package io.github.x45iq.jtube;
 
 
-import org.jsoup.Connection;
-import org.jsoup.Jsoup;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.File;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
-import java.util.function.LongConsumer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
-class PacketDownloader implements Runnable {
+class PacketDownloader {
     private static final Logger logger = LoggerFactory.getLogger(PacketDownloader.class);
+    private static final int RATE_SAMPLES = 32;
+    private static final int MIN_RATE_SAMPLES = 3;
+    private static final double STRAGGLER_SLOWDOWN = 3;
+    private static final double STRAGGLER_DELAY = 2;
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+|\\*)");
     private final String url;
-    private final long start;
-    private final long end;
-    private final File file;
-    private final LongConsumer callback;
-    private final Runnable failCallback;
+    private final long contentLength;
+    private final HttpTransport transport;
+    private final RangeMode rangeMode;
+    private final PacketPlanner planner;
+    private final PacketWriter writer;
+    private final ProgressTracker progress;
+    private final Consumer<PacketPlanner.Packet> packetCallback;
+    private final List<BandwidthLimiter> limiters;
+    private final RetryPolicy retryPolicy;
+    private final boolean hedging;
+    private final AtomicInteger retryBudget;
+    private final Set<HttpTransport.Response> requests = ConcurrentHashMap.newKeySet();
+    private final Set<InFlight> inFlights = ConcurrentHashMap.newKeySet();
+    private final Deque<Double> rates = new ArrayDeque<>();
+    private final AtomicLong transferred = new AtomicLong(0);
+    private final AtomicInteger congestion = new AtomicInteger(0);
+    private final AtomicBoolean rangesIgnored = new AtomicBoolean(false);
+    private volatile Throwable failure = null;
+    private final CountDownLatch abortSignal = new CountDownLatch(1);
+    private volatile boolean aborted = false;
 
-    PacketDownloader(String url, File file, long start, long end, LongConsumer callback, Runnable failCallback) {
+    PacketDownloader(String url, long contentLength, HttpTransport transport, RangeMode rangeMode, PacketWriter writer, PacketPlanner planner, ProgressTracker progress, Consumer<PacketPlanner.Packet> packetCallback, List<BandwidthLimiter> limiters, RetryPolicy retryPolicy, boolean hedging) {
         assert url != null;
-        assert file != null;
-        assert start >= 0;
-        assert end > 0;
-        assert callback != null;
-        assert failCallback != null;
-        this.end = end;
-        this.start = start;
-        this.file = file;
+        assert contentLength >= 0;
+        assert transport != null;
+        assert rangeMode != null;
+        assert writer != null;
+        assert planner != null;
+        assert progress != null;
+        assert packetCallback != null;
+        assert limiters != null;
+        assert retryPolicy != null;
+        this.planner = planner;
+        this.writer = writer;
         this.url = url;
-        this.callback = callback;
-        this.failCallback = failCallback;
+        this.contentLength = contentLength;
+        this.transport = transport;
+        this.rangeMode = rangeMode;
+        this.progress = progress;
+        this.packetCallback = packetCallback;
+        this.limiters = limiters;
+        this.retryPolicy = retryPolicy;
+        this.hedging = hedging;
+        this.retryBudget = new AtomicInteger(retryPolicy.retryBudget());
     }
 
-    @Override
-    public void run() {
+    PacketPlanner planner() {
+        return planner;
+    }
+
+    Throwable failure() {
+        return failure;
+    }
+
+    boolean hedging() {
+        return hedging;
+    }
+
+    long transferred() {
+        return transferred.get();
+    }
+
+    //count of throttled and broken requests, they mean the connections are too many
+    int congestion() {
+        return congestion.get();
+    }
+
+    //a packet far slower than the median is a straggler, it gets one hedged copy on another connection
+    InFlight straggler() {
+        if (!hedging || aborted || failure != null || rangesIgnored.get()) {
+            return null;
+        }
+        double median;
+        synchronized (rates) {
+            if (rates.size() < MIN_RATE_SAMPLES) {
+                return null;
+            }
+            List<Double> sorted = new ArrayList<>(rates);
+            Collections.sort(sorted);
+            median = sorted.get(sorted.size() / 2);
+        }
+        long now = System.nanoTime();
+        InFlight worst = null;
+        double worstNanos = 0;
+        for (InFlight inFlight : inFlights) {
+            long elapsed = now - inFlight.startNanos;
+            long written = inFlight.frontier.get();
+            if (inFlight.hedged || inFlight.isDone() || written >= inFlight.packet.end
+                    || elapsed < STRAGGLER_DELAY * inFlight.packet.length() / median) {
+                continue;
+            }
+            double rate = (double) (written - inFlight.packet.start) / elapsed;
+            if (rate * STRAGGLER_SLOWDOWN > median) {
+                continue;
+            }
+            double remainingNanos = rate == 0 ? Double.MAX_VALUE : (inFlight.packet.end - written) / rate;
+            if (worst == null || remainingNanos > worstNanos) {
+                worst = inFlight;
+                worstNanos = remainingNanos;
+            }
+        }
+        if (worst != null) {
+            worst.hedged = true;
+        }
+        return worst;
+    }
+
+    //workers are not interrupted, an interrupt during a write would close the file channel shared by all packets
+    void abort() {
+        aborted = true;
+        abortSignal.countDown();
+        requests.forEach(HttpTransport.Response::abort);
+        writer.abort();
+    }
+
+    boolean downloadPacket(PacketPlanner.Packet packet, byte[] buffer) {
+        assert packet != null;
+        assert buffer != null;
+        InFlight inFlight = new InFlight(packet);
+        if (hedging) {
+            inFlights.add(inFlight);
+        }
+        try {
+            return downloadPacket(inFlight, buffer);
+        } finally {
+            inFlights.remove(inFlight);
+        }
+    }
+
+    //the copy is not retried, the original request keeps going if it fails
+    boolean hedgePacket(InFlight inFlight, byte[] buffer) {
+        assert inFlight != null;
+        assert buffer != null;
+        AtomicLong position = new AtomicLong(inFlight.frontier.get());
+        if (position.get() >= inFlight.packet.end) {
+            return true;
+        }
+        try {
+            download(inFlight, position, buffer);
+            if (inFlight.complete()) {
+                logger.debug(String.format("hedged packet %s-%s finished first", inFlight.packet.start, inFlight.packet.end));
+                packetCallback.accept(inFlight.packet);
+            }
+            return true;
+        } catch (WriteException e) {
+            if (!inFlight.isDone() && !aborted && failure == null) {
+                logger.error(String.format("packet %s-%s failed to write", inFlight.packet.start, inFlight.packet.end), e.getCause());
+                fail(e.getCause());
+                return false;
+            }
+            return true;
+        } catch (IOException e) {
+            logger.debug(String.format("hedged packet %s-%s failed", inFlight.packet.start, inFlight.packet.end), e);
+            return true;
+        }
+    }
+
+    private boolean downloadPacket(InFlight inFlight, byte[] buffer) {
+        PacketPlanner.Packet packet = inFlight.packet;
+        AtomicLong position = new AtomicLong(packet.start);
+        int[] attempts = new int[FailureType.values().length];
         while (true) {
+            long attemptStart = position.get();
             try {
-                download();
-                return;
+                long startTime = System.nanoTime();
+                download(inFlight, position, buffer);
+                if (inFlight.complete()) {
+                    long nanos = System.nanoTime() - startTime;
+                    planner.report(packet.end - attemptStart, nanos);
+                    rate(packet.end - attemptStart, nanos);
+                    packetCallback.accept(packet);
+                }
+                return true;
+            } catch (WriteException e) {
+                //retrying wouldn't help a full disk or a closed output
+                if (inFlight.isDone()) {
+                    return true;
+                }
+                if (!aborted && failure == null) {
+                    logger.error(String.format("packet %s-%s failed to write", packet.start, packet.end), e.getCause());
+                    fail(e.getCause());
+                }
+                return false;
             } catch (IOException e) {
-                logger.error("", e);
+                //the hedged copy has finished the packet and aborted this request
+                if (inFlight.isDone()) {
+                    return true;
+                }
+                //packets of a failed download are not retried
+                if (aborted || failure != null) {
+                    return false;
+                }
+                FailureType type = FailureType.of(e);
+                if (type == FailureType.THROTTLED || type == FailureType.NETWORK) {
+                    congestion.incrementAndGet();
+                }
+                int attempt = ++attempts[type.ordinal()];
+                if (attempt >= retryPolicy.maxAttempts(type) || retryBudget.getAndDecrement() <= 0) {
+                    logger.error(String.format("packet %s-%s failed: %s", packet.start, packet.end, type), e);
+                    fail(e);
+                    return false;
+                }
+                progress.retried(type);
+                logger.warn(String.format("packet %s-%s failed: %s, retry %s", packet.start, packet.end, type, attempt), e);
                 try {
-                    TimeUnit.SECONDS.sleep(2);
+                    if (abortSignal.await(retryPolicy.delayMils(type, attempt), TimeUnit.MILLISECONDS)) {
+                        return false;
+                    }
                 } catch (InterruptedException ex) {
-                    return;
+                    return false;
                 }
             } catch (Throwable e) {
-                failCallback.run();
-                return;
+                logger.error("", e);
+                fail(e);
+                return false;
+            }
+        }
+    }
+
+    private void fail(Throwable e) {
+        failure = e;
+        writer.abort();
+    }
+
+    private void rate(long bytes, long nanos) {
+        if (!hedging || bytes <= 0 || nanos <= 0) {
+            return;
+        }
+        synchronized (rates) {
+            if (rates.size() == RATE_SAMPLES) {
+                rates.removeFirst();
             }
+            rates.addLast((double) bytes / nanos);
         }
     }
 
-    private void download() throws IOException {
-        try (RandomAccessFile accessFile = new RandomAccessFile(file, "rwd")) {
-            accessFile.seek(start);
-            accessFile.write(Jsoup
-                    .connect(url)
-                    .ignoreContentType(true)
-                    .method(Connection.Method.POST)
-                    .userAgent(RandomUserAgent.create())
-                    .header("Range", String.format("bytes=%s-%s", start, end))
-                    .requestBody("x\u0000")
-                    .execute()
-                    .bodyAsBytes());
-            callback.accept(end - start);
+    private void download(InFlight inFlight, AtomicLong position, byte[] buffer) throws IOException {
+        long end = inFlight.packet.end;
+        HttpTransport.Response response = transport.execute(NetTools.rangeRequest(url, position.get(), end, rangeMode));
+        requests.add(response);
+        inFlight.responses.add(response);
+        //a body running past the packet can't be left unread on a reused connection
+        boolean exact = false;
+        try {
+            if (aborted) {
+                throw new InterruptedIOException("aborted");
+            }
+            NetTools.checkStatus(response, url);
+            long bodyStart = checkRange(response, position.get(), end);
+            boolean wholeStream = wholeStream(response, position.get(), end);
+            exact = !wholeStream || end == contentLength;
+            InputStream body = response.body();
+            if (wholeStream && !rangesIgnored.getAndSet(true)) {
+                logger.warn(String.format("server ignores ranges of %s, the rest of the stream is read in one request", url));
+                planner.wholeSpans();
+            }
+            if (bodyStart < position.get()) {
+                NetTools.skip(body, position.get() - bodyStart);
+            }
+            int read;
+            while (position.get() < end && !inFlight.isDone()
+                    && (read = body.read(buffer, 0, (int) Math.min(buffer.length, end - position.get()))) != -1) {
+                long start = position.get();
+                try {
+                    writer.write(start, ByteBuffer.wrap(buffer, 0, read));
+                } catch (IOException e) {
+                    throw new WriteException(e);
+                }
+                position.addAndGet(read);
+                transferred.addAndGet(read);
+                //both copies of a hedged packet write the same bytes, progress counts them once
+                long written = inFlight.frontier.getAndAccumulate(start + read, Math::max);
+                progress.add(Math.max(0, start + read - Math.max(written, start)));
+                for (BandwidthLimiter limiter : limiters) {
+                    if (!limiter.acquire(read, abortSignal)) {
+                        throw new InterruptedIOException("aborted");
+                    }
+                }
+            }
+            if (position.get() < end && !inFlight.isDone()) {
+                throw new EOFException(String.format("packet ended at %s of %s", position.get(), end));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } finally {
+            requests.remove(response);
+            inFlight.responses.remove(response);
+            //a connection with unread body can't be reused, it is dropped instead of draining
+            if (position.get() < end || !exact) {
+                response.abort();
+            } else {
+                response.close();
+            }
         }
     }
 
+    //a response for other bytes than requested would be written at the wrong place without any error,
+    //returns position in the stream the body starts at
+    private long checkRange(HttpTransport.Response response, long start, long end) throws IOException {
+        Optional<String> length = response.header("Content-Length").map(String::trim);
+        if (response.status() == 206) {
+            String contentRange = response.header("Content-Range").orElse("");
+            Matcher matcher = CONTENT_RANGE.matcher(contentRange);
+            if (!matcher.matches()) {
+                throw new IntegrityException(String.format("bad Content-Range '%s' for range %s-%s", contentRange, start, end - 1));
+            }
+            long first = Long.parseLong(matcher.group(1));
+            long last = Long.parseLong(matcher.group(2));
+            boolean totalMatches = matcher.group(3).equals("*") || Long.parseLong(matcher.group(3)) == contentLength;
+            if (first != start || last != end - 1 || !totalMatches) {
+                throw new IntegrityException(String.format("Content-Range '%s' doesn't match range %s-%s of %s",
+                        contentRange, start, end - 1, contentLength));
+            }
+            if (length.isPresent() && !length.get().equals(String.valueOf(end - start))) {
+                throw new IntegrityException(String.format("Content-Length %s doesn't match Content-Range '%s'", length.get(), contentRange));
+            }
+            return start;
+        }
+        if (response.status() != 200) {
+            throw new IntegrityException(String.format("expected 206 or 200 for range %s-%s, got %s", start, end - 1, response.status()));
+        }
+        //the url parameter range is answered with 200 and only the requested bytes
+        if (rangeMode == RangeMode.URL_PARAM && (!length.isPresent() || length.get().equals(String.valueOf(end - start)))) {
+            return start;
+        }
+        //a server ignoring the range sends the whole stream
+        if (!length.isPresent() || length.get().equals(String.valueOf(contentLength))) {
+            return 0;
+        }
+        throw new IntegrityException(String.format("Content-Length %s of 200 response matches neither range %s-%s nor length %s",
+                length.get(), start, end - 1, contentLength));
+    }
+
+    //a server ignoring ranges answers with the whole stream, whatever part of it is requested
+    private boolean wholeStream(HttpTransport.Response response, long start, long end) {
+        return response.status() == 200 && end - start < contentLength && (rangeMode == RangeMode.HEADER
+                || response.header("Content-Length").map(String::trim).filter(String.valueOf(contentLength)::equals).isPresent());
+    }
+
+    static final class InFlight {
+        private final PacketPlanner.Packet packet;
+        private final long startNanos = System.nanoTime();
+        private final AtomicLong frontier;
+        private final AtomicBoolean done = new AtomicBoolean(false);
+        private final Set<HttpTransport.Response> responses = ConcurrentHashMap.newKeySet();
+        //guarded by the engine lock
+        private boolean hedged = false;
+
+        private InFlight(PacketPlanner.Packet packet) {
+            this.packet = packet;
+            this.frontier = new AtomicLong(packet.start);
+        }
+
+        private boolean isDone() {
+            return done.get();
+        }
+
+        //the first copy to finish wins, the request of the other one is aborted
+        private boolean complete() {
+            if (!done.compareAndSet(false, true)) {
+                return false;
+            }
+            responses.forEach(HttpTransport.Response::abort);
+            return true;
+        }
+    }
+
+    private static final class WriteException extends IOException {
+        private WriteException(IOException cause) {
+            super(cause);
+        }
+    }
 }
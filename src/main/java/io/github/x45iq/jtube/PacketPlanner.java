@@ -0,0 +1,108 @@
+package io.github.x45iq.jtube;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+final class PacketPlanner {
+    private static final double THROUGHPUT_SMOOTHING = 0.3;
+    private final Deque<Packet> spans;
+    private final long minPacketSize;
+    private final long maxPacketSize;
+    private final long targetNanos;
+    private final int parallelism;
+    private final boolean adaptive;
+    private long remaining;
+    private long packetSize;
+    private double throughput = 0;
+    private boolean whole = false;
+
+    PacketPlanner(long contentLength, long packetSize) {
+        this(wholeContent(contentLength), packetSize, packetSize, 0, 1, false);
+    }
+
+    PacketPlanner(long contentLength, long minPacketSize, long maxPacketSize, long targetNanos, int parallelism, boolean adaptive) {
+        this(wholeContent(contentLength), minPacketSize, maxPacketSize, targetNanos, parallelism, adaptive);
+    }
+
+    PacketPlanner(List<Packet> spans, long minPacketSize, long maxPacketSize, long targetNanos, int parallelism, boolean adaptive) {
+        assert spans != null;
+        assert minPacketSize > 0;
+        assert maxPacketSize >= minPacketSize;
+        assert parallelism > 0;
+        assert !adaptive || targetNanos > 0;
+        this.spans = new ArrayDeque<>(spans);
+        this.remaining = spans.stream().mapToLong(Packet::length).sum();
+        this.minPacketSize = minPacketSize;
+        this.maxPacketSize = maxPacketSize;
+        this.targetNanos = targetNanos;
+        this.parallelism = parallelism;
+        this.adaptive = adaptive;
+        this.packetSize = minPacketSize;
+    }
+
+    synchronized Packet next() {
+        Packet span = spans.poll();
+        if (span == null) {
+            return null;
+        }
+        long size = whole ? span.length() : packetSize;
+        if (adaptive && !whole) {
+            //keep every connection busy until the end instead of leaving one huge tail packet
+            long share = align(remaining / parallelism);
+            size = Math.min(size, share);
+        }
+        long end = Math.min(span.end, span.start + size);
+        if (end < span.end) {
+            spans.push(new Packet(end, span.end));
+        }
+        remaining -= end - span.start;
+        return new Packet(span.start, end);
+    }
+
+    synchronized void report(long bytes, long nanos) {
+        if (!adaptive || bytes <= 0 || nanos <= 0) {
+            return;
+        }
+        double sample = (double) bytes / nanos;
+        throughput = throughput == 0 ? sample : THROUGHPUT_SMOOTHING * sample + (1 - THROUGHPUT_SMOOTHING) * throughput;
+        long desired = (long) (throughput * targetNanos);
+        desired = Math.max(packetSize / 2, Math.min(packetSize * 2, desired));
+        packetSize = Math.min(maxPacketSize, align(desired));
+    }
+
+    //every request to a server ignoring ranges costs the whole stream up to the packet, so the rest is one packet
+    synchronized void wholeSpans() {
+        whole = true;
+    }
+
+    synchronized long packetSize() {
+        return packetSize;
+    }
+
+    private static List<Packet> wholeContent(long contentLength) {
+        assert contentLength >= 0;
+        return contentLength == 0 ? Collections.emptyList() : Collections.singletonList(new Packet(0, contentLength));
+    }
+
+    private long align(long size) {
+        return Math.max(minPacketSize, size - size % minPacketSize);
+    }
+
+    static final class Packet {
+        final long start;
+        final long end;
+
+        Packet(long start, long end) {
+            assert start >= 0;
+            assert end > start;
+            this.start = start;
+            this.end = end;
+        }
+
+        long length() {
+            return end - start;
+        }
+    }
+}
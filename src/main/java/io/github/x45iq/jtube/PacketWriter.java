@@ -0,0 +1,18 @@
+package io.github.x45iq.jtube;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+interface PacketWriter extends Closeable {
+    void write(long position, ByteBuffer buffer) throws IOException;
+
+    void flush() throws IOException;
+
+    void complete() throws IOException;
+
+    //wakes writers waiting for a free place, called once the download is failed or cancelled
+    default void abort() {
+
+    }
+}
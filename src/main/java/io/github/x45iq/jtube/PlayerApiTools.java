@@ -0,0 +1,178 @@
+package io.github.x45iq.jtube;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+class PlayerApiTools {
+    static final String PLAYER_API_URL = "/youtubei/v1/player";
+    private static final String KEYLESS_API_TEMPLATE = "https://www.youtube.com%s?prettyPrint=false";
+    private static final long CONFIG_TTL_MILS = TimeUnit.HOURS.toMillis(1);
+    private static final Pattern SIGNATURE_TIMESTAMP_REGEX = Pattern.compile("\\b(?:signatureTimestamp|sts)\\s*:\\s*(\\d+)");
+    //shared by all parsers, taken from the last scanned watch page
+    private static volatile Config config = null;
+    //taken from the last player js read for deciphering
+    private static volatile SignatureTimestamp signatureTimestamp = null;
+
+    private PlayerApiTools() {
+
+    }
+
+    static Optional<Config> config() {
+        Config current = config;
+        if (current == null || System.currentTimeMillis() - current.created > CONFIG_TTL_MILS) {
+            return Optional.empty();
+        }
+        return Optional.of(current);
+    }
+
+    static void update(WatchPageScanner page) {
+        assert page != null;
+        if (page.apiKey() != null && page.innerTubeContext() != null) {
+            config = new Config(page.apiKey(), page.innerTubeContext(), page.playerJsPath(), System.currentTimeMillis());
+        }
+    }
+
+    static void signatureTimestamp(String playerJsPath, int value) {
+        assert playerJsPath != null;
+        assert value > 0;
+        signatureTimestamp = new SignatureTimestamp(playerJsPath, value);
+    }
+
+    //known only if the player js of the config has been read, ciphered urls are valid only with its timestamp
+    static OptionalInt signatureTimestamp(Config config) {
+        SignatureTimestamp current = signatureTimestamp;
+        if (config == null || current == null || !current.playerJsPath.equals(config.playerJsPath)) {
+            return OptionalInt.empty();
+        }
+        return OptionalInt.of(current.value);
+    }
+
+    static OptionalInt findSignatureTimestamp(String playerJs) {
+        assert playerJs != null;
+        Matcher mat = SIGNATURE_TIMESTAMP_REGEX.matcher(playerJs);
+        return mat.find() ? OptionalInt.of(Integer.parseInt(mat.group(1))) : OptionalInt.empty();
+    }
+
+    //config may be null for profiles with their own client version, the api is then called without a key
+    static JsonObject player(HttpTransport transport, ClientProfile profile, Config config, String videoId) throws IOException, ResponseParsingException {
+        assert transport != null;
+        assert profile != null;
+        assert config != null || profile.clientVersion().isPresent();
+        assert videoId != null;
+        JsonObject context = context(profile, config);
+        JsonObject post = new JsonObject();
+        post.add("context", context);
+        post.addProperty("videoId", videoId);
+        post.addProperty("contentCheckOk", true);
+        post.addProperty("racyCheckOk", true);
+        signatureTimestamp(config).ifPresent(value -> {
+            JsonObject contentPlaybackContext = new JsonObject();
+            contentPlaybackContext.addProperty("signatureTimestamp", value);
+            JsonObject playbackContext = new JsonObject();
+            playbackContext.add("contentPlaybackContext", contentPlaybackContext);
+            post.add("playbackContext", playbackContext);
+        });
+        Map<String, String> headers = new HashMap<>();
+        profile.userAgent().ifPresent(userAgent -> headers.put("User-Agent", userAgent));
+        headers.put("X-YouTube-Client-Name", String.valueOf(profile.clientId()));
+        JsonObject client = context.getAsJsonObject("client");
+        if (client.has("clientVersion")) {
+            headers.put("X-YouTube-Client-Version", client.get("clientVersion").getAsString());
+        }
+        String url = config == null
+                ? String.format(KEYLESS_API_TEMPLATE, PLAYER_API_URL)
+                : String.format(ContainersApiTools.API_TEMPLATE, PLAYER_API_URL, config.apiKey);
+        String response = NetTools.postApi(transport, url, post, headers);
+        try {
+            return JsonParser.parseString(response).getAsJsonObject();
+        } catch (JsonParseException | IllegalStateException e) {
+            throw new ResponseParsingException("bad player api response", e);
+        }
+    }
+
+    //a profile with its own version gets a fresh client object, only language and region of the page are kept
+    static JsonObject context(ClientProfile profile, Config config) {
+        assert profile != null;
+        JsonObject pageContext = config == null ? new JsonObject() : JsonParser.parseString(config.context).getAsJsonObject();
+        JsonObject pageClient = pageContext.has("client") ? pageContext.getAsJsonObject("client") : new JsonObject();
+        JsonObject context;
+        JsonObject client;
+        if (profile.clientVersion().isPresent()) {
+            context = new JsonObject();
+            client = new JsonObject();
+            client.addProperty("hl", pageClient.has("hl") ? pageClient.get("hl").getAsString() : "en");
+            client.addProperty("gl", pageClient.has("gl") ? pageClient.get("gl").getAsString() : "US");
+            client.addProperty("clientVersion", profile.clientVersion().get());
+            context.add("client", client);
+        } else {
+            context = pageContext;
+            client = pageClient;
+            context.add("client", client);
+        }
+        client.addProperty("clientName", profile.clientName());
+        JsonObject fields = profile.clientFields();
+        for (String name : fields.keySet()) {
+            client.add(name, fields.get(name));
+        }
+        return context;
+    }
+
+    //streams with signatureCipher need the player js, a response without them is usable right away
+    static boolean hasDirectUrls(JsonObject response) {
+        assert response != null;
+        if (!response.has("streamingData")) {
+            return false;
+        }
+        JsonObject streamingData = response.getAsJsonObject("streamingData");
+        for (String key : new String[]{"formats", "adaptiveFormats"}) {
+            if (!streamingData.has(key)) {
+                continue;
+            }
+            for (JsonElement format : streamingData.getAsJsonArray(key)) {
+                if (!format.getAsJsonObject().has("url")) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    static final class Config {
+        private final String apiKey;
+        private final String context;
+        private final String playerJsPath;
+        private final long created;
+
+        private Config(String apiKey, String context, String playerJsPath, long created) {
+            this.apiKey = apiKey;
+            this.context = context;
+            this.playerJsPath = playerJsPath;
+            this.created = created;
+        }
+
+        String playerJsPath() {
+            return playerJsPath;
+        }
+    }
+
+    private static final class SignatureTimestamp {
+        private final String playerJsPath;
+        private final int value;
+
+        private SignatureTimestamp(String playerJsPath, int value) {
+            this.playerJsPath = playerJsPath;
+            this.value = value;
+        }
+    }
+}
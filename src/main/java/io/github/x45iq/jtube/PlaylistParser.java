@@ -6,6 +6,7 @@ import com.google.gson.JsonObject;
 import org.jsoup.nodes.Document;
 
 import java.io.IOException;
+import java.util.Objects;
 
 import static io.github.x45iq.jtube.ContainersApiTools.parseInitialData;
 import static io.github.x45iq.jtube.ContainersApiTools.parseVideos;
@@ -16,11 +17,22 @@ import static io.github.x45iq.jtube.ContainersApiTools.parseVideos;
  * @author Artem Shein
  */
 public final class PlaylistParser {
+    private final HttpTransport transport;
+
     /**
      * Default constructor.
      */
     public PlaylistParser() {
+        this(NetTools.DEFAULT_TRANSPORT);
+    }
 
+    /**
+     * Constructor that allows {@code PlaylistParser} to send requests by the given transport.
+     *
+     * @param transport transport of requests
+     */
+    public PlaylistParser(HttpTransport transport) {
+        this.transport = Objects.requireNonNull(transport);
     }
 
     /**
@@ -57,7 +69,7 @@ public final class PlaylistParser {
         return new PlaylistMeta(title, owner, description, id);
     }
 
-    private static Playlist parsePage(Document page) throws IOException, ResponseParsingException {
+    private static Playlist parsePage(HttpTransport transport, Document page) throws IOException, ResponseParsingException {
         assert page != null;
         JsonObject mainJson = parseInitialData(page);
 
@@ -78,7 +90,7 @@ public final class PlaylistParser {
                 .getAsJsonObject("playlistVideoListRenderer")
                 .getAsJsonArray("contents");
 
-        return new Playlist(playlistMeta, parseVideos(page, items, PlaylistParser::getPlaylistVideo));
+        return new Playlist(playlistMeta, parseVideos(transport, page, items, PlaylistParser::getPlaylistVideo));
     }
 
     private static ContainerVideo getPlaylistVideo(JsonObject item) {
@@ -111,7 +123,7 @@ public final class PlaylistParser {
      */
     public Playlist parse(String url) throws IOException, ResponseParsingException, IllegalArgumentException {
         String id = UrlPatternsTool.getPlaylistUrlId(url).orElseThrow(() -> new IllegalArgumentException("Not supported url: " + url));
-        Document page = NetTools.getPage(String.format("https://www.youtube.com/playlist?list=%s", id));
-        return parsePage(page);
+        Document page = NetTools.getPage(transport, String.format("https://www.youtube.com/playlist?list=%s", id));
+        return parsePage(transport, page);
     }
 }
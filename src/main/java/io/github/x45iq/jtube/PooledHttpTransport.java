@@ -0,0 +1,314 @@
+package io.github.x45iq.jtube;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.MalformedURLException;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.SocketTimeoutException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The {@code PooledHttpTransport} class represents {@code HttpTransport} which reuses keep-alive connections.
+ * A connection returns to the pool when the body of its response is read to the end and closed,
+ * idle connections are kept for 5 seconds.
+ * Count of simultaneous requests to one host is limited, other requests wait for a free connection.
+ * Every idle connection to a host is kept, up to {@code maxConnectionsPerHost} of them.
+ * Requests are sent over the transport's own HTTP/1.1 sockets, so {@code Response.abort()} closes the socket
+ * and a read blocked on it fails at once.
+ * Redirects are followed, proxies are taken from the default {@code ProxySelector}.
+ * Closing the transport closes its idle connections, connections of responses in progress are closed when released.
+ *
+ * @author Artem Shein
+ */
+public final class PooledHttpTransport implements HttpTransport, Closeable {
+    private static final int MAX_REDIRECTS = 20;
+    private static final long KEEP_ALIVE_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private static final long DRAIN_LIMIT = 1024 * 64;
+    private final Map<String, Host> hosts = new ConcurrentHashMap<>();
+    private final int maxConnectionsPerHost;
+    private final int connectTimeoutMils;
+    private final int readTimeoutMils;
+    private volatile boolean closed = false;
+
+    private PooledHttpTransport(Builder builder) {
+        this.maxConnectionsPerHost = builder.maxConnectionsPerHost;
+        this.connectTimeoutMils = builder.connectTimeoutMils;
+        this.readTimeoutMils = builder.readTimeoutMils;
+    }
+
+    /**
+     * Returns max count of simultaneous requests to one host
+     *
+     * @return {@code int} value
+     */
+    public int maxConnectionsPerHost() {
+        return maxConnectionsPerHost;
+    }
+
+    @Override
+    public Response execute(Request request) throws IOException {
+        URL url = new URL(request.url());
+        String method = request.method();
+        byte[] body = request.body().orElse(null);
+        for (int redirects = 0; ; redirects++) {
+            PooledResponse response = send(url, method, request.headers(), body);
+            Optional<String> location = response.header("Location");
+            if (!isRedirect(response.status()) || !location.isPresent() || redirects == MAX_REDIRECTS) {
+                return response;
+            }
+            response.close();
+            url = new URL(url, location.get());
+            //only 307 and 308 repeat the method and the body, as in HttpURLConnection
+            if (response.status() != 307 && response.status() != 308 && !method.equals("HEAD")) {
+                method = "GET";
+                body = null;
+            }
+        }
+    }
+
+    private PooledResponse send(URL url, String method, Map<String, String> headers, byte[] body) throws IOException {
+        if (!url.getProtocol().equals("http") && !url.getProtocol().equals("https")) {
+            throw new MalformedURLException("unsupported protocol: " + url);
+        }
+        Proxy proxy = proxy(url);
+        String key = String.format("%s://%s:%s %s", url.getProtocol(), url.getHost(), HttpConnection.port(url), proxy);
+        if (closed) {
+            throw new IOException("transport is closed");
+        }
+        Host host = hosts.computeIfAbsent(key, k -> new Host(maxConnectionsPerHost));
+        if (closed) {
+            //the host may be added after close() has closed the others
+            host.close();
+        }
+        try {
+            host.connections.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        try {
+            while (true) {
+                HttpConnection connection = host.idle();
+                boolean pooled = connection != null;
+                if (!pooled) {
+                    connection = HttpConnection.open(url, proxy, connectTimeoutMils, readTimeoutMils);
+                }
+                try {
+                    connection.write(method, url, headers, body);
+                    return new PooledResponse(connection, connection.readHead(method), host);
+                } catch (IOException | RuntimeException e) {
+                    connection.close();
+                    //the server may have closed a pooled connection while it was idle, a fresh one is tried
+                    if (pooled && e instanceof IOException && !(e instanceof SocketTimeoutException)) {
+                        continue;
+                    }
+                    throw e;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            host.connections.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Closes idle connections, the transport can't be used afterwards
+     */
+    @Override
+    public void close() {
+        closed = true;
+        hosts.values().forEach(Host::close);
+    }
+
+    private static boolean isRedirect(int status) {
+        return status == 301 || status == 302 || status == 303 || status == 307 || status == 308;
+    }
+
+    private static Proxy proxy(URL url) {
+        ProxySelector selector = ProxySelector.getDefault();
+        if (selector == null) {
+            return Proxy.NO_PROXY;
+        }
+        try {
+            List<Proxy> proxies = selector.select(url.toURI());
+            return proxies == null || proxies.isEmpty() ? Proxy.NO_PROXY : proxies.get(0);
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            return Proxy.NO_PROXY;
+        }
+    }
+
+    private static final class Host {
+        private final Semaphore connections;
+        //the most recently used connection is given first, the oldest ones expire
+        private final Deque<HttpConnection> idle = new ArrayDeque<>();
+        private boolean closed = false;
+
+        private Host(int maxConnections) {
+            this.connections = new Semaphore(maxConnections, true);
+        }
+
+        private synchronized HttpConnection idle() {
+            HttpConnection connection;
+            while ((connection = idle.pollFirst()) != null) {
+                if (connection.reusable(KEEP_ALIVE_NANOS)) {
+                    return connection;
+                }
+                connection.close();
+            }
+            return null;
+        }
+
+        private synchronized void offer(HttpConnection connection) {
+            if (closed) {
+                connection.close();
+                return;
+            }
+            while (!idle.isEmpty() && !idle.peekLast().reusable(KEEP_ALIVE_NANOS)) {
+                idle.pollLast().close();
+            }
+            connection.idle();
+            idle.addFirst(connection);
+        }
+
+        private synchronized void close() {
+            closed = true;
+            idle.forEach(HttpConnection::close);
+            idle.clear();
+        }
+    }
+
+    private static final class PooledResponse implements Response {
+        private final HttpConnection connection;
+        private final HttpConnection.Head head;
+        private final Host host;
+        private final InputStream body;
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        private PooledResponse(HttpConnection connection, HttpConnection.Head head, Host host) {
+            this.connection = connection;
+            this.head = head;
+            this.host = host;
+            this.body = new FilterInputStream(head.body) {
+                @Override
+                public void close() {
+                    PooledResponse.this.close();
+                }
+            };
+        }
+
+        @Override
+        public int status() {
+            return head.status;
+        }
+
+        @Override
+        public Optional<String> header(String name) {
+            return head.header(name);
+        }
+
+        @Override
+        public InputStream body() {
+            return body;
+        }
+
+        //a short rest of the body is read, so the connection can carry the next request to the host
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                try {
+                    if (head.keepAlive && head.body.drain(DRAIN_LIMIT)) {
+                        host.offer(connection);
+                    } else {
+                        connection.close();
+                    }
+                } catch (IOException e) {
+                    connection.close();
+                } finally {
+                    host.connections.release();
+                }
+            }
+        }
+
+        //closing the socket fails a read blocked on it in another thread at once
+        @Override
+        public void abort() {
+            if (released.compareAndSet(false, true)) {
+                connection.close();
+                host.connections.release();
+            }
+        }
+    }
+
+    /**
+     * The {@code PooledHttpTransport.Builder} class represents a builder for PooledHttpTransport.
+     */
+    public static final class Builder implements Cloneable {
+        private int maxConnectionsPerHost = 40;
+        private int connectTimeoutMils = 30000;
+        private int readTimeoutMils = 30000;
+
+        /**
+         * Sets max count of simultaneous requests to one host, that is also count of idle connections kept for it.
+         * By default 40, as many as workers of a {@code DownloadEngine}
+         *
+         * @param maxConnectionsPerHost count
+         * @return {@code Builder}
+         */
+        public Builder maxConnectionsPerHost(int maxConnectionsPerHost) {
+            this.maxConnectionsPerHost = maxConnectionsPerHost;
+            return this;
+        }
+
+        /**
+         * Sets timeout of connecting to a host
+         *
+         * @param connectTimeoutMils timeout in milliseconds
+         * @return {@code Builder}
+         */
+        public Builder connectTimeoutMils(int connectTimeoutMils) {
+            this.connectTimeoutMils = connectTimeoutMils;
+            return this;
+        }
+
+        /**
+         * Sets timeout of waiting for data from a host
+         *
+         * @param readTimeoutMils timeout in milliseconds
+         * @return {@code Builder}
+         */
+        public Builder readTimeoutMils(int readTimeoutMils) {
+            this.readTimeoutMils = readTimeoutMils;
+            return this;
+        }
+
+        /**
+         * Returns {@code PooledHttpTransport} with {@code Builder} params
+         *
+         * @return {@code PooledHttpTransport} object;
+         */
+        public PooledHttpTransport build() {
+            if (maxConnectionsPerHost <= 0) throw new IndexOutOfBoundsException("n > 0");
+            if (connectTimeoutMils <= 0) throw new IndexOutOfBoundsException("n > 0");
+            if (readTimeoutMils <= 0) throw new IndexOutOfBoundsException("n > 0");
+            try {
+                return new PooledHttpTransport((Builder) this.clone());
+            } catch (CloneNotSupportedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
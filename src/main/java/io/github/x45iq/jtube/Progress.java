@@ -1,6 +1,9 @@
 package io.github.x45iq.jtube;
 
 import java.io.Serializable;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Objects;
 /**
  * The {@code Progress} class represents downloading progress.
  * @author Artem Shein
@@ -8,12 +11,20 @@ import java.io.Serializable;
 public final class Progress implements Serializable {
     private final long downloaded;
     private final long contentLen;
+    private final Map<FailureType, Integer> retries;
+    private final long speed;
+    private final long etaMils;
 
-    Progress(long downloaded, long contentLen) {
+    Progress(long downloaded, long contentLen, Map<FailureType, Integer> retries, long speed, long etaMils) {
         assert downloaded >= 0;
         assert contentLen >= 0;
+        assert retries != null;
+        assert speed >= 0;
         this.downloaded = downloaded;
         this.contentLen = contentLen;
+        this.retries = retries.isEmpty() ? new EnumMap<>(FailureType.class) : new EnumMap<>(retries);
+        this.speed = speed;
+        this.etaMils = etaMils;
     }
     /**
      * Returns the percentage downloaded to contentLen
@@ -41,12 +52,48 @@ public final class Progress implements Serializable {
         return contentLen;
     }
 
+    /**
+     * Returns download speed since the previous progress in bytes per second
+     * @return {@code long} value
+     */
+    public long speed() {
+        return speed;
+    }
+
+    /**
+     * Returns estimated time to complete in mils, based on smoothed speed
+     * @return {@code long} value, {@code -1} if unknown
+     */
+    public long etaMils() {
+        return etaMils;
+    }
+
+    /**
+     * Returns count of retried packet requests
+     * @return {@code int} value
+     */
+    public int retries() {
+        return retries.values().stream().mapToInt(Integer::intValue).sum();
+    }
+
+    /**
+     * Returns count of packet requests retried after failure of the type
+     * @param type failure type
+     * @return {@code int} value
+     */
+    public int retries(FailureType type) {
+        return retries.getOrDefault(Objects.requireNonNull(type), 0);
+    }
+
     @Override
     public String toString() {
         return "Progress{" +
                 "downloaded=" + downloaded +
                 ", contentLen=" + contentLen +
                 ", percent=" + percentValue() +
+                ", speed=" + speed +
+                ", etaMils=" + etaMils +
+                ", retries=" + retries() +
                 '}';
     }
 }
@@ -0,0 +1,98 @@
+package io.github.x45iq.jtube;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+final class ProgressTracker {
+    private static final Logger logger = LoggerFactory.getLogger(ProgressTracker.class);
+    private static final double SPEED_SMOOTHING = 0.2;
+    private final long contentLen;
+    private final long intervalNanos;
+    private final Consumer<Progress> callback;
+    private final AtomicIntegerArray retries = new AtomicIntegerArray(FailureType.values().length);
+    private final AtomicLong downloaded;
+    private final AtomicLong lastEmit;
+    private long lastEmitDownloaded;
+    private double smoothedSpeed = 0;
+
+    ProgressTracker(long contentLen, long downloaded, long intervalNanos, Consumer<Progress> callback) {
+        assert contentLen >= 0;
+        assert downloaded >= 0;
+        assert intervalNanos >= 0;
+        this.contentLen = contentLen;
+        this.intervalNanos = intervalNanos;
+        this.callback = callback;
+        this.downloaded = new AtomicLong(downloaded);
+        this.lastEmit = new AtomicLong(System.nanoTime());
+        this.lastEmitDownloaded = downloaded;
+    }
+
+    void add(long bytes) {
+        downloaded.addAndGet(bytes);
+        long last = lastEmit.get();
+        long now = System.nanoTime();
+        if (now - last >= intervalNanos && lastEmit.compareAndSet(last, now)) {
+            emit(now - last);
+        }
+    }
+
+    void retried(FailureType type) {
+        assert type != null;
+        retries.incrementAndGet(type.ordinal());
+    }
+
+    Map<FailureType, Integer> retries() {
+        Map<FailureType, Integer> map = new EnumMap<>(FailureType.class);
+        for (FailureType type : FailureType.values()) {
+            map.put(type, retries.get(type.ordinal()));
+        }
+        return map;
+    }
+
+    long contentLen() {
+        return contentLen;
+    }
+
+    long downloaded() {
+        return downloaded.get();
+    }
+
+    void start() {
+        emit(0);
+    }
+
+    void finish() {
+        long now = System.nanoTime();
+        emit(now - lastEmit.getAndSet(now));
+    }
+
+    private void emit(long elapsedNanos) {
+        if (callback == null) {
+            return;
+        }
+        Progress progress;
+        synchronized (this) {
+            long current = downloaded.get();
+            long speed = 0;
+            if (elapsedNanos > 0) {
+                speed = Math.max(0, (current - lastEmitDownloaded) * TimeUnit.SECONDS.toNanos(1) / elapsedNanos);
+                smoothedSpeed = smoothedSpeed == 0 ? speed : SPEED_SMOOTHING * speed + (1 - SPEED_SMOOTHING) * smoothedSpeed;
+            }
+            lastEmitDownloaded = current;
+            long etaMils = smoothedSpeed > 0 ? (long) (Math.max(0, contentLen - current) * 1000 / smoothedSpeed) : -1;
+            progress = new Progress(Math.min(current, contentLen), contentLen, retries(), speed, etaMils);
+        }
+        try {
+            callback.accept(progress);
+        } catch (RuntimeException e) {
+            logger.error("Progress callback failed", e);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package io.github.x45iq.jtube;
+
+/**
+ * The {@code RangeMode} class represents way of requesting a range of a stream.
+ *
+ * @author Artem Shein
+ */
+public enum RangeMode {
+    /**
+     * Range is sent in the {@code Range} header, the server answers with 206 and {@code Content-Range}
+     */
+    HEADER,
+    /**
+     * Range is sent in the {@code range} url parameter, the server answers with 200 and only the requested bytes
+     */
+    URL_PARAM
+}
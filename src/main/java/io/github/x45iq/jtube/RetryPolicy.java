@@ -0,0 +1,144 @@
+package io.github.x45iq.jtube;
+
+import java.io.Serializable;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The {@code RetryPolicy} class represents rules of retrying failed packet requests.
+ * Every {@code FailureType} has its own max count of attempts per packet and exponential backoff with jitter,
+ * retries of one download are limited by retry budget.
+ *
+ * @author Artem Shein
+ */
+public final class RetryPolicy implements Serializable {
+    private final Map<FailureType, Rule> rules;
+    private final int retryBudget;
+
+    private RetryPolicy(Builder builder) {
+        this.rules = new EnumMap<>(builder.rules);
+        this.retryBudget = builder.retryBudget;
+    }
+
+    /**
+     * Returns max count of retries of one download
+     *
+     * @return {@code int} value
+     */
+    public int retryBudget() {
+        return retryBudget;
+    }
+
+    /**
+     * Returns max count of attempts to download one packet for the failure type
+     *
+     * @param type failure type
+     * @return {@code int} value
+     */
+    public int maxAttempts(FailureType type) {
+        return rules.get(Objects.requireNonNull(type)).maxAttempts;
+    }
+
+    long delayMils(FailureType type, int attempt) {
+        assert type != null;
+        assert attempt > 0;
+        Rule rule = rules.get(type);
+        long delay = rule.baseDelayMils;
+        for (int i = 1; i < attempt && delay < rule.maxDelayMils; i++) {
+            delay *= 2;
+        }
+        delay = Math.min(delay, rule.maxDelayMils);
+        //equal jitter keeps retries of parallel packets apart without dropping the delay to zero
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    @Override
+    public String toString() {
+        return "RetryPolicy{" +
+                "rules=" + rules +
+                ", retryBudget=" + retryBudget +
+                '}';
+    }
+
+    private static final class Rule implements Serializable {
+        private final int maxAttempts;
+        private final long baseDelayMils;
+        private final long maxDelayMils;
+
+        private Rule(int maxAttempts, long baseDelayMils, long maxDelayMils) {
+            this.maxAttempts = maxAttempts;
+            this.baseDelayMils = baseDelayMils;
+            this.maxDelayMils = maxDelayMils;
+        }
+
+        @Override
+        public String toString() {
+            return "Rule{" +
+                    "maxAttempts=" + maxAttempts +
+                    ", baseDelayMils=" + baseDelayMils +
+                    ", maxDelayMils=" + maxDelayMils +
+                    '}';
+        }
+    }
+
+    /**
+     * The {@code RetryPolicy.Builder} class represents a builder for RetryPolicy.
+     */
+    public static final class Builder {
+        private final Map<FailureType, Rule> rules = new EnumMap<>(FailureType.class);
+        private int retryBudget = 200;
+
+        /**
+         * Allocates a new {@code Builder} with default rules
+         */
+        public Builder() {
+            rules.put(FailureType.NETWORK, new Rule(8, 500, 30_000));
+            rules.put(FailureType.THROTTLED, new Rule(10, 2000, 60_000));
+            rules.put(FailureType.EXPIRED_URL, new Rule(2, 1000, 1000));
+            rules.put(FailureType.RANGE_NOT_SATISFIABLE, new Rule(1, 0, 0));
+            rules.put(FailureType.CLIENT_ERROR, new Rule(1, 0, 0));
+            rules.put(FailureType.INTEGRITY, new Rule(3, 500, 5000));
+        }
+
+        /**
+         * Sets retry rule for the failure type
+         *
+         * @param type          failure type
+         * @param maxAttempts   max count of attempts to download one packet, {@code 1} means no retries
+         * @param baseDelayMils delay before the first retry, every next delay is twice as long
+         * @param maxDelayMils  max delay before retry
+         * @return {@code Builder}
+         */
+        public Builder rule(FailureType type, int maxAttempts, long baseDelayMils, long maxDelayMils) {
+            Objects.requireNonNull(type);
+            if (maxAttempts <= 0) throw new IndexOutOfBoundsException("n > 0");
+            if (baseDelayMils < 0) throw new IndexOutOfBoundsException("n >= 0");
+            if (maxDelayMils < baseDelayMils) throw new IndexOutOfBoundsException("maxDelayMils >= baseDelayMils");
+            rules.put(type, new Rule(maxAttempts, baseDelayMils, maxDelayMils));
+            return this;
+        }
+
+        /**
+         * Sets max count of retries of one download
+         *
+         * @param retryBudget count
+         * @return {@code Builder}
+         */
+        public Builder retryBudget(int retryBudget) {
+            this.retryBudget = retryBudget;
+            return this;
+        }
+
+        /**
+         * Returns {@code RetryPolicy} with {@code Builder} params
+         *
+         * @return {@code RetryPolicy} object;
+         */
+        public RetryPolicy build() {
+            if (retryBudget < 0) throw new IndexOutOfBoundsException("n >= 0");
+            return new RetryPolicy(this);
+        }
+    }
+}
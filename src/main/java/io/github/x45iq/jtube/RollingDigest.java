@@ -0,0 +1,111 @@
+package io.github.x45iq.jtube;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.TreeMap;
+
+//digest of the whole output computed while packets land, the data must be hashed in order
+final class RollingDigest {
+    private final MessageDigest digest;
+    private final Backfill backfill;
+    private final BufferPool bufferPool;
+    //ranges written ahead of the hashed prefix, start to end, guarded by this
+    private final TreeMap<Long, Long> landed = new TreeMap<>();
+    private long hashed = 0;
+
+    RollingDigest(MessageDigest digest, Backfill backfill, BufferPool bufferPool) {
+        assert digest != null;
+        assert bufferPool != null;
+        this.digest = digest;
+        this.backfill = backfill;
+        this.bufferPool = bufferPool;
+    }
+
+    //data at the hashed prefix is hashed right away, data ahead of it is read back once the gap is filled
+    synchronized void update(long position, ByteBuffer data) throws IOException {
+        assert position >= 0;
+        assert data != null;
+        long end = position + data.remaining();
+        if (end <= hashed) {
+            return;
+        }
+        if (position > hashed) {
+            if (backfill == null) {
+                throw new IllegalStateException("data must be written in order");
+            }
+            land(position, end);
+            return;
+        }
+        ByteBuffer fresh = data.duplicate();
+        fresh.position(fresh.position() + (int) (hashed - position));
+        digest.update(fresh);
+        hashed = end;
+        drain();
+    }
+
+    synchronized void append(ByteBuffer data) throws IOException {
+        update(hashed, data);
+    }
+
+    //ranges written before the digest was created, e.g. by a resumed download, are read back here
+    synchronized byte[] finish(long length) throws IOException {
+        assert length >= 0;
+        if (hashed < length && backfill != null) {
+            land(hashed, length);
+            drain();
+        }
+        if (hashed != length) {
+            throw new IntegrityException(String.format("digest covers %s of %s bytes", hashed, length));
+        }
+        return digest.digest();
+    }
+
+    private void land(long start, long end) {
+        Map.Entry<Long, Long> floor = landed.floorEntry(start);
+        if (floor != null && floor.getValue() >= start) {
+            start = floor.getKey();
+            end = Math.max(end, floor.getValue());
+        }
+        Long next;
+        while ((next = landed.ceilingKey(start)) != null && next <= end) {
+            end = Math.max(end, landed.remove(next));
+        }
+        landed.put(start, end);
+    }
+
+    private void drain() throws IOException {
+        Map.Entry<Long, Long> first;
+        while ((first = landed.firstEntry()) != null && first.getKey() <= hashed) {
+            landed.remove(first.getKey());
+            if (first.getValue() <= hashed) {
+                continue;
+            }
+            byte[] array = bufferPool.take();
+            try {
+                while (hashed < first.getValue()) {
+                    ByteBuffer buffer = ByteBuffer.wrap(array, 0, (int) Math.min(array.length, first.getValue() - hashed));
+                    backfill.read(hashed, buffer);
+                    digest.update(array, 0, buffer.position());
+                    hashed += buffer.position();
+                }
+            } finally {
+                bufferPool.give(array);
+            }
+        }
+    }
+
+    static String hex(byte[] digest) {
+        StringBuilder builder = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            builder.append(String.format("%02x", b));
+        }
+        return builder.toString();
+    }
+
+    //fills the buffer with the output data at the position
+    interface Backfill {
+        void read(long position, ByteBuffer buffer) throws IOException;
+    }
+}
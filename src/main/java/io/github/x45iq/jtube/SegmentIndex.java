@@ -0,0 +1,410 @@
+package io.github.x45iq.jtube;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+//index of independently playable segments of a fragmented MP4 (sidx) or WebM (Cues) stream, read with a few range requests
+final class SegmentIndex {
+    private static final int PROBE_SIZE = 1024 * 64;
+    private static final long EBML_ID = 0x1A45DFA3L;
+    private static final long SEGMENT_ID = 0x18538067L;
+    private static final long SEEK_HEAD_ID = 0x114D9B74L;
+    private static final long SEEK_ID = 0x4DBBL;
+    private static final long SEEK_ID_ID = 0x53ABL;
+    private static final long SEEK_POSITION_ID = 0x53ACL;
+    private static final long INFO_ID = 0x1549A966L;
+    private static final long TIMECODE_SCALE_ID = 0x2AD7B1L;
+    private static final long TRACKS_ID = 0x1654AE6BL;
+    private static final long CUES_ID = 0x1C53BB6BL;
+    private static final long CUE_POINT_ID = 0xBBL;
+    private static final long CUE_TIME_ID = 0xB3L;
+    private static final long CUE_TRACK_POSITIONS_ID = 0xB7L;
+    private static final long CUE_CLUSTER_POSITION_ID = 0xF1L;
+    private static final long CLUSTER_ID = 0x1F43B675L;
+    private static final byte[] UNKNOWN_SIZE = {0x01, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF};
+    private final byte[] header;
+    private final List<Segment> segments;
+
+    private SegmentIndex(byte[] header, List<Segment> segments) {
+        assert header != null;
+        assert segments != null;
+        this.header = header;
+        this.segments = segments;
+    }
+
+    //the init data a player needs before any segment: ftyp and moov, or EBML header, Segment, Info and Tracks
+    byte[] header() {
+        return header;
+    }
+
+    List<Segment> segments() {
+        return Collections.unmodifiableList(segments);
+    }
+
+    //byte spans of the segments overlapping the time window, adjacent segments are merged
+    List<PacketPlanner.Packet> spans(long startMils, long endMils) {
+        assert startMils >= 0;
+        assert endMils > startMils;
+        List<PacketPlanner.Packet> spans = new ArrayList<>();
+        for (Segment segment : segments) {
+            if (segment.startMils >= endMils || segment.endMils <= startMils) {
+                continue;
+            }
+            PacketPlanner.Packet last = spans.isEmpty() ? null : spans.get(spans.size() - 1);
+            if (last != null && last.end == segment.start) {
+                spans.set(spans.size() - 1, new PacketPlanner.Packet(last.start, segment.end));
+            } else {
+                spans.add(new PacketPlanner.Packet(segment.start, segment.end));
+            }
+        }
+        return spans;
+    }
+
+    static SegmentIndex read(RangeReader reader, long contentLength) throws IOException {
+        assert reader != null;
+        assert contentLength > 0;
+        Source source = new Source(reader, contentLength);
+        return source.uint(0, 4) == EBML_ID ? readWebm(source) : readMp4(source);
+    }
+
+    private static SegmentIndex readMp4(Source source) throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        List<Segment> segments = null;
+        long offset = 0;
+        while (offset + 8 <= source.length) {
+            long size = source.uint(offset, 4);
+            String type = new String(source.bytes(offset + 4, 4), StandardCharsets.ISO_8859_1);
+            int headerSize = 8;
+            if (size == 1) {
+                size = source.uint(offset + 8, 8);
+                headerSize = 16;
+            } else if (size == 0) {
+                size = source.length - offset;
+            }
+            if (size < headerSize || offset + size > source.length) {
+                throw new IOException("Malformed box " + type + " at " + offset);
+            }
+            if (type.equals("ftyp") || type.equals("moov")) {
+                header.write(source.bytes(offset, (int) size));
+            } else if (type.equals("sidx") && segments == null) {
+                segments = readSidx(source.bytes(offset, (int) size), headerSize, offset + size);
+            } else if (type.equals("moof")) {
+                break;
+            }
+            offset += size;
+        }
+        if (segments == null) {
+            throw new IOException("Stream has no segment index");
+        }
+        return new SegmentIndex(header.toByteArray(), segments);
+    }
+
+    private static List<Segment> readSidx(byte[] box, int headerSize, long anchor) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(box);
+        buffer.position(headerSize);
+        int version = buffer.get() & 0xFF;
+        buffer.position(buffer.position() + 3 + 4);
+        long timescale = buffer.getInt() & 0xFFFFFFFFL;
+        long time = version == 0 ? buffer.getInt() & 0xFFFFFFFFL : buffer.getLong();
+        long offset = anchor + (version == 0 ? buffer.getInt() & 0xFFFFFFFFL : buffer.getLong());
+        buffer.position(buffer.position() + 2);
+        int count = buffer.getShort() & 0xFFFF;
+        if (timescale == 0) {
+            throw new IOException("Segment index has no timescale");
+        }
+        List<Segment> segments = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int reference = buffer.getInt();
+            long duration = buffer.getInt() & 0xFFFFFFFFL;
+            buffer.getInt();
+            if (reference < 0) {
+                throw new IOException("Hierarchical segment indexes are not supported");
+            }
+            segments.add(new Segment(time * 1000 / timescale, (time + duration) * 1000 / timescale, offset, offset + reference));
+            time += duration;
+            offset += reference;
+        }
+        return segments;
+    }
+
+    private static SegmentIndex readWebm(Source source) throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        Element ebml = source.element(0);
+        header.write(source.bytes(0, (int) ebml.end()));
+        Element segment = source.element(ebml.end());
+        if (segment.id != SEGMENT_ID) {
+            throw new IOException("Segment not found");
+        }
+        long segmentEnd = segment.size < 0 ? source.length : Math.min(source.length, segment.end());
+        long timecodeScale = 1000000;
+        long cuesPosition = -1;
+        byte[] info = null;
+        byte[] tracks = null;
+        byte[] cues = null;
+        //the segment is copied with unknown size, the clip is shorter than the original
+        header.write(id(SEGMENT_ID));
+        header.write(UNKNOWN_SIZE);
+        long offset = segment.dataStart;
+        while (offset < segmentEnd) {
+            Element element = source.element(offset);
+            if (element.id == CLUSTER_ID) {
+                break;
+            }
+            if (element.size < 0) {
+                throw new IOException("Elements of unknown size are not supported");
+            }
+            if (element.id == INFO_ID) {
+                info = source.bytes(offset, (int) (element.end() - offset));
+                for (Element child : children(info)) {
+                    if (child.id == TIMECODE_SCALE_ID) {
+                        timecodeScale = uint(info, child);
+                    }
+                }
+            } else if (element.id == TRACKS_ID) {
+                tracks = source.bytes(offset, (int) (element.end() - offset));
+            } else if (element.id == CUES_ID) {
+                cues = source.bytes(offset, (int) (element.end() - offset));
+                cuesPosition = offset;
+            } else if (element.id == SEEK_HEAD_ID && cuesPosition < 0) {
+                cuesPosition = seekPosition(source.bytes(offset, (int) (element.end() - offset)), segment.dataStart);
+            }
+            offset = element.end();
+        }
+        if (info == null || tracks == null) {
+            throw new IOException("Info or Tracks not found");
+        }
+        header.write(info);
+        header.write(tracks);
+        if (cues == null && cuesPosition >= 0 && cuesPosition < segmentEnd) {
+            Element element = source.element(cuesPosition);
+            if (element.id == CUES_ID && element.size >= 0) {
+                cues = source.bytes(cuesPosition, (int) (element.end() - cuesPosition));
+            }
+        }
+        if (cues == null) {
+            throw new IOException("Stream has no segment index");
+        }
+        List<Long> times = new ArrayList<>();
+        List<Long> positions = new ArrayList<>();
+        for (Element point : children(cues)) {
+            if (point.id != CUE_POINT_ID) {
+                continue;
+            }
+            long time = -1;
+            long position = -1;
+            for (Element child : children(cues, point)) {
+                if (child.id == CUE_TIME_ID) {
+                    time = uint(cues, child);
+                } else if (child.id == CUE_TRACK_POSITIONS_ID && position < 0) {
+                    for (Element trackPosition : children(cues, child)) {
+                        if (trackPosition.id == CUE_CLUSTER_POSITION_ID) {
+                            position = segment.dataStart + uint(cues, trackPosition);
+                        }
+                    }
+                }
+            }
+            //points of several tracks may refer to one cluster
+            if (time >= 0 && position >= 0 && (positions.isEmpty() || position > positions.get(positions.size() - 1))) {
+                times.add(time * timecodeScale / 1000000);
+                positions.add(position);
+            }
+        }
+        //clusters end where the cues or the segment begin
+        long clustersEnd = cuesPosition > offset ? cuesPosition : segmentEnd;
+        List<Segment> segments = new ArrayList<>(times.size());
+        for (int i = 0; i < times.size(); i++) {
+            boolean last = i + 1 == times.size();
+            segments.add(new Segment(times.get(i), last ? Long.MAX_VALUE : times.get(i + 1),
+                    positions.get(i), last ? clustersEnd : positions.get(i + 1)));
+        }
+        return new SegmentIndex(header.toByteArray(), segments);
+    }
+
+    private static long seekPosition(byte[] seekHead, long segmentDataStart) throws IOException {
+        for (Element seek : children(seekHead)) {
+            if (seek.id != SEEK_ID) {
+                continue;
+            }
+            long id = -1;
+            long position = -1;
+            for (Element child : children(seekHead, seek)) {
+                if (child.id == SEEK_ID_ID) {
+                    id = uint(seekHead, child);
+                } else if (child.id == SEEK_POSITION_ID) {
+                    position = uint(seekHead, child);
+                }
+            }
+            if (id == CUES_ID && position >= 0) {
+                return segmentDataStart + position;
+            }
+        }
+        return -1;
+    }
+
+    private static List<Element> children(byte[] master) throws IOException {
+        Element element = parse(master, 0);
+        return children(master, element);
+    }
+
+    private static List<Element> children(byte[] data, Element parent) throws IOException {
+        List<Element> elements = new ArrayList<>();
+        long offset = parent.dataStart;
+        while (offset < parent.end()) {
+            Element element = parse(data, (int) offset);
+            if (element.size < 0 || element.end() > parent.end()) {
+                throw new IOException("Malformed EBML element at " + offset);
+            }
+            elements.add(element);
+            offset = element.end();
+        }
+        return elements;
+    }
+
+    private static Element parse(byte[] data, int offset) throws IOException {
+        if (offset >= data.length) {
+            throw new IOException("Malformed EBML element at " + offset);
+        }
+        int idLength = vintLength(data[offset]);
+        if (idLength > 4 || offset + idLength >= data.length) {
+            throw new IOException("Malformed EBML element at " + offset);
+        }
+        int sizeLength = vintLength(data[offset + idLength]);
+        if (offset + idLength + sizeLength > data.length) {
+            throw new IOException("Malformed EBML element at " + offset);
+        }
+        long id = 0;
+        for (int i = 0; i < idLength; i++) {
+            id = (id << 8) | (data[offset + i] & 0xFF);
+        }
+        long size = data[offset + idLength] & (0xFF >> sizeLength);
+        boolean unknown = size == (0xFF >> sizeLength);
+        for (int i = 1; i < sizeLength; i++) {
+            size = (size << 8) | (data[offset + idLength + i] & 0xFF);
+            unknown &= (data[offset + idLength + i] & 0xFF) == 0xFF;
+        }
+        return new Element(id, offset + idLength + sizeLength, unknown ? -1 : size);
+    }
+
+    private static int vintLength(byte first) throws IOException {
+        int length = Integer.numberOfLeadingZeros(first & 0xFF) - 23;
+        if (length > 8) {
+            throw new IOException("Malformed EBML variable size integer");
+        }
+        return length;
+    }
+
+    private static long uint(byte[] data, Element element) {
+        long value = 0;
+        for (int i = 0; i < element.size; i++) {
+            value = (value << 8) | (data[(int) element.dataStart + i] & 0xFF);
+        }
+        return value;
+    }
+
+    private static byte[] id(long id) {
+        int length = id > 0xFFFFFF ? 4 : id > 0xFFFF ? 3 : id > 0xFF ? 2 : 1;
+        byte[] bytes = new byte[length];
+        for (int i = length - 1; i >= 0; i--, id >>= 8) {
+            bytes[i] = (byte) id;
+        }
+        return bytes;
+    }
+
+    interface RangeReader {
+        byte[] read(long start, long end) throws IOException;
+    }
+
+    static final class Segment {
+        final long startMils;
+        final long endMils;
+        final long start;
+        final long end;
+
+        Segment(long startMils, long endMils, long start, long end) {
+            assert startMils >= 0;
+            assert endMils >= startMils;
+            assert start >= 0;
+            assert end >= start;
+            this.startMils = startMils;
+            this.endMils = endMils;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    private static final class Element {
+        private final long id;
+        private final long dataStart;
+        private final long size;
+
+        private Element(long id, long dataStart, long size) {
+            this.id = id;
+            this.dataStart = dataStart;
+            this.size = size;
+        }
+
+        private long end() {
+            return dataStart + size;
+        }
+    }
+
+    //bytes of the stream read in probes from the start, and on demand further
+    private static final class Source {
+        private final RangeReader reader;
+        private final long length;
+        private byte[] prefix = new byte[0];
+        private long chunkStart = -1;
+        private byte[] chunk = null;
+
+        private Source(RangeReader reader, long length) {
+            this.reader = reader;
+            this.length = length;
+        }
+
+        private byte[] bytes(long start, int count) throws IOException {
+            if (start < 0 || start + count > length) {
+                throw new IOException("Index is out of the stream");
+            }
+            if (start + count > prefix.length && start <= prefix.length + PROBE_SIZE) {
+                //data near the start is read as one growing prefix
+                long end = Math.min(length, Math.max(start + count, prefix.length + PROBE_SIZE));
+                byte[] more = reader.read(prefix.length, end);
+                byte[] grown = new byte[prefix.length + more.length];
+                System.arraycopy(prefix, 0, grown, 0, prefix.length);
+                System.arraycopy(more, 0, grown, prefix.length, more.length);
+                prefix = grown;
+            }
+            byte[] data = new byte[count];
+            if (start + count <= prefix.length) {
+                System.arraycopy(prefix, (int) start, data, 0, count);
+                return data;
+            }
+            if (chunk == null || start < chunkStart || start + count > chunkStart + chunk.length) {
+                chunkStart = start;
+                chunk = reader.read(start, Math.min(length, start + Math.max(count, PROBE_SIZE)));
+            }
+            System.arraycopy(chunk, (int) (start - chunkStart), data, 0, count);
+            return data;
+        }
+
+        private long uint(long start, int count) throws IOException {
+            byte[] data = bytes(start, count);
+            long value = 0;
+            for (byte b : data) {
+                value = (value << 8) | (b & 0xFF);
+            }
+            return value;
+        }
+
+        private Element element(long start) throws IOException {
+            byte[] data = bytes(start, (int) Math.min(12, length - start));
+            Element element = parse(data, 0);
+            return new Element(element.id, start + element.dataStart, element.size);
+        }
+    }
+}
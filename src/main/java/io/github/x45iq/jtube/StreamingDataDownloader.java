@@ -1,11 +1,26 @@
 package io.github.x45iq.jtube;
 
+import org.reactivestreams.Publisher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import java.io.File;
+import java.io.Flushable;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 
@@ -17,22 +32,67 @@ import static io.github.x45iq.jtube.FileTools.*;
  * @author Artem Shein
  */
 public final class StreamingDataDownloader {
+    private static final Logger logger = LoggerFactory.getLogger(StreamingDataDownloader.class);
+    private static final int MANIFEST_SAVE_INTERVAL_MILS = 2000;
+    private static final int CONCURRENCY_INTERVAL_MILS = 1000;
     private final StreamingData streamingData;
     private final File folder;
     private final String fileName;
     private final int threadsCount;
+    private final boolean adaptiveConcurrency;
+    private final int minThreadsCount;
     private final long packetSize;
+    private final long maxPacketSize;
+    private final int packetDurationMils;
+    private final boolean adaptivePacketSize;
+    private final boolean resume;
+    private final Durability durability;
+    private final int forceIntervalMils;
     private final int callbackTimeoutMils;
+    private final long reorderBufferSize;
+    private final MemoryBudget memoryBudget;
+    private final boolean hedgeRequests;
+    private final RangeMode rangeMode;
+    private final boolean clip;
+    private final long clipStartMils;
+    private final long clipEndMils;
+    private final DownloadEngine engine;
+    private final int priority;
+    private final BandwidthLimiter bandwidthLimiter;
+    private final RetryPolicy retryPolicy;
     private final Consumer<Progress> progressCallback;
+    private final String digestAlgorithm;
+    private final Consumer<String> digestCallback;
 
     private StreamingDataDownloader(Builder builder) {
         this.streamingData = builder.streamingData;
         this.folder = builder.folder;
         this.fileName = builder.fileName;
         this.threadsCount = builder.threadsCount;
+        this.adaptiveConcurrency = builder.adaptiveConcurrency;
+        this.minThreadsCount = builder.minThreadsCount;
         this.packetSize = builder.packetSize;
+        this.maxPacketSize = builder.maxPacketSize;
+        this.packetDurationMils = builder.packetDurationMils;
+        this.adaptivePacketSize = builder.adaptivePacketSize;
+        this.resume = builder.resume;
+        this.durability = builder.durability;
+        this.forceIntervalMils = builder.forceIntervalMils;
         this.callbackTimeoutMils = builder.callbackTimeoutMils;
+        this.reorderBufferSize = builder.reorderBufferSize;
+        this.memoryBudget = builder.memoryBudget;
+        this.hedgeRequests = builder.hedgeRequests;
+        this.rangeMode = builder.rangeMode;
+        this.clip = builder.clip;
+        this.clipStartMils = builder.clipStartMils;
+        this.clipEndMils = builder.clipEndMils;
+        this.engine = builder.engine;
+        this.priority = builder.priority;
+        this.bandwidthLimiter = builder.bandwidthLimiter;
+        this.retryPolicy = builder.retryPolicy;
         this.progressCallback = builder.progressCallback;
+        this.digestAlgorithm = builder.digestAlgorithm;
+        this.digestCallback = builder.digestCallback;
     }
 
     /**
@@ -42,51 +102,340 @@ public final class StreamingDataDownloader {
      * @throws IOException on error
      */
     public File download() throws IOException {
-        final File exportFile = createExportFile(folder, fileName, streamingData.format());
-        final ExecutorService executorService = Executors.newFixedThreadPool(threadsCount);
-        final long len = streamingData.contentLength();
-        final AtomicLong downloaded = new AtomicLong(0);
-        long used = 0;
-        final AtomicBoolean failFlag = new AtomicBoolean(false);
-        Runnable failCallback = () -> failFlag.set(true);
-        while (used < len) {
-            long start = used;
-            long end;
-            if (start + packetSize > len) {
-                end = len;
-            } else {
-                end = used + packetSize;
-            }
-            executorService.submit(new PacketDownloader(streamingData.url(), exportFile, start, end, downloaded::addAndGet, failCallback));
-            used = end;
+        return await(downloadAsync());
+    }
+
+    /**
+     * Downloads {@code StreamingData} to the stream without saving it to a file.
+     * Packets are still requested in parallel, but are written to the stream strictly in order.
+     * The stream is flushed, but not closed
+     *
+     * @param out stream to write the data
+     * @throws IOException on error
+     */
+    public void download(OutputStream out) throws IOException {
+        try {
+            await(downloadAsync(out));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
         }
+    }
+
+    /**
+     * Downloads {@code StreamingData} to the channel without saving it to a file.
+     * Packets are still requested in parallel, but are written to the channel strictly in order.
+     * The channel is not closed
+     *
+     * @param channel channel to write the data
+     * @throws IOException on error
+     */
+    public void download(WritableByteChannel channel) throws IOException {
         try {
-            exportFile.createNewFile();
-            executorService.shutdown();
-            while (!executorService.isTerminated() && !failFlag.get()) {
-                progressCallback.accept(new Progress(downloaded.get(), len));
-                try {
-                    Thread.sleep(callbackTimeoutMils);
-                } catch (InterruptedException e) {
-                    failFlag.set(true);
-                    throw new IOException(e);
+            await(downloadAsync(channel));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Starts downloading {@code StreamingData} in a format according to the abstract method {@code format()}
+     * without blocking the caller
+     *
+     * @return {@code DownloadTask} of the download
+     * @throws IOException on error while creating export file
+     */
+    public DownloadTask<File> downloadAsync() throws IOException {
+        Objects.requireNonNull(folder);
+        final SegmentIndex index = clip ? readIndex() : null;
+        final List<PacketPlanner.Packet> clipSpans = index == null ? null : index.spans(clipStartMils, clipEndMils);
+        final long len = index == null ? streamingData.contentLength() : ClipPacketWriter.length(index.header(), clipSpans);
+        final DownloadManifest manifest = resume ? openManifest() : null;
+        final File exportFile = manifest == null ? createExportFile(folder, fileName, streamingData.format()) : manifest.exportFile();
+        final FilePacketWriter writer = FilePacketWriter.open(exportFile, len, durability, TimeUnit.MILLISECONDS.toNanos(forceIntervalMils));
+        final RollingDigest digest = digestAlgorithm == null ? null : new RollingDigest(messageDigest(), writer::read, BufferPool.SHARED);
+        final PacketWriter digested = digest == null ? writer : new DigestPacketWriter(writer, digest);
+        final PacketWriter output = index == null ? digested : new ClipPacketWriter(digested, index.header(), clipSpans);
+        final ProgressTracker progress = new ProgressTracker(index == null ? len : len - index.header().length,
+                manifest == null ? 0 : manifest.completedBytes(), TimeUnit.MILLISECONDS.toNanos(callbackTimeoutMils), progressCallback);
+        final long minPacketSize = manifest == null ? packetSize : manifest.blockSize();
+        final List<PacketPlanner.Packet> spans = manifest != null
+                ? manifest.missing()
+                : index == null ? Collections.singletonList(new PacketPlanner.Packet(0, len)) : clipSpans;
+        final AtomicLong lastManifestSave = new AtomicLong(System.nanoTime());
+        Consumer<PacketPlanner.Packet> packetCallback = packet -> {
+            if (manifest == null) {
+                return;
+            }
+            manifest.complete(packet.start, packet.end);
+            long last = lastManifestSave.get();
+            long now = System.nanoTime();
+            if (now - last >= TimeUnit.MILLISECONDS.toNanos(MANIFEST_SAVE_INTERVAL_MILS) && lastManifestSave.compareAndSet(last, now)) {
+                saveManifest(manifest, writer);
+            }
+        };
+        return start(output, planner(spans, minPacketSize), progress, packetCallback, hedgeRequests, success -> {
+            Exception error = null;
+            try {
+                if (success) {
+                    output.complete();
+                    if (digest != null) {
+                        digestCallback.accept(RollingDigest.hex(digest.finish(len)));
+                    }
+                    if (manifest != null) {
+                        manifest.delete();
+                    }
                 }
+            } catch (IOException | RuntimeException e) {
+                //a failing digest callback fails the download as well
+                success = false;
+                error = e;
             }
-            if (failFlag.get()) {
-                throw new IOException();
-            } else {
-                return exportFile;
+            if (!success && manifest != null) {
+                saveManifest(manifest, writer);
             }
-        } finally {
-            if (!executorService.isTerminated()) {
-                executorService.shutdownNow();
+            try {
+                writer.close();
+            } catch (IOException e) {
+                if (success) {
+                    success = false;
+                    error = e;
+                }
             }
-            if (failFlag.get()) {
+            if (!success && manifest == null) {
                 deleteFile(exportFile);
             }
+            if (error != null) {
+                throw error;
+            }
+            return exportFile;
+        });
+    }
+
+    /**
+     * Starts downloading {@code StreamingData} to the stream without blocking the caller.
+     * The stream is flushed, but not closed
+     *
+     * @param out stream to write the data
+     * @return {@code DownloadTask} of the download
+     * @throws UncheckedIOException if the segment index of a clip can't be read
+     */
+    public DownloadTask<Void> downloadAsync(OutputStream out) {
+        return downloadAsync(Channels.newChannel(Objects.requireNonNull(out)), out, null);
+    }
+
+    /**
+     * Starts downloading {@code StreamingData} to the channel without blocking the caller.
+     * The channel is not closed
+     *
+     * @param channel channel to write the data
+     * @return {@code DownloadTask} of the download
+     * @throws UncheckedIOException if the segment index of a clip can't be read
+     */
+    public DownloadTask<Void> downloadAsync(WritableByteChannel channel) {
+        return downloadAsync(Objects.requireNonNull(channel), null, null);
+    }
+
+    /**
+     * Returns publisher of downloaded data. Every subscriber starts its own download,
+     * the data is emitted strictly in order as read-only {@code ByteBuffer} chunks.
+     * Packets are not requested further than {@code reorderBufferSize} ahead of the data requested by the subscriber,
+     * cancelling the subscription cancels the download
+     *
+     * @return {@code Publisher<ByteBuffer>} publisher
+     */
+    public Publisher<ByteBuffer> publisher() {
+        return new ChunkPublisher((channel, abortHook) -> downloadAsync(channel, null, abortHook));
+    }
+
+    private DownloadTask<Void> downloadAsync(WritableByteChannel channel, Flushable flushable, Runnable abortHook) {
+        if (resume) {
+            throw new IllegalStateException("resume is supported only for downloads to a file");
+        }
+        final SegmentIndex index;
+        try {
+            index = clip ? readIndex() : null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        final List<PacketPlanner.Packet> clipSpans = index == null ? null : index.spans(clipStartMils, clipEndMils);
+        final long len = index == null ? streamingData.contentLength() : ClipPacketWriter.length(index.header(), clipSpans);
+        final RollingDigest digest = digestAlgorithm == null ? null : new RollingDigest(messageDigest(), null, BufferPool.SHARED);
+        final OrderedPacketWriter writer = new OrderedPacketWriter(digest == null ? channel : digestChannel(channel, digest), flushable, abortHook, len, reorderBufferSize,
+                memoryBudget, BufferPool.SHARED);
+        final PacketWriter output = index == null ? writer : new ClipPacketWriter(writer, index.header(), clipSpans);
+        final ProgressTracker progress = new ProgressTracker(index == null ? len : len - index.header().length, 0,
+                TimeUnit.MILLISECONDS.toNanos(callbackTimeoutMils), progressCallback);
+        final List<PacketPlanner.Packet> spans = index != null
+                ? clipSpans
+                : len == 0 ? Collections.<PacketPlanner.Packet>emptyList() : Collections.singletonList(new PacketPlanner.Packet(0, len));
+        //an ordered writer can't take the overlapping writes of hedged copies
+        return start(output, planner(spans, packetSize), progress, packet -> {
+        }, false, success -> {
+            try {
+                if (success) {
+                    output.complete();
+                    if (digest != null) {
+                        digestCallback.accept(RollingDigest.hex(digest.finish(len)));
+                    }
+                }
+            } finally {
+                output.close();
+            }
+            return null;
+        });
+    }
+
+    private MessageDigest messageDigest() {
+        try {
+            return MessageDigest.getInstance(digestAlgorithm);
+        } catch (NoSuchAlgorithmException e) {
+            //the algorithm is checked by the builder
+            throw new IllegalStateException(e);
+        }
+    }
+
+    //the ordered writer writes to the channel strictly in order, so the data is hashed as it passes
+    private static WritableByteChannel digestChannel(WritableByteChannel channel, RollingDigest digest) {
+        return new WritableByteChannel() {
+            @Override
+            public int write(ByteBuffer src) throws IOException {
+                ByteBuffer data = src.duplicate();
+                int written = channel.write(src);
+                data.limit(data.position() + written);
+                digest.append(data);
+                return written;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return channel.isOpen();
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        };
+    }
+
+    //the index is read through the transport of the engine before packets are planned
+    private SegmentIndex readIndex() throws IOException {
+        HttpTransport transport = engine == null ? NetTools.DEFAULT_TRANSPORT : engine.transport();
+        return SegmentIndex.read((start, end) -> NetTools.getRange(transport, streamingData.url(), start, end),
+                streamingData.contentLength());
+    }
+
+    private PacketPlanner planner(List<PacketPlanner.Packet> spans, long minPacketSize) {
+        return adaptivePacketSize
+                ? new PacketPlanner(spans, minPacketSize, Math.max(minPacketSize, maxPacketSize), TimeUnit.MILLISECONDS.toNanos(packetDurationMils), threadsCount, true)
+                : new PacketPlanner(spans, minPacketSize, minPacketSize, 0, 1, false);
+    }
+
+    private <T> DownloadTask<T> start(PacketWriter writer, PacketPlanner planner, ProgressTracker progress,
+                                      Consumer<PacketPlanner.Packet> packetCallback, boolean hedging, Finisher<T> finisher) {
+        final DownloadEngine downloadEngine = engine == null
+                ? new DownloadEngine.Builder().workersCount(threadsCount).build()
+                : engine;
+        final List<BandwidthLimiter> limiters = new ArrayList<>();
+        if (bandwidthLimiter != null) {
+            limiters.add(bandwidthLimiter);
+        }
+        downloadEngine.bandwidthLimiter().ifPresent(limiters::add);
+        final PacketDownloader packetDownloader = new PacketDownloader(streamingData.url(), streamingData.contentLength(), downloadEngine.transport(), rangeMode, writer, planner,
+                progress, packetCallback, limiters, retryPolicy, hedging);
+        final ConcurrencyController concurrency = adaptiveConcurrency
+                ? new ConcurrencyController(minThreadsCount, threadsCount, TimeUnit.MILLISECONDS.toNanos(CONCURRENCY_INTERVAL_MILS))
+                : ConcurrencyController.fixed(threadsCount);
+        final DownloadJob job = new DownloadJob(packetDownloader, concurrency, priority);
+        final DownloadTask<T> task = new DownloadTask<>(downloadEngine, job);
+        job.done().thenRun(() -> {
+            boolean success = !job.failed() && !task.isDone();
+            T result = null;
+            Throwable error = null;
+            //every packet reported success, but the bytes received must still add up to the whole length
+            if (success && progress.downloaded() != progress.contentLen()) {
+                success = false;
+                error = new IntegrityException(String.format("downloaded %s of %s bytes", progress.downloaded(), progress.contentLen()));
+            }
+            if (success) {
+                progress.finish();
+            }
+            try {
+                result = finisher.finish(success);
+            } catch (Throwable e) {
+                success = false;
+                error = e;
+            } finally {
+                //the task must be completed whatever the finisher throws, so nothing is left open
+                closeQuietly(writer);
+                if (engine == null) {
+                    downloadEngine.close();
+                }
+            }
+            if (success) {
+                task.complete(result);
+            } else {
+                task.fail(error == null ? new IOException("Download failed", packetDownloader.failure()) : error);
+            }
+        });
+        progress.start();
+        downloadEngine.submit(job);
+        return task;
+    }
+
+    private static <T> T await(DownloadTask<T> task) throws IOException {
+        try {
+            return task.future().get();
+        } catch (InterruptedException e) {
+            //the caller may resume right away, so the manifest must be saved before returning
+            task.cancel();
+            task.awaitReleased();
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    //the manifest is found by the target file name, the data may be in a "name(N)" file next to a finished one
+    private DownloadManifest openManifest() {
+        File target = new File(folder, String.format("%s.%s", censureFileName(fileName), streamingData.format()));
+        Optional<DownloadManifest> saved = DownloadManifest.load(target)
+                .filter(manifest -> manifest.matches(streamingData.url(), streamingData.contentLength()));
+        if (saved.isPresent() && saved.get().exportFile().exists()) {
+            saved.get().url(streamingData.url());
+            return saved.get();
+        }
+        return DownloadManifest.create(target, createExportFile(folder, fileName, streamingData.format()),
+                streamingData.url(), streamingData.contentLength(), packetSize);
+    }
+
+    private static void saveManifest(DownloadManifest manifest, FilePacketWriter writer) {
+        try {
+            //completed packets must reach the device before the manifest says so
+            writer.flush();
+            manifest.save();
+        } catch (IOException e) {
+            logger.error("Failed to save download manifest", e);
+        }
+    }
+
+    private static void closeQuietly(PacketWriter writer) {
+        try {
+            writer.close();
+        } catch (IOException e) {
+            logger.error("Failed to close download output", e);
         }
     }
 
+    //releases the output of a finished download, failed downloads throw only errors of the release itself
+    private interface Finisher<T> {
+        T finish(boolean success) throws Exception;
+    }
+
     /**
      * The {@code StreamingDataDownloader.Builder} class represents a builder for StreamingDataDownloader.
      */
@@ -95,12 +444,33 @@ public final class StreamingDataDownloader {
         private File folder = null;
         private String fileName = null;
         private int threadsCount = 40;
+        private boolean adaptiveConcurrency = false;
+        private int minThreadsCount = 2;
         private long packetSize = 1024*100;//100kb
+        private long maxPacketSize = 1024*1024*16;//16mb
+        private int packetDurationMils = 2000;
+        private boolean adaptivePacketSize = false;
+        private boolean resume = false;
+        private Durability durability = Durability.ON_COMPLETE;
+        private int forceIntervalMils = 5000;
         private int callbackTimeoutMils = 1000;
+        private long reorderBufferSize = 1024*1024*16;//16mb
+        private MemoryBudget memoryBudget = MemoryBudget.global();
+        private boolean hedgeRequests = true;
+        private RangeMode rangeMode = RangeMode.HEADER;
+        private boolean clip = false;
+        private long clipStartMils = 0;
+        private long clipEndMils = 0;
+        private DownloadEngine engine = null;
+        private int priority = 1;
+        private BandwidthLimiter bandwidthLimiter = null;
+        private RetryPolicy retryPolicy = new RetryPolicy.Builder().build();
         private Consumer<Progress> progressCallback = null;
+        private String digestAlgorithm = null;
+        private Consumer<String> digestCallback = null;
 
         /**
-         * Sets progress callback timeout in mils
+         * Sets min interval in mils between progress callbacks
          *
          * @param callbackTimeoutMils timeout
          * @return {@code Builder}
@@ -110,6 +480,170 @@ public final class StreamingDataDownloader {
             return this;
         }
 
+        /**
+         * Enables a digest of the downloaded data. The digest is computed while packets land,
+         * data landed ahead of the hashed part is read back from the file once the gap before it is filled.
+         * The callback gets the hex digest before the download completes
+         *
+         * @param algorithm      {@code MessageDigest} algorithm, e.g. {@code "SHA-256"}
+         * @param digestCallback callback of the digest
+         * @return {@code Builder}
+         */
+        public Builder digest(String algorithm, Consumer<String> digestCallback) {
+            this.digestAlgorithm = algorithm;
+            this.digestCallback = digestCallback;
+            return this;
+        }
+
+        /**
+         * Sets max size in bytes of data kept in memory while downloading to a stream or a channel.
+         * Packets can't run ahead of the data written to the stream further than this size
+         *
+         * @param reorderBufferSize size
+         * @return {@code Builder}
+         */
+        public Builder reorderBufferSize(long reorderBufferSize) {
+            this.reorderBufferSize = reorderBufferSize;
+            return this;
+        }
+
+        /**
+         * Enables hedged requests for stragglers. When no packets are left to request,
+         * a packet downloading far slower than the median packet is requested once more on another connection,
+         * the copy finished first wins and the other one is aborted.
+         * Used only for downloads to a file
+         *
+         * @param hedgeRequests {@code true} to enable
+         * @return {@code Builder}
+         */
+        public Builder hedgeRequests(boolean hedgeRequests) {
+            this.hedgeRequests = hedgeRequests;
+            return this;
+        }
+
+        /**
+         * Sets way of requesting ranges of packets. {@code RangeMode.URL_PARAM} may help when requests with
+         * the {@code Range} header get throttled. The segment index of a clip is always requested with the header
+         *
+         * @param rangeMode mode, {@code RangeMode.HEADER} by default
+         * @return {@code Builder}
+         */
+        public Builder rangeMode(RangeMode rangeMode) {
+            this.rangeMode = rangeMode;
+            return this;
+        }
+
+        /**
+         * Downloads only a clip of the stream. The segment index of the stream is read first,
+         * then only the init data and the segments overlapping the time window are downloaded.
+         * The clip starts at the segment boundary before {@code startMils} and ends at the one after {@code endMils},
+         * timestamps of the clip stay as in the original stream.
+         * Supported for fragmented mp4 streams with sidx and webm streams with cues
+         *
+         * @param startMils start of the window
+         * @param endMils   end of the window
+         * @return {@code Builder}
+         */
+        public Builder clip(long startMils, long endMils) {
+            this.clip = true;
+            this.clipStartMils = startMils;
+            this.clipEndMils = endMils;
+            return this;
+        }
+
+        /**
+         * Sets budget of data held in memory while downloading to a stream or a channel.
+         * Packets running ahead of the written data wait while the budget is used up by this or other downloads
+         *
+         * @param memoryBudget budget, {@code MemoryBudget.global()} by default
+         * @return {@code Builder}
+         */
+        public Builder memoryBudget(MemoryBudget memoryBudget) {
+            this.memoryBudget = memoryBudget;
+            return this;
+        }
+
+        /**
+         * Enables resumable downloading. Completed packets are recorded in a manifest next to the export file,
+         * so a failed download keeps its partial file and a later download of the same stream
+         * into the same folder and file name fetches only the missing packets.
+         * Without file name a name derived from the stream is used.
+         *
+         * @param resume {@code true} to enable
+         * @return {@code Builder}
+         */
+        public Builder resume(boolean resume) {
+            this.resume = resume;
+            return this;
+        }
+
+        /**
+         * Sets durability policy of the export file
+         *
+         * @param durability policy
+         * @return {@code Builder}
+         */
+        public Builder durability(Durability durability) {
+            this.durability = durability;
+            return this;
+        }
+
+        /**
+         * Sets interval in mils between forcing data to the storage device, used by {@code Durability.PERIODIC}
+         *
+         * @param forceIntervalMils interval
+         * @return {@code Builder}
+         */
+        public Builder forceInterval(int forceIntervalMils) {
+            this.forceIntervalMils = forceIntervalMils;
+            return this;
+        }
+
+        /**
+         * Sets shared engine whose workers download packets.
+         * Without engine the download uses its own engine with {@code threadsCount} workers
+         *
+         * @param engine engine
+         * @return {@code Builder}
+         */
+        public Builder engine(DownloadEngine engine) {
+            this.engine = engine;
+            return this;
+        }
+
+        /**
+         * Sets download priority, a download gets packets from a shared engine in proportion to its priority
+         *
+         * @param priority priority
+         * @return {@code Builder}
+         */
+        public Builder priority(int priority) {
+            this.priority = priority;
+            return this;
+        }
+
+        /**
+         * Sets limiter of download speed, the limiter may be shared with other downloads
+         *
+         * @param bandwidthLimiter limiter
+         * @return {@code Builder}
+         */
+        public Builder bandwidthLimiter(BandwidthLimiter bandwidthLimiter) {
+            this.bandwidthLimiter = bandwidthLimiter;
+            return this;
+        }
+
+        /**
+         * Sets rules of retrying failed packet requests
+         *
+         * @param retryPolicy policy
+         * @return {@code Builder}
+         */
+        public Builder retryPolicy(RetryPolicy retryPolicy) {
+            this.retryPolicy = retryPolicy;
+            return this;
+        }
+
         /**
          * Sets parent folder for export file
          *
@@ -121,7 +655,7 @@ public final class StreamingDataDownloader {
             return this;
         }
         /**
-         * Sets download packet size
+         * Sets download packet size, with adaptive packet sizing it is the initial and min size
          *
          * @param packetSize size
          * @return {@code Builder}
@@ -131,9 +665,44 @@ public final class StreamingDataDownloader {
             return this;
         }
 
+        /**
+         * Enables adaptive packet sizing. Downloading starts with {@code packetSize} packets,
+         * then the size grows or shrinks toward {@code packetDuration} per request,
+         * staying a multiple of {@code packetSize} and not exceeding {@code maxPacketSize}
+         *
+         * @param adaptivePacketSize {@code true} to enable
+         * @return {@code Builder}
+         */
+        public Builder adaptivePacketSize(boolean adaptivePacketSize) {
+            this.adaptivePacketSize = adaptivePacketSize;
+            return this;
+        }
+
+        /**
+         * Sets max download packet size, used by adaptive packet sizing
+         *
+         * @param maxPacketSize size
+         * @return {@code Builder}
+         */
+        public Builder maxPacketSize(long maxPacketSize) {
+            this.maxPacketSize = maxPacketSize;
+            return this;
+        }
+
+        /**
+         * Sets target duration of one packet request in mils, used by adaptive packet sizing
+         *
+         * @param packetDurationMils duration
+         * @return {@code Builder}
+         */
+        public Builder packetDuration(int packetDurationMils) {
+            this.packetDurationMils = packetDurationMils;
+            return this;
+        }
 
         /**
-         * Sets progress callback
+         * Sets progress callback, it is called from download workers as data arrives
+         * and once more when downloading is complete
          *
          * @param progressCallback callback
          * @return {@code Builder}
@@ -155,7 +724,7 @@ public final class StreamingDataDownloader {
         }
 
         /**
-         * Sets downloading thread count
+         * Sets downloading thread count, with a shared engine it is max count of simultaneous packet requests of this download
          *
          * @param threadsCount count
          * @return {@code Builder}
@@ -165,6 +734,30 @@ public final class StreamingDataDownloader {
             return this;
         }
 
+        /**
+         * Enables adaptive count of simultaneous packet requests. The download starts with {@code minThreadsCount} requests,
+         * adds requests while measured throughput keeps rising and backs off multiplicatively
+         * on throttling, broken connections or falling throughput, never exceeding {@code threadsCount}
+         *
+         * @param adaptiveConcurrency {@code true} to enable
+         * @return {@code Builder}
+         */
+        public Builder adaptiveConcurrency(boolean adaptiveConcurrency) {
+            this.adaptiveConcurrency = adaptiveConcurrency;
+            return this;
+        }
+
+        /**
+         * Sets min count of simultaneous packet requests, used by adaptive concurrency
+         *
+         * @param minThreadsCount count
+         * @return {@code Builder}
+         */
+        public Builder minThreadsCount(int minThreadsCount) {
+            this.minThreadsCount = minThreadsCount;
+            return this;
+        }
+
         /**
          * Sets streaming data
          *
@@ -183,11 +776,33 @@ public final class StreamingDataDownloader {
          */
         public StreamingDataDownloader build() {
             Objects.requireNonNull(streamingData);
-            Objects.requireNonNull(folder);
+            Objects.requireNonNull(durability);
+            Objects.requireNonNull(retryPolicy);
+            Objects.requireNonNull(memoryBudget);
+            Objects.requireNonNull(rangeMode);
+            if (fileName == null && resume) {
+                fileName = DownloadManifest.resumeFileName(streamingData.url()).orElse(null);
+            }
             fileName = fileName == null ? createRandomFileName() : fileName;
             if (threadsCount <= 0) throw new IndexOutOfBoundsException("n > 0");
+            if (adaptiveConcurrency && (minThreadsCount <= 0 || minThreadsCount > threadsCount)) throw new IndexOutOfBoundsException("0 < minThreadsCount <= threadsCount");
             if (packetSize <= 0) throw new IndexOutOfBoundsException("n > 0");
+            if (adaptivePacketSize && maxPacketSize < packetSize) throw new IndexOutOfBoundsException("maxPacketSize >= packetSize");
+            if (packetDurationMils <= 0) throw new IndexOutOfBoundsException("n > 0");
+            if (priority <= 0) throw new IndexOutOfBoundsException("n > 0");
+            if (forceIntervalMils <= 0) throw new IndexOutOfBoundsException("n > 0");
             if (callbackTimeoutMils < 0) throw new IndexOutOfBoundsException("n >= 0");
+            if (reorderBufferSize <= 0) throw new IndexOutOfBoundsException("n > 0");
+            if (clip && (clipStartMils < 0 || clipEndMils <= clipStartMils)) throw new IndexOutOfBoundsException("0 <= start < end");
+            if (clip && resume) throw new IllegalStateException("resume is not supported for clips");
+            if (digestAlgorithm != null) {
+                Objects.requireNonNull(digestCallback);
+                try {
+                    MessageDigest.getInstance(digestAlgorithm);
+                } catch (NoSuchAlgorithmException e) {
+                    throw new IllegalArgumentException(e);
+                }
+            }
             try {
                 return new StreamingDataDownloader((Builder) this.clone());
             } catch (CloneNotSupportedException e) {
@@ -3,10 +3,6 @@ package io.github.x45iq.jtube;
 
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
-import org.jsoup.nodes.Document;
-import org.mozilla.javascript.Context;
-import org.mozilla.javascript.Function;
-import org.mozilla.javascript.Scriptable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -14,7 +10,10 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
@@ -38,9 +37,11 @@ public final class VideoParser {
     private static final Pattern HYBRID_MIME_TYPE_REGEX = Pattern.compile("codecs=\"(\\S+?),\\s*(\\S+?)\"");
     private static final Pattern ENCRYPTED_URL_REGEX = Pattern.compile("url=(\\S+)");
     private static final Pattern ENCRYPTED_URL_SIGNATURE_REGEX = Pattern.compile("s=(\\S+?)&");
-    private static final Pattern DECIPHER_JS_FILE_REGEX = Pattern.compile("/s/player/(\\S+?)\\.js");
     private static final String DECRYPTION_DATA_FILE_NAME = "jtube.cache";
     private final CacheData cacheData;
+    private final HttpTransport transport;
+    private final boolean innerTube;
+    private final List<ClientProfile> clientProfiles;
     private static final PlayerResponseParser playerResponseParser = new PlayerResponseDefaultParser();
 
     /**
@@ -51,14 +52,35 @@ public final class VideoParser {
      * @param cacheData data for caching
      */
     public VideoParser(CacheData cacheData) {
+        this(cacheData, NetTools.DEFAULT_TRANSPORT);
+    }
+
+    /**
+     * Constructor that allows {@code VideoParser} to save and load
+     * decryption data from cache folder and to send requests by the given transport.
+     *
+     * @param cacheData data for caching or {@code null}
+     * @param transport transport of requests
+     */
+    public VideoParser(CacheData cacheData, HttpTransport transport) {
         this.cacheData = cacheData;
+        this.transport = Objects.requireNonNull(transport);
+        this.innerTube = false;
+        this.clientProfiles = Collections.singletonList(ClientProfile.WEB);
+    }
+
+    private VideoParser(Builder builder) {
+        this.cacheData = builder.cacheData;
+        this.transport = builder.transport;
+        this.innerTube = builder.innerTube;
+        this.clientProfiles = builder.clientProfiles;
     }
 
     /**
      * Default constructor.
      */
     public VideoParser() {
-        this.cacheData = null;
+        this((CacheData) null);
     }
 
     /**
@@ -83,13 +105,53 @@ public final class VideoParser {
      */
     public Video parse(String url) throws IOException, NoAccessException, ResponseParsingException, IllegalArgumentException {
         String id = UrlPatternsTool.getVideoUrlId(url).orElseThrow(() -> new IllegalArgumentException("Not supported url: " + url));
-        Document page = NetTools.getPage(String.format("https://youtube.com/watch?v=%s", id));
-        return parsePage(page);
+        if (innerTube) {
+            Optional<Video> video = parseByApi(id);
+            if (video.isPresent()) {
+                return video.get();
+            }
+            logger.debug(String.format("player api gave no usable response for %s, the watch page is used", id));
+        }
+        //every watch page refreshes the api config, the first one also bootstraps it
+        WatchPageScanner page = NetTools.getWatchPage(transport, String.format("https://youtube.com/watch?v=%s", id));
+        PlayerApiTools.update(page);
+        return parseResponse(playerResponseParser.parse(page), page.playerJsPath());
+    }
+
+    //profiles are tried in order, the first response with plain urls wins and nothing has to be deciphered
+    private Optional<Video> parseByApi(String id) throws NoAccessException, ResponseParsingException {
+        Optional<PlayerApiTools.Config> config = PlayerApiTools.config();
+        JsonObject ciphered = null;
+        for (ClientProfile profile : clientProfiles) {
+            if (!config.isPresent() && !profile.clientVersion().isPresent()) {
+                continue;
+            }
+            try {
+                JsonObject response = PlayerApiTools.player(transport, profile, config.orElse(null), id);
+                if (!isPlayable(response)) {
+                    logger.debug(String.format("player api of %s gave no playable response for %s", profile.clientName(), id));
+                    continue;
+                }
+                if (PlayerApiTools.hasDirectUrls(response)) {
+                    return Optional.of(parseResponse(response, null));
+                }
+                //signatures of a response requested without the timestamp of the player js can't be deciphered
+                if (ciphered == null && PlayerApiTools.signatureTimestamp(config.orElse(null)).isPresent()) {
+                    ciphered = response;
+                }
+            } catch (IOException | ResponseParsingException e) {
+                logger.warn(String.format("player api of %s failed for %s", profile.clientName(), id), e);
+            }
+        }
+        //ciphered urls can be used only with the player js of the page
+        if (ciphered != null && config.isPresent() && config.get().playerJsPath() != null) {
+            return Optional.of(parseResponse(ciphered, config.get().playerJsPath()));
+        }
+        return Optional.empty();
     }
 
-    private Video parsePage(Document page) throws NoAccessException, ResponseParsingException {
-        assert page != null;
-        JsonObject response = playerResponseParser.parse(page);
+    private Video parseResponse(JsonObject response, String playerJsPath) throws NoAccessException, ResponseParsingException {
+        assert response != null;
         checkVideoAvailable(response);
         List<VideoStreamingData> videoStreams = new ArrayList<>();
         List<HybridStreamingData> hybridStreams = new ArrayList<>();
@@ -98,7 +160,7 @@ public final class VideoParser {
         List<Subtitles> subtitles = new ArrayList<>();
 
         VideoMeta meta = parseForMeta(response);
-        parseHybridStreamingData(response, hybridStreams, decipheredStreams);
+        parseHybridStreamingData(response, hybridStreams, decipheredStreams, transport);
         parseAdaptiveStreamingData(response, videoStreams, audioStreams, decipheredStreams);
         parseSubtitles(response, subtitles);
         Video video = new Video(meta, videoStreams, audioStreams, hybridStreams, subtitles);
@@ -106,7 +168,7 @@ public final class VideoParser {
             return video;
         }
         try {
-            decipherStreams(page.html(), decipheredStreams, cacheData);
+            decipherStreams(playerJsPath, decipheredStreams, cacheData, transport);
         } catch (JTubeException | IOException e) {
             logger.error("Failed to decrypt links", e);
         }
@@ -133,51 +195,63 @@ public final class VideoParser {
         }
     }
 
-    private static void decipherStreams(String pageHtml, List<DecipherStreamParams> decipheredStreams, CacheData cacheData) throws JTubeException, IOException {
-        assert pageHtml != null;
+    private static void decipherStreams(String jsFileName, List<DecipherStreamParams> decipheredStreams, CacheData cacheData, HttpTransport transport) throws JTubeException, IOException {
         assert decipheredStreams != null;
-        Matcher decipMatcher = DECIPHER_JS_FILE_REGEX.matcher(pageHtml);
-        if (!decipMatcher.find()) {
+        assert transport != null;
+        if (jsFileName == null) {
             throw new JTubeException("jsFileName not found");
         }
-        String jsFileName = decipMatcher.group(0);
+        //a player version compiled by any parser before needs neither the cache file nor the player js
+        Optional<DecipherProgram> program = DecipherProgram.cached(jsFileName);
+        if (program.isPresent()) {
+            try {
+                decryptUrls(decipheredStreams, program.get());
+                return;
+            } catch (JTubeException e) {
+                logger.error("", e);
+                DecipherProgram.evict(jsFileName);
+            }
+        }
         Optional<DecryptionData> decryptionDataOptional = CacheManager.getCacheObject(cacheData, DECRYPTION_DATA_FILE_NAME, DecryptionData.class)
                 .filter(data -> jsFileName.equals(data.fileName));
         if (decryptionDataOptional.isPresent() && (System.currentTimeMillis() - decryptionDataOptional.get().created <= TimeUnit.HOURS.toMillis(1))) {
+            if (decryptionDataOptional.get().signatureTimestamp > 0) {
+                PlayerApiTools.signatureTimestamp(jsFileName, decryptionDataOptional.get().signatureTimestamp);
+            }
             try {
-                decryptUrls(decipheredStreams, decryptionDataOptional.get());
+                decryptUrls(decipheredStreams, DecipherProgram.compile(jsFileName, decryptionDataOptional.get().funcName, decryptionDataOptional.get().code));
                 return;
             } catch (JTubeException e) {
                 logger.error("", e);
+                DecipherProgram.evict(jsFileName);
             }
         }
         CacheManager.deleteFromCache(cacheData, DECRYPTION_DATA_FILE_NAME);
-        DecryptionData decryptionData = parseDecryptionData(jsFileName);
-        decryptUrls(decipheredStreams, decryptionData);
+        DecryptionData decryptionData = parseDecryptionData(transport, jsFileName);
+        if (decryptionData.signatureTimestamp > 0) {
+            PlayerApiTools.signatureTimestamp(jsFileName, decryptionData.signatureTimestamp);
+        }
+        decryptUrls(decipheredStreams, DecipherProgram.compile(jsFileName, decryptionData.funcName, decryptionData.code));
         CacheManager.cacheObject(cacheData, DECRYPTION_DATA_FILE_NAME, decryptionData);
     }
 
-    private static void decryptUrls(List<DecipherStreamParams> decipherStreamParams, DecryptionData decryptionData) throws JTubeException {
+    //urls are given out only once every signature is deciphered, so a failed program can be retried without duplicates
+    private static void decryptUrls(List<DecipherStreamParams> decipherStreamParams, DecipherProgram program) throws JTubeException {
         assert decipherStreamParams != null;
-        assert decryptionData != null;
-        StringBuilder stb = new StringBuilder(decryptionData.code + " function decipher(").append("){return ");
-        for (int i = 0; i < decipherStreamParams.size() - 1; i++) {
-            stb.append(String.format("%s('%s')+\"\\n\"+", decryptionData.funcName, decipherStreamParams.get(i).signature));
-        }
-        stb.append(String.format("%s('%s')", decryptionData.funcName, decipherStreamParams.get(decipherStreamParams.size() - 1).signature))
-                .append("};");
-        String answer = runJSFunc(stb.toString());
-        String[] sigs = answer.split("\n");
-        for (int i = 0; i < decipherStreamParams.size() && i < sigs.length; i++) {
-            DecipherStreamParams dS = decipherStreamParams.get(i);
-            String url = String.format("%s&sig=%s", dS.url, sigs[i]);
-            dS.decipherReturn.accept(url);
+        assert program != null;
+        List<String> urls = new ArrayList<>(decipherStreamParams.size());
+        for (DecipherStreamParams dS : decipherStreamParams) {
+            urls.add(String.format("%s&sig=%s", dS.url, program.decipher(dS.signature)));
+        }
+        for (int i = 0; i < decipherStreamParams.size(); i++) {
+            decipherStreamParams.get(i).decipherReturn.accept(urls.get(i));
         }
     }
 
-    private static DecryptionData parseDecryptionData(String jsFileName) throws JTubeException, IOException {
+    private static DecryptionData parseDecryptionData(HttpTransport transport, String jsFileName) throws JTubeException, IOException {
+        assert transport != null;
         assert jsFileName != null;
-        String jsFile = NetTools.getPage(String.format("https://youtube.com%s", jsFileName)).body().text();
+        String jsFile = NetTools.getPage(transport, String.format("https://youtube.com%s", jsFileName)).body().text();
         Matcher mat = SIGNATURE_DEC_FUNCTION_REGEX.matcher(jsFile);
         if (!mat.find()) {
             throw new JTubeException("SIGNATURE_DEC_FUNCTION_REGEX not found");
@@ -220,7 +294,9 @@ public final class VideoParser {
             variableDef += parseFunc(jsFile, index);
             allFunctions.append(variableDef);
         }
-        return new DecryptionData(jsFileName, funcName, allFunctions.toString(), System.currentTimeMillis());
+        //0 if the player js has no timestamp, as in data cached by older versions
+        int signatureTimestamp = PlayerApiTools.findSignatureTimestamp(jsFile).orElse(0);
+        return new DecryptionData(jsFileName, funcName, allFunctions.toString(), signatureTimestamp, System.currentTimeMillis());
     }
 
     private static String parseFunc(String pageHtml, int index) {
@@ -272,10 +348,11 @@ public final class VideoParser {
         }
     }
 
-    private static void parseHybridStreamingData(JsonObject initialResponse, List<HybridStreamingData> hybridStreams, List<DecipherStreamParams> encStreams) {
+    private static void parseHybridStreamingData(JsonObject initialResponse, List<HybridStreamingData> hybridStreams, List<DecipherStreamParams> encStreams, HttpTransport transport) {
         assert initialResponse != null;
         assert hybridStreams != null;
         assert encStreams != null;
+        assert transport != null;
         JsonArray formats = initialResponse
                 .getAsJsonObject("streamingData")
                 .getAsJsonArray("formats");
@@ -297,7 +374,7 @@ public final class VideoParser {
             {
                 if (contentLength.get() == 0) {
                     try {
-                        contentLength.set(NetTools.getContentLen(url));
+                        contentLength.set(NetTools.getContentLen(transport, url));
                     } catch (IOException e) {
                         logger.error("couldn't get content len: " + url, e);
                         return;
@@ -437,6 +514,11 @@ public final class VideoParser {
         );
     }
 
+    private static boolean isPlayable(JsonObject response) {
+        return response.has("playabilityStatus") && response.getAsJsonObject("playabilityStatus").has("status")
+                && response.getAsJsonObject("playabilityStatus").get("status").getAsString().equals("OK");
+    }
+
     private static void checkVideoAvailable(JsonObject apiResponse) throws NoAccessException {
         assert apiResponse != null;
         String status = apiResponse.getAsJsonObject("playabilityStatus").get("status").getAsString();
@@ -446,40 +528,94 @@ public final class VideoParser {
         throw new NoAccessException("status: " + status);
     }
 
-    private static String runJSFunc(String javaScriptCode) throws JTubeException {
-        assert javaScriptCode != null;
-        Context rhino = Context.enter();
-        rhino.setOptimizationLevel(-1);
-        try {
-            Scriptable scope = rhino.initStandardObjects();
-            rhino.evaluateString(scope, javaScriptCode, "JavaScript", 1, null);
-            Object obj = scope.get("decipher", scope);
-            if (obj instanceof Function) {
-                Function jsFunc = (Function) obj;
-                String res = Context.toString(jsFunc.call(rhino, scope, scope, new Object[]{}));
-                if (!res.equals("undefined")) {
-                    return res;
-                }
-            }
-            throw new JTubeException("Bad js run");
-        } finally {
-            Context.exit();
+    /**
+     * The {@code VideoParser.Builder} class represents a builder for VideoParser.
+     */
+    public static final class Builder implements Cloneable {
+        private CacheData cacheData = null;
+        private HttpTransport transport = NetTools.DEFAULT_TRANSPORT;
+        private boolean innerTube = false;
+        private List<ClientProfile> clientProfiles = Collections.singletonList(ClientProfile.WEB);
+
+        /**
+         * Sets data for caching decryption data
+         *
+         * @param cacheData data for caching or {@code null}
+         * @return {@code Builder}
+         */
+        public Builder cacheData(CacheData cacheData) {
+            this.cacheData = cacheData;
+            return this;
         }
 
-    }
+        /**
+         * Sets transport of requests
+         *
+         * @param transport transport
+         * @return {@code Builder}
+         */
+        public Builder transport(HttpTransport transport) {
+            this.transport = transport;
+            return this;
+        }
+
+        /**
+         * Enables requesting the player response from the InnerTube api instead of scraping the watch page.
+         * The api key and the context are taken from a watch page once and shared by all parsers for an hour,
+         * so the first parse and every parse the api fails for still read the watch page
+         *
+         * @param innerTube {@code true} to enable
+         * @return {@code Builder}
+         */
+        public Builder innerTube(boolean innerTube) {
+            this.innerTube = innerTube;
+            return this;
+        }
 
+        /**
+         * Sets InnerTube clients the player response is requested as, in order of preference.
+         * The first playable response with plain stream urls is used, so the player js isn't needed.
+         * If no profile gives plain urls, the first playable response is deciphered.
+         * Used only with {@code innerTube(true)}
+         *
+         * @param clientProfiles profiles, {@code ClientProfile.WEB} by default
+         * @return {@code Builder}
+         */
+        public Builder clientProfiles(ClientProfile... clientProfiles) {
+            this.clientProfiles = Collections.unmodifiableList(new ArrayList<>(Arrays.asList(clientProfiles)));
+            return this;
+        }
+
+        /**
+         * Returns {@code VideoParser} with {@code Builder} params
+         *
+         * @return {@code VideoParser} object;
+         */
+        public VideoParser build() {
+            Objects.requireNonNull(transport);
+            if (clientProfiles.isEmpty()) throw new IndexOutOfBoundsException("n > 0");
+            clientProfiles.forEach(Objects::requireNonNull);
+            try {
+                return new VideoParser((Builder) this.clone());
+            } catch (CloneNotSupportedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
 
     private static final class DecryptionData {
-        private DecryptionData(String fileName, String funcName, String code, long created) {
+        private DecryptionData(String fileName, String funcName, String code, int signatureTimestamp, long created) {
             this.fileName = fileName;
             this.funcName = funcName;
             this.code = code;
+            this.signatureTimestamp = signatureTimestamp;
             this.created = created;
         }
 
         private final String fileName;
         private final String funcName;
         private final String code;
+        private final int signatureTimestamp;
         private final long created;
     }
 
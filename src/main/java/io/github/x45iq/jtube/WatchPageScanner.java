@@ -0,0 +1,213 @@
+package io.github.x45iq.jtube;
+
+import com.google.gson.JsonParser;
+
+//single pass over the raw watch page, captures the player response, the innertube config and the player js path as they stream by
+final class WatchPageScanner {
+    private static final Block[] BLOCKS = Block.values();
+    private static final String PLAYER_JS_MARKER = "/s/player/";
+    private static final String PLAYER_JS_SUFFIX = ".js";
+    private static final int NONE = -1;
+    private static final int MORE = -2;
+    //only the unscanned tail and the value being captured are kept
+    private final StringBuilder page = new StringBuilder();
+    private final String[] values = new String[BLOCKS.length];
+    private int position = 0;
+    private Block capturing = null;
+    private int valueStart = 0;
+    private int depth = 0;
+    private boolean inString = false;
+    private boolean escaped = false;
+    private String playerJsPath = null;
+
+    void feed(char[] chars, int offset, int length) {
+        assert chars != null;
+        page.append(chars, offset, length);
+        scan();
+    }
+
+    void feed(CharSequence chars) {
+        assert chars != null;
+        page.append(chars);
+        scan();
+    }
+
+    boolean complete() {
+        for (String value : values) {
+            if (value == null) {
+                return false;
+            }
+        }
+        return playerJsPath != null;
+    }
+
+    //json of ytInitialPlayerResponse object or null
+    String playerResponse() {
+        return values[Block.PLAYER_RESPONSE.ordinal()];
+    }
+
+    //json of INNERTUBE_CONTEXT object or null
+    String innerTubeContext() {
+        return values[Block.CONTEXT.ordinal()];
+    }
+
+    String apiKey() {
+        String key = values[Block.API_KEY.ordinal()];
+        return key == null ? null : JsonParser.parseString(key).getAsString();
+    }
+
+    //path like /s/player/xxx/base.js or null
+    String playerJsPath() {
+        return playerJsPath;
+    }
+
+    private void scan() {
+        while (!complete() && position < page.length()) {
+            if (capturing != null) {
+                if (!scanValue()) {
+                    break;
+                }
+                continue;
+            }
+            int next = nextAt(position);
+            if (next == MORE) {
+                break;
+            }
+            position = next == NONE ? position + 1 : next;
+        }
+        if (capturing == null) {
+            page.delete(0, position);
+            position = 0;
+        }
+    }
+
+    private int nextAt(int start) {
+        char c = page.charAt(start);
+        if (c == '/' && playerJsPath == null) {
+            return playerJsAt(start);
+        }
+        int next = NONE;
+        for (Block block : BLOCKS) {
+            if (values[block.ordinal()] == null && c == block.marker.charAt(0)) {
+                int found = valueAt(start, block);
+                if (found >= 0) {
+                    return found;
+                }
+                next = Math.min(next, found);
+            }
+        }
+        return next;
+    }
+
+    //marker, separator and the opening char of the value, returns position of the value
+    private int valueAt(int start, Block block) {
+        int i = match(start, block.marker);
+        if (i < 0) {
+            return i;
+        }
+        i = skipSpaces(i);
+        if (i == page.length()) {
+            return MORE;
+        }
+        if (page.charAt(i) != block.separator) {
+            return NONE;
+        }
+        i = skipSpaces(i + 1);
+        if (i == page.length()) {
+            return MORE;
+        }
+        if (page.charAt(i) != block.open) {
+            return NONE;
+        }
+        capturing = block;
+        valueStart = i;
+        depth = 0;
+        inString = false;
+        escaped = false;
+        return i;
+    }
+
+    //braces inside strings don't count, so an object ends exactly at its closing brace
+    private boolean scanValue() {
+        for (; position < page.length(); position++) {
+            char c = page.charAt(position);
+            boolean end = false;
+            if (inString) {
+                if (escaped) {
+                    escaped = false;
+                } else if (c == '\\') {
+                    escaped = true;
+                } else if (c == '"') {
+                    inString = false;
+                    end = depth == 0;
+                }
+            } else if (c == '"') {
+                inString = true;
+            } else if (c == '{') {
+                depth++;
+            } else if (c == '}') {
+                end = --depth == 0;
+            }
+            if (end) {
+                values[capturing.ordinal()] = page.substring(valueStart, position + 1);
+                capturing = null;
+                position++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //same as /s/player/(\S+?)\.js
+    private int playerJsAt(int start) {
+        int i = match(start, PLAYER_JS_MARKER);
+        if (i < 0) {
+            return i;
+        }
+        for (; i < page.length(); i++) {
+            char c = page.charAt(i);
+            if (Character.isWhitespace(c)) {
+                return NONE;
+            }
+            if (c == 's' && i - start >= PLAYER_JS_MARKER.length() + PLAYER_JS_SUFFIX.length()
+                    && page.charAt(i - 1) == 'j' && page.charAt(i - 2) == '.') {
+                playerJsPath = page.substring(start, i + 1);
+                return i + 1;
+            }
+        }
+        return MORE;
+    }
+
+    private int match(int start, String marker) {
+        int length = Math.min(marker.length(), page.length() - start);
+        for (int i = 0; i < length; i++) {
+            if (page.charAt(start + i) != marker.charAt(i)) {
+                return NONE;
+            }
+        }
+        return length < marker.length() ? MORE : start + length;
+    }
+
+    private int skipSpaces(int i) {
+        while (i < page.length() && Character.isWhitespace(page.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private enum Block {
+        PLAYER_RESPONSE("ytInitialPlayerResponse", '=', '{'),
+        CONTEXT("\"INNERTUBE_CONTEXT\"", ':', '{'),
+        API_KEY("\"INNERTUBE_API_KEY\"", ':', '"');
+
+        private final String marker;
+        private final char separator;
+        private final char open;
+
+        Block(String marker, char separator, char open) {
+            this.marker = marker;
+            this.separator = separator;
+            this.open = open;
+        }
+    }
+}
@@ -0,0 +1,446 @@
+package io.github.x45iq.jtube;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+//remuxes WebM streams of one track each: clusters are interleaved by timecode and blocks get new track numbers
+final class WebmRemuxer {
+    private static final long EBML_ID = 0x1A45DFA3L;
+    private static final long SEGMENT_ID = 0x18538067L;
+    private static final long INFO_ID = 0x1549A966L;
+    private static final long TIMECODE_SCALE_ID = 0x2AD7B1L;
+    private static final long DURATION_ID = 0x4489L;
+    private static final long TRACKS_ID = 0x1654AE6BL;
+    private static final long TRACK_ENTRY_ID = 0xAEL;
+    private static final long TRACK_NUMBER_ID = 0xD7L;
+    private static final long TRACK_UID_ID = 0x73C5L;
+    private static final long CLUSTER_ID = 0x1F43B675L;
+    private static final long TIMECODE_ID = 0xE7L;
+    private static final long SIMPLE_BLOCK_ID = 0xA3L;
+    private static final long BLOCK_GROUP_ID = 0xA0L;
+    private static final long BLOCK_ID = 0xA1L;
+    private static final long DEFAULT_TIMECODE_SCALE = 1000000;
+    private static final int VIDEO_TRACK_NUMBER = 1;
+    private static final int AUDIO_TRACK_NUMBER = 2;
+    private static final byte[] UNKNOWN_SIZE = {0x01, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF};
+
+    private WebmRemuxer() {
+
+    }
+
+    static void mux(InputStream video, InputStream audio, OutputStream out) throws IOException {
+        assert video != null;
+        assert audio != null;
+        assert out != null;
+        Input videoInput = new Input(video, VIDEO_TRACK_NUMBER);
+        Input audioInput = new Input(audio, AUDIO_TRACK_NUMBER);
+        videoInput.readHeader();
+        audioInput.readHeader();
+        if (videoInput.timecodeScale != audioInput.timecodeScale) {
+            throw new IOException("Streams with different timecode scales can't be muxed");
+        }
+        separateUids(videoInput.trackEntry, audioInput.trackEntry);
+        setDuration(videoInput.info, Math.max(videoInput.duration, audioInput.duration));
+
+        //the size of the segment is not known until the end, so the output can be written as a stream
+        out.write(videoInput.ebml);
+        out.write(id(SEGMENT_ID));
+        out.write(UNKNOWN_SIZE);
+        out.write(videoInput.info);
+        out.write(id(TRACKS_ID));
+        out.write(size(videoInput.trackEntry.length + audioInput.trackEntry.length));
+        out.write(videoInput.trackEntry);
+        out.write(audioInput.trackEntry);
+        videoInput.nextCluster();
+        audioInput.nextCluster();
+        while (videoInput.clusterHeader != null || audioInput.clusterHeader != null) {
+            Input next = audioInput.clusterHeader == null
+                    || (videoInput.clusterHeader != null && videoInput.timecode <= audioInput.timecode)
+                    ? videoInput
+                    : audioInput;
+            next.writeCluster(out);
+            next.nextCluster();
+        }
+        out.flush();
+    }
+
+    private static void separateUids(byte[] videoEntry, byte[] audioEntry) throws IOException {
+        Element videoUid = child(videoEntry, TRACK_UID_ID);
+        Element audioUid = child(audioEntry, TRACK_UID_ID);
+        if (videoUid != null && audioUid != null
+                && readUnsigned(videoEntry, videoUid) == readUnsigned(audioEntry, audioUid)) {
+            audioEntry[audioUid.dataOffset + audioUid.size - 1] ^= 1;
+        }
+    }
+
+    private static void setDuration(byte[] info, double duration) throws IOException {
+        Element element = child(info, DURATION_ID);
+        if (element == null || duration < 0) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(info);
+        if (element.size == 4) {
+            buffer.putFloat(element.dataOffset, (float) duration);
+        } else if (element.size == 8) {
+            buffer.putDouble(element.dataOffset, duration);
+        }
+    }
+
+    private static Element child(byte[] master, long id) throws IOException {
+        for (Element element : children(master)) {
+            if (element.id == id) {
+                return element;
+            }
+        }
+        return null;
+    }
+
+    //children of a master element read into memory together with its header
+    private static List<Element> children(byte[] master) throws IOException {
+        List<Element> elements = new ArrayList<>();
+        int offset = vintLength(master[0]);
+        offset += vintLength(master[offset]);
+        while (offset < master.length) {
+            int idLength = vintLength(master[offset]);
+            int sizeLength = vintLength(master[offset + idLength]);
+            long id = readVint(master, offset, idLength, true);
+            long size = readVint(master, offset + idLength, sizeLength, false);
+            int dataOffset = offset + idLength + sizeLength;
+            if (size < 0 || dataOffset + size > master.length) {
+                throw new IOException("Malformed EBML element at " + offset);
+            }
+            elements.add(new Element(id, dataOffset, (int) size));
+            offset = dataOffset + (int) size;
+        }
+        return elements;
+    }
+
+    private static long readUnsigned(byte[] data, Element element) {
+        long value = 0;
+        for (int i = 0; i < element.size; i++) {
+            value = (value << 8) | (data[element.dataOffset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    private static int vintLength(byte first) throws IOException {
+        int length = Integer.numberOfLeadingZeros(first & 0xFF) - 23;
+        if (length > 8) {
+            throw new IOException("Malformed EBML variable size integer");
+        }
+        return length;
+    }
+
+    //returns -1 for the reserved value of unknown size
+    private static long readVint(byte[] data, int offset, int length, boolean keepMarker) {
+        long value = keepMarker ? data[offset] & 0xFF : data[offset] & (0xFF >> length);
+        boolean allOnes = value == (0xFF >> length);
+        for (int i = 1; i < length; i++) {
+            value = (value << 8) | (data[offset + i] & 0xFF);
+            allOnes &= (data[offset + i] & 0xFF) == 0xFF;
+        }
+        return !keepMarker && allOnes ? -1 : value;
+    }
+
+    private static byte[] id(long id) {
+        int length = id > 0xFFFFFF ? 4 : id > 0xFFFF ? 3 : id > 0xFF ? 2 : 1;
+        byte[] bytes = new byte[length];
+        for (int i = length - 1; i >= 0; i--, id >>= 8) {
+            bytes[i] = (byte) id;
+        }
+        return bytes;
+    }
+
+    private static byte[] size(long size) {
+        byte[] bytes = new byte[8];
+        bytes[0] = 0x01;
+        for (int i = 7; i > 0; i--, size >>= 8) {
+            bytes[i] = (byte) size;
+        }
+        return bytes;
+    }
+
+    private static final class Element {
+        private final long id;
+        private final int dataOffset;
+        private final int size;
+
+        private Element(long id, int dataOffset, int size) {
+            this.id = id;
+            this.dataOffset = dataOffset;
+            this.size = size;
+        }
+    }
+
+    private static final class Header {
+        private final long id;
+        private final long size;
+        private final byte[] raw;
+
+        private Header(long id, long size, byte[] raw) {
+            this.id = id;
+            this.size = size;
+            this.raw = raw;
+        }
+    }
+
+    private static final class Input {
+        private final DataInputStream in;
+        private final int trackNumber;
+        private final byte[] buffer = new byte[1024 * 64];
+        private long position = 0;
+        private long segmentEnd = -1;
+        private byte[] ebml;
+        private byte[] info;
+        private byte[] trackEntry;
+        private long timecodeScale = DEFAULT_TIMECODE_SCALE;
+        private double duration = -1;
+        private Header pendingHeader = null;
+        private byte[] clusterHeader = null;
+        private byte[] clusterPrefix;
+        private long clusterRemaining;
+        private long timecode;
+
+        private Input(InputStream in, int trackNumber) {
+            this.in = new DataInputStream(in);
+            this.trackNumber = trackNumber;
+        }
+
+        private void readHeader() throws IOException {
+            Header header = nextHeader();
+            if (header == null || header.id != EBML_ID) {
+                throw new IOException("EBML header not found");
+            }
+            ebml = readElement(header);
+            header = nextHeader();
+            if (header == null || header.id != SEGMENT_ID) {
+                throw new IOException("Segment not found");
+            }
+            segmentEnd = header.size < 0 ? -1 : position + header.size;
+            while ((header = nextHeader()) != null) {
+                if (header.id == INFO_ID) {
+                    info = readElement(header);
+                    readInfo();
+                } else if (header.id == TRACKS_ID) {
+                    readTracks(readElement(header));
+                } else if (header.id == CLUSTER_ID) {
+                    pendingHeader = header;
+                    break;
+                } else {
+                    skipElement(header);
+                }
+            }
+            if (info == null || trackEntry == null) {
+                throw new IOException("Info or Tracks not found");
+            }
+        }
+
+        private void readInfo() throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(info);
+            for (Element element : children(info)) {
+                if (element.id == TIMECODE_SCALE_ID) {
+                    timecodeScale = readUnsigned(info, element);
+                } else if (element.id == DURATION_ID) {
+                    duration = element.size == 4 ? buffer.getFloat(element.dataOffset) : buffer.getDouble(element.dataOffset);
+                }
+            }
+        }
+
+        private void readTracks(byte[] tracks) throws IOException {
+            List<Element> entries = new ArrayList<>();
+            for (Element element : children(tracks)) {
+                if (element.id == TRACK_ENTRY_ID) {
+                    entries.add(element);
+                }
+            }
+            if (entries.size() != 1) {
+                throw new IOException("Only streams with one track can be muxed");
+            }
+            Element entry = entries.get(0);
+            int headerLength = id(TRACK_ENTRY_ID).length + 8;
+            ByteArrayOutputStream out = new ByteArrayOutputStream(headerLength + entry.size);
+            out.write(id(TRACK_ENTRY_ID));
+            out.write(size(entry.size));
+            out.write(tracks, entry.dataOffset, entry.size);
+            trackEntry = out.toByteArray();
+            Element number = child(trackEntry, TRACK_NUMBER_ID);
+            if (number == null || number.size == 0) {
+                throw new IOException("TrackNumber not found");
+            }
+            //the width of the number is kept, so sizes of the parents don't change
+            for (int i = number.size - 1, value = trackNumber; i >= 0; i--, value >>= 8) {
+                trackEntry[number.dataOffset + i] = (byte) value;
+            }
+        }
+
+        private void nextCluster() throws IOException {
+            clusterHeader = null;
+            Header header = pendingHeader;
+            pendingHeader = null;
+            while (header != null || (header = nextHeader()) != null) {
+                if (header.id == CLUSTER_ID) {
+                    startCluster(header);
+                    return;
+                }
+                skipElement(header);
+                header = null;
+            }
+        }
+
+        //the timecode of a cluster is read ahead to choose which cluster is written next
+        private void startCluster(Header header) throws IOException {
+            if (header.size < 0) {
+                throw new IOException("Clusters of unknown size are not supported");
+            }
+            ByteArrayOutputStream prefix = new ByteArrayOutputStream();
+            long remaining = header.size;
+            while (true) {
+                if (remaining <= 0) {
+                    throw new IOException("Cluster without timecode");
+                }
+                Header child = nextHeader();
+                if (child == null || child.size < 0) {
+                    throw new EOFException("Cluster ended before its size");
+                }
+                if (child.id == SIMPLE_BLOCK_ID || child.id == BLOCK_GROUP_ID) {
+                    throw new IOException("Cluster timecode must precede blocks");
+                }
+                byte[] element = readElement(child);
+                prefix.write(element);
+                remaining -= element.length;
+                if (child.id == TIMECODE_ID) {
+                    timecode = readUnsigned(element, new Element(TIMECODE_ID, child.raw.length, (int) child.size));
+                    break;
+                }
+            }
+            clusterHeader = header.raw;
+            clusterPrefix = prefix.toByteArray();
+            clusterRemaining = remaining;
+        }
+
+        private void writeCluster(OutputStream out) throws IOException {
+            out.write(clusterHeader);
+            out.write(clusterPrefix);
+            long remaining = clusterRemaining;
+            while (remaining > 0) {
+                Header child = nextHeader();
+                if (child == null || child.size < 0) {
+                    throw new EOFException("Cluster ended before its size");
+                }
+                remaining -= child.raw.length + child.size;
+                if (child.id == SIMPLE_BLOCK_ID) {
+                    writeBlock(out, child);
+                } else if (child.id == BLOCK_GROUP_ID) {
+                    out.write(child.raw);
+                    long groupRemaining = child.size;
+                    while (groupRemaining > 0) {
+                        Header groupChild = nextHeader();
+                        if (groupChild == null || groupChild.size < 0) {
+                            throw new EOFException("BlockGroup ended before its size");
+                        }
+                        groupRemaining -= groupChild.raw.length + groupChild.size;
+                        if (groupChild.id == BLOCK_ID) {
+                            writeBlock(out, groupChild);
+                        } else {
+                            out.write(groupChild.raw);
+                            copy(out, groupChild.size);
+                        }
+                    }
+                } else {
+                    out.write(child.raw);
+                    copy(out, child.size);
+                }
+            }
+        }
+
+        //a block starts with the track number, it is rewritten with the same width
+        private void writeBlock(OutputStream out, Header header) throws IOException {
+            out.write(header.raw);
+            int first = read();
+            int length = vintLength((byte) first);
+            readFully(buffer, 1, length - 1);
+            long value = trackNumber | (1L << (7 * length));
+            for (int i = length - 1; i >= 0; i--, value >>= 8) {
+                buffer[i] = (byte) value;
+            }
+            out.write(buffer, 0, length);
+            copy(out, header.size - length);
+        }
+
+        private Header nextHeader() throws IOException {
+            if (segmentEnd >= 0 && position >= segmentEnd) {
+                return null;
+            }
+            int first = in.read();
+            if (first < 0) {
+                return null;
+            }
+            position++;
+            byte[] raw = new byte[12];
+            raw[0] = (byte) first;
+            int idLength = vintLength(raw[0]);
+            if (idLength > 4) {
+                throw new IOException("Malformed EBML element id");
+            }
+            readFully(raw, 1, idLength - 1);
+            raw[idLength] = (byte) read();
+            int sizeLength = vintLength(raw[idLength]);
+            readFully(raw, idLength + 1, sizeLength - 1);
+            byte[] header = new byte[idLength + sizeLength];
+            System.arraycopy(raw, 0, header, 0, header.length);
+            return new Header(readVint(header, 0, idLength, true), readVint(header, idLength, sizeLength, false), header);
+        }
+
+        private byte[] readElement(Header header) throws IOException {
+            if (header.size < 0 || header.size > Integer.MAX_VALUE - header.raw.length) {
+                throw new IOException("Element is too large or has unknown size");
+            }
+            byte[] element = new byte[header.raw.length + (int) header.size];
+            System.arraycopy(header.raw, 0, element, 0, header.raw.length);
+            readFully(element, header.raw.length, (int) header.size);
+            return element;
+        }
+
+        private void skipElement(Header header) throws IOException {
+            if (header.size < 0) {
+                throw new IOException("Elements of unknown size are not supported");
+            }
+            copy(null, header.size);
+        }
+
+        private void copy(OutputStream out, long count) throws IOException {
+            while (count > 0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, count));
+                if (read < 0) {
+                    throw new EOFException();
+                }
+                position += read;
+                count -= read;
+                if (out != null) {
+                    out.write(buffer, 0, read);
+                }
+            }
+        }
+
+        private int read() throws IOException {
+            int read = in.read();
+            if (read < 0) {
+                throw new EOFException();
+            }
+            position++;
+            return read;
+        }
+
+        private void readFully(byte[] data, int offset, int length) throws IOException {
+            in.readFully(data, offset, length);
+            position += length;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package io.github.x45iq.jtube;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BandwidthLimiterTest {
+
+    @Test
+    void parallelReadersShareTheRate() throws InterruptedException {
+        BandwidthLimiter limiter = new BandwidthLimiter(200_000);
+        CountDownLatch never = new CountDownLatch(1);
+        long start = System.nanoTime();
+        List<Thread> readers = readers(4, () -> {
+            for (int i = 0; i < 10; i++) {
+                limiter.acquire(15_000, never);
+            }
+        });
+        join(readers, 5000);
+        //the full bucket pays for the first second
+        long mils = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(mils >= 1800 && mils <= 2500, String.valueOf(mils));
+    }
+
+    @Test
+    void readLargerThanBurstIsPaidInParts() throws InterruptedException {
+        BandwidthLimiter limiter = new BandwidthLimiter(100_000);
+        long start = System.nanoTime();
+        assertTrue(limiter.acquire(250_000, new CountDownLatch(1)));
+        long mils = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(mils >= 1400 && mils <= 1900, String.valueOf(mils));
+    }
+
+    @Test
+    void abortReleasesOnlyReadersOfItsJob() throws InterruptedException {
+        //one limiter shared by two jobs as by downloads of an engine with a global limit
+        BandwidthLimiter limiter = new BandwidthLimiter(20_000);
+        CountDownLatch firstAbort = new CountDownLatch(1);
+        CountDownLatch secondAbort = new CountDownLatch(1);
+        AtomicLong paid = new AtomicLong();
+        List<Thread> first = readers(8, () -> {
+            while (limiter.acquire(65_536, firstAbort)) {
+                paid.addAndGet(65_536);
+            }
+        });
+        List<Thread> second = readers(8, () -> {
+            while (limiter.acquire(65_536, secondAbort)) {
+                paid.addAndGet(65_536);
+            }
+        });
+        Thread.sleep(500);
+        firstAbort.countDown();
+        join(first, 200);
+        assertTrue(second.stream().allMatch(Thread::isAlive));
+        secondAbort.countDown();
+        join(second, 200);
+        //the full bucket and half a second of tokens don't pay off a whole read
+        assertEquals(0, paid.get());
+    }
+
+    private interface Reader {
+        void read() throws InterruptedException;
+    }
+
+    private static List<Thread> readers(int count, Reader reader) {
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    reader.read();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        return threads;
+    }
+
+    private static void join(List<Thread> threads, long timeoutMils) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMils);
+        for (Thread thread : threads) {
+            thread.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+            assertFalse(thread.isAlive());
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package io.github.x45iq.jtube;
+
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChunkPublisherTest {
+    private static final byte[] DATA = RangeServer.bytes(300_000);
+
+    @Test
+    void chunksAreEmittedOnlyOnDemand() throws InterruptedException {
+        try (DownloadEngine engine = engine()) {
+            OneByOneSubscriber subscriber = new OneByOneSubscriber(Long.MAX_VALUE);
+            publisher(engine, false).subscribe(subscriber);
+            subscriber.subscription.request(1);
+            assertTrue(subscriber.received(1));
+            Thread.sleep(200);
+            assertEquals(1, subscriber.chunks.size());
+            subscriber.subscription.request(2);
+            assertTrue(subscriber.received(3));
+            Thread.sleep(200);
+            assertEquals(3, subscriber.chunks.size());
+            subscriber.requestOnNext = true;
+            subscriber.subscription.request(1);
+            assertTrue(subscriber.terminated.await(5, TimeUnit.SECONDS));
+            assertTrue(subscriber.completed);
+            assertNull(subscriber.error);
+            assertArrayEquals(DATA, subscriber.data());
+        }
+    }
+
+    @Test
+    void cancelDuringBlockedWriteStopsDownload() throws InterruptedException {
+        try (DownloadEngine engine = engine()) {
+            OneByOneSubscriber subscriber = new OneByOneSubscriber(2);
+            subscriber.requestOnNext = true;
+            publisher(engine, false).subscribe(subscriber);
+            subscriber.subscription.request(1);
+            assertTrue(subscriber.received(2));
+            //the only worker waits for demand inside the write until the subscription is cancelled
+            Thread.sleep(200);
+            assertEquals(2, subscriber.chunks.size());
+            assertFalse(subscriber.terminated.await(200, TimeUnit.MILLISECONDS));
+            assertDownloads(engine);
+        }
+    }
+
+    @Test
+    void nonPositiveRequestSignalsError() throws InterruptedException {
+        try (DownloadEngine engine = engine()) {
+            OneByOneSubscriber subscriber = new OneByOneSubscriber(Long.MAX_VALUE);
+            publisher(engine, false).subscribe(subscriber);
+            subscriber.subscription.request(0);
+            assertTrue(subscriber.terminated.await(5, TimeUnit.SECONDS));
+            assertInstanceOf(IllegalArgumentException.class, subscriber.error);
+            assertTrue(subscriber.chunks.isEmpty());
+            assertDownloads(engine);
+        }
+    }
+
+    @Test
+    void startFailureSignalsIOException() throws InterruptedException {
+        try (DownloadEngine engine = engine()) {
+            //the stream has no segment index, so the clip can't be planned
+            OneByOneSubscriber subscriber = new OneByOneSubscriber(Long.MAX_VALUE);
+            publisher(engine, true).subscribe(subscriber);
+            assertTrue(subscriber.terminated.await(5, TimeUnit.SECONDS));
+            assertInstanceOf(IOException.class, subscriber.error);
+            assertFalse(subscriber.error instanceof UncheckedIOException);
+        }
+    }
+
+    private static DownloadEngine engine() {
+        return new DownloadEngine.Builder().workersCount(1).transport(new FakeTransport(DATA)).build();
+    }
+
+    private static Publisher<ByteBuffer> publisher(DownloadEngine engine, boolean clip) {
+        StreamingDataDownloader.Builder builder = new StreamingDataDownloader.Builder()
+                .streamingData(new AudioStreamingData("https://host/videoplayback?id=1", DATA.length,
+                        new AudioTrack(128000, 44100, null, AudioFormat.F_M4A, "mp4a")))
+                .engine(engine)
+                .threadsCount(1);
+        if (clip) {
+            builder.clip(0, 1000);
+        }
+        return builder.build().publisher();
+    }
+
+    //the only worker of the engine must be free again
+    private static void assertDownloads(DownloadEngine engine) throws InterruptedException {
+        OneByOneSubscriber next = new OneByOneSubscriber(Long.MAX_VALUE);
+        next.requestOnNext = true;
+        publisher(engine, false).subscribe(next);
+        next.subscription.request(1);
+        assertTrue(next.terminated.await(5, TimeUnit.SECONDS));
+        assertArrayEquals(DATA, next.data());
+    }
+
+    //asks for one more chunk after every chunk if requestOnNext is set, cancels after the limit of chunks
+    private static final class OneByOneSubscriber implements Subscriber<ByteBuffer> {
+        private final long limit;
+        private final List<ByteBuffer> chunks = new CopyOnWriteArrayList<>();
+        private final CountDownLatch terminated = new CountDownLatch(1);
+        private volatile Subscription subscription;
+        private volatile boolean requestOnNext = false;
+        private volatile boolean completed = false;
+        private volatile Throwable error;
+
+        private OneByOneSubscriber(long limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(ByteBuffer chunk) {
+            chunks.add(chunk);
+            if (chunks.size() == limit) {
+                subscription.cancel();
+            } else if (requestOnNext) {
+                subscription.request(1);
+            }
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            error = e;
+            terminated.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+            terminated.countDown();
+        }
+
+        private boolean received(int count) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (chunks.size() < count && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            return chunks.size() >= count;
+        }
+
+        private byte[] data() {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            for (ByteBuffer chunk : chunks) {
+                byte[] bytes = new byte[chunk.remaining()];
+                chunk.duplicate().get(bytes);
+                out.write(bytes, 0, bytes.length);
+            }
+            return out.toByteArray();
+        }
+    }
+}
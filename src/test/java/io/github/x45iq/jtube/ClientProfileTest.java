@@ -0,0 +1,126 @@
+package io.github.x45iq.jtube;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClientProfileTest {
+    private static final String URL = "https://www.youtube.com/watch?v=dQw4w9WgXcQ";
+    private static final ClientProfile TV = new ClientProfile.Builder()
+            .clientName("TVHTML5")
+            .clientVersion("7.20240101")
+            .clientId(7)
+            .build();
+
+    @Test
+    void profileWithVersionNeedsNoPageContext() {
+        JsonObject client = PlayerApiTools.context(ClientProfile.ANDROID, null).getAsJsonObject("client");
+        assertEquals("ANDROID", client.get("clientName").getAsString());
+        assertEquals("19.09.37", client.get("clientVersion").getAsString());
+        assertEquals(30, client.get("androidSdkVersion").getAsInt());
+        assertEquals("en", client.get("hl").getAsString());
+    }
+
+    @Test
+    void cipheredFormatsAreNotDirect() throws IOException {
+        assertTrue(PlayerApiTools.hasDirectUrls(JsonParser.parseString(fixture("android")).getAsJsonObject()));
+        assertFalse(PlayerApiTools.hasDirectUrls(JsonParser.parseString(fixture("web_ciphered")).getAsJsonObject()));
+    }
+
+    @Test
+    void firstProfileWithPlainUrlsWins() throws IOException, NoAccessException {
+        FixtureTransport transport = new FixtureTransport();
+        Video video = new VideoParser.Builder()
+                .transport(transport)
+                .innerTube(true)
+                .clientProfiles(ClientProfile.IOS, TV, ClientProfile.ANDROID)
+                .build()
+                .parse(URL);
+        assertEquals(3, transport.clients.size());
+        assertEquals("ANDROID", transport.clients.get(2));
+        assertEquals(1, video.audioStreamingData().size());
+        assertTrue(video.audioStreamingData().get(0).url().contains("c=ANDROID"));
+        assertEquals(1, video.videoStreamingData().size());
+        assertEquals(1, video.hybridStreamingData().size());
+    }
+
+    private static String fixture(String name) throws IOException {
+        try (InputStream in = ClientProfileTest.class.getResourceAsStream(String.format("player/%s.json", name))) {
+            assertNotNull(in, name);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    //answers player api requests with recorded responses of the requested client, any other request fails the test
+    private static final class FixtureTransport implements HttpTransport {
+        private final List<String> clients = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public Response execute(Request request) throws IOException {
+            assertEquals("POST", request.method());
+            assertTrue(request.url().contains(PlayerApiTools.PLAYER_API_URL));
+            JsonObject post = JsonParser.parseString(new String(request.body().orElse(new byte[0]), StandardCharsets.UTF_8)).getAsJsonObject();
+            String client = post.getAsJsonObject("context").getAsJsonObject("client").get("clientName").getAsString();
+            clients.add(client);
+            switch (client) {
+                case "IOS":
+                    return response(fixture("ios_login_required"), request.headers());
+                case "TVHTML5":
+                    return response(fixture("web_ciphered"), request.headers());
+                case "ANDROID":
+                    return response(fixture("android"), request.headers());
+                default:
+                    throw new IOException("unexpected client " + client);
+            }
+        }
+
+        private static Response response(String body, Map<String, String> headers) {
+            assertNotNull(headers.get("X-YouTube-Client-Name"));
+            return new Response() {
+                @Override
+                public int status() {
+                    return 200;
+                }
+
+                @Override
+                public Optional<String> header(String name) {
+                    return Optional.empty();
+                }
+
+                @Override
+                public InputStream body() {
+                    return new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+                }
+
+                @Override
+                public void abort() {
+
+                }
+
+                @Override
+                public void close() {
+
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package io.github.x45iq.jtube;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConcurrencyControllerTest {
+    @Test
+    void growsWhileThroughputRises() {
+        ConcurrencyController controller = new ConcurrencyController(2, 40, 1000);
+        controller.update(0, 0, 0);
+        controller.update(1000, 0, 1000);
+        assertEquals(4, controller.limit());
+        controller.update(3000, 0, 2000);
+        assertEquals(8, controller.limit());
+        controller.update(5000, 0, 3000);
+        assertEquals(8, controller.limit());
+        controller.update(8000, 0, 4000);
+        assertEquals(9, controller.limit());
+    }
+
+    @Test
+    void backsOffOnCongestionAndFallingThroughput() {
+        ConcurrencyController controller = new ConcurrencyController(2, 40, 1000);
+        controller.update(0, 0, 0);
+        controller.update(1000, 0, 1000);
+        controller.update(3000, 0, 2000);
+        controller.update(7000, 0, 3000);
+        assertEquals(16, controller.limit());
+        controller.update(11000, 1, 4000);
+        assertEquals(8, controller.limit());
+        controller.update(12000, 1, 5000);
+        assertEquals(6, controller.limit());
+        controller.update(12000, 5, 6000);
+        controller.update(12000, 9, 7000);
+        assertEquals(2, controller.limit());
+    }
+
+    @Test
+    void fixedLimitNeverChanges() {
+        ConcurrencyController controller = ConcurrencyController.fixed(10);
+        controller.update(0, 0, 0);
+        controller.update(1000, 0, 1000);
+        controller.update(0, 5, 2000);
+        assertEquals(10, controller.limit());
+    }
+}
@@ -0,0 +1,48 @@
+package io.github.x45iq.jtube;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DecipherProgramTest {
+    private static final String CODE = "var Zz=function(a){a=a.split(\"\");Xy.cd(a,1);Xy.ab(a,2);Xy.ef(a,3);return a.join(\"\")};"
+            + "var Xy={ab:function(a,b){a.splice(0,b)},cd:function(a){a.reverse()},"
+            + "ef:function(a,b){var c=a[0];a[0]=a[b%a.length];a[b%a.length]=c}};";
+
+    @Test
+    void compiledOnceAndSharedByPlayerVersion() throws JTubeException {
+        DecipherProgram program = DecipherProgram.compile("/s/player/1a2b3c4d/player_ias.vflset/en_US/base.js", "Zz", CODE);
+        assertEquals("bdcea", program.decipher("abcdefg"));
+        assertSame(program, DecipherProgram.cached("/s/player/1a2b3c4d/player_ias.vflset/de_DE/base.js").orElse(null));
+        assertFalse(DecipherProgram.cached("/s/player/99999999/player_ias.vflset/en_US/base.js").isPresent());
+    }
+
+    @Test
+    void callableFromManyThreads() throws Exception {
+        DecipherProgram program = DecipherProgram.compile("/s/player/5e6f7a8b/base.js", "Zz", CODE);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                results.add(executor.submit(() -> program.decipher("abcdefg")));
+            }
+            for (Future<String> result : results) {
+                assertEquals("bdcea", result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void missingFunctionFails() {
+        assertThrows(JTubeException.class, () -> DecipherProgram.compile("/s/player/0c0c0c0c/base.js", "Yy", CODE));
+        assertThrows(JTubeException.class, () -> DecipherProgram.compile("/s/player/0d0d0d0d/base.js", "Zz", "var Zz=function(a){"));
+    }
+}
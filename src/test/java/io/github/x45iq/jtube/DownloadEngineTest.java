@@ -0,0 +1,100 @@
+package io.github.x45iq.jtube;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DownloadEngineTest {
+    private static final byte[] DATA = RangeServer.bytes(40_000);
+    @TempDir
+    File folder;
+    private RangeServer server;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = new RangeServer();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.close();
+    }
+
+    @Test
+    void workersAreSharedInProportionToPriorities() throws Exception {
+        try (DownloadEngine engine = new DownloadEngine.Builder().workersCount(1).build()) {
+            //the only worker is held by the first packet until both downloads are waiting for it
+            server.stall(0);
+            List<Thread> downloads = new ArrayList<>();
+            List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+            for (String id : new String[]{"low", "high"}) {
+                StreamingDataDownloader downloader = new StreamingDataDownloader.Builder()
+                        .streamingData(new AudioStreamingData(server.stream(id, DATA), DATA.length, new AudioTrack(128000, 44100, null, AudioFormat.F_M4A, "mp4a")))
+                        .folder(folder)
+                        .fileName(id)
+                        .engine(engine)
+                        .priority(id.equals("low") ? 1 : 3)
+                        .packetSize(1000)
+                        .progressCallback(progress -> {
+                        })
+                        .build();
+                Thread thread = new Thread(() -> {
+                    try {
+                        downloader.download();
+                    } catch (Throwable e) {
+                        errors.add(e);
+                    }
+                });
+                thread.start();
+                downloads.add(thread);
+                if (id.equals("low")) {
+                    assertTrue(server.awaitStalled());
+                }
+            }
+            Thread.sleep(500);
+            server.release();
+            for (Thread thread : downloads) {
+                thread.join(10_000);
+            }
+            assertTrue(errors.isEmpty(), errors.toString());
+            //after the held packet the worker takes one packet of the low priority download per three of the high one
+            List<String> ids = server.ids().subList(1, 33);
+            assertEquals(8, Collections.frequency(ids, "low"), ids.toString());
+            assertEquals(24, Collections.frequency(ids, "high"), ids.toString());
+        }
+    }
+
+    @Test
+    void workersAreVirtualOnlyWhereAvailable() throws Exception {
+        String version = System.getProperty("java.specification.version");
+        boolean available = !version.startsWith("1.") && Integer.parseInt(version) >= 21;
+        for (boolean virtualThreads : new boolean[]{true, false}) {
+            try (DownloadEngine engine = new DownloadEngine.Builder().workersCount(2).virtualThreads(virtualThreads).build()) {
+                assertEquals(virtualThreads && available, engine.isVirtual());
+                assertEquals(2, engine.workersCount());
+                //the fallback to platform threads downloads the same way
+                File file = new StreamingDataDownloader.Builder()
+                        .streamingData(new AudioStreamingData(server.stream(String.valueOf(virtualThreads), DATA), DATA.length, new AudioTrack(128000, 44100, null, AudioFormat.F_M4A, "mp4a")))
+                        .folder(folder)
+                        .fileName(String.valueOf(virtualThreads))
+                        .engine(engine)
+                        .packetSize(1000)
+                        .progressCallback(progress -> {
+                        })
+                        .build()
+                        .download();
+                assertArrayEquals(DATA, Files.readAllBytes(file.toPath()));
+            }
+        }
+    }
+}
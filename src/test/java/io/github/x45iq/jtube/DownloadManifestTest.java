@@ -0,0 +1,61 @@
+package io.github.x45iq.jtube;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DownloadManifestTest {
+    private static final String URL = "https://rr1.googlevideo.com/videoplayback?expire=1&id=o-abc&itag=251&sig=one";
+
+    @Test
+    void missingSpansSkipCompletedBlocks(@TempDir File folder) {
+        DownloadManifest manifest = DownloadManifest.create(new File(folder, "a.webm"), new File(folder, "a.webm"), URL, 1050, 100);
+        manifest.complete(0, 200);
+        manifest.complete(500, 700);
+        manifest.complete(1000, 1050);
+        List<PacketPlanner.Packet> missing = manifest.missing();
+        assertEquals(2, missing.size());
+        assertEquals(200, missing.get(0).start);
+        assertEquals(500, missing.get(0).end);
+        assertEquals(700, missing.get(1).start);
+        assertEquals(1000, missing.get(1).end);
+        assertEquals(450, manifest.completedBytes());
+    }
+
+    @Test
+    void savedManifestMatchesResignedUrl(@TempDir File folder) throws IOException {
+        File exportFile = new File(folder, "a.webm");
+        DownloadManifest manifest = DownloadManifest.create(exportFile, exportFile, URL, 1050, 100);
+        manifest.complete(100, 300);
+        manifest.save();
+
+        DownloadManifest loaded = DownloadManifest.load(exportFile).orElseThrow(AssertionError::new);
+        assertTrue(loaded.matches("https://rr5.googlevideo.com/videoplayback?expire=2&id=o-abc&itag=251&sig=two", 1050));
+        assertFalse(loaded.matches("https://rr5.googlevideo.com/videoplayback?expire=2&id=o-abc&itag=140&sig=two", 1050));
+        assertFalse(loaded.matches(URL, 1051));
+        assertEquals(200, loaded.completedBytes());
+        assertEquals(exportFile, loaded.exportFile());
+    }
+
+    @Test
+    void manifestIsFoundByTargetOfRenamedExportFile(@TempDir File folder) throws IOException {
+        File target = new File(folder, "a.webm");
+        File exportFile = new File(folder, "a(0).webm");
+        DownloadManifest.create(target, exportFile, URL, 1050, 100).save();
+
+        assertTrue(new File(folder, "a.webm.jtube").exists());
+        assertFalse(DownloadManifest.load(exportFile).isPresent());
+        assertEquals(exportFile, DownloadManifest.load(target).orElseThrow(AssertionError::new).exportFile());
+    }
+
+    @Test
+    void resumeFileName() {
+        assertEquals("jtube_o-abc_251", DownloadManifest.resumeFileName(URL).orElse(null));
+        assertFalse(DownloadManifest.resumeFileName("https://example.com/file").isPresent());
+    }
+}
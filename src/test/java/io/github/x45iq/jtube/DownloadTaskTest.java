@@ -0,0 +1,93 @@
+package io.github.x45iq.jtube;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DownloadTaskTest {
+    @Test
+    void cancelAbortsPacketStalledMidBody(@TempDir File folder) throws IOException, InterruptedException {
+        CountDownLatch stalled = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", exchange -> {
+            exchange.getResponseHeaders().add("Content-Range", "bytes 0-999/1000");
+            exchange.sendResponseHeaders(206, 1000);
+            OutputStream out = exchange.getResponseBody();
+            out.write(new byte[100]);
+            out.flush();
+            stalled.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ignored) {
+                //the test is over
+            }
+            exchange.close();
+        });
+        server.start();
+        HttpTransport transport = new PooledHttpTransport.Builder().readTimeoutMils(30000).build();
+        try (DownloadEngine engine = new DownloadEngine.Builder().workersCount(1).transport(transport).build()) {
+            String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/videoplayback?id=1";
+            DownloadTask<File> task = new StreamingDataDownloader.Builder()
+                    .streamingData(new AudioStreamingData(url, 1000, new AudioTrack(128000, 44100, null, AudioFormat.F_M4A, "mp4a")))
+                    .folder(folder)
+                    .engine(engine)
+                    .threadsCount(1)
+                    .build()
+                    .downloadAsync();
+            assertTrue(stalled.await(5, TimeUnit.SECONDS));
+            //the worker is blocked reading the rest of the body
+            Thread.sleep(200);
+            long start = System.nanoTime();
+            task.cancel();
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+            assertTimeoutPreemptively(Duration.ofSeconds(2), task::awaitReleased);
+            assertTrue(task.future().isCancelled());
+            assertEquals(0, folder.list().length);
+        } finally {
+            release.countDown();
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void cancelReleasesWorkersWaitingForBandwidth(@TempDir File folder) throws Exception {
+        byte[] data = RangeServer.bytes(1_000_000);
+        try (RangeServer server = new RangeServer()) {
+            String url = server.stream("1", data);
+            //limited per download and by the engine for all its downloads
+            for (boolean global : new boolean[]{false, true}) {
+                BandwidthLimiter limiter = new BandwidthLimiter(20_000);
+                try (DownloadEngine engine = new DownloadEngine.Builder().workersCount(8).bandwidthLimiter(global ? limiter : null).build()) {
+                    DownloadTask<File> task = new StreamingDataDownloader.Builder()
+                            .streamingData(new AudioStreamingData(url, data.length, new AudioTrack(128000, 44100, null, AudioFormat.F_M4A, "mp4a")))
+                            .folder(folder)
+                            .engine(engine)
+                            .bandwidthLimiter(global ? null : limiter)
+                            .threadsCount(8)
+                            .build()
+                            .downloadAsync();
+                    //every worker has read a buffer and waits to pay for it
+                    Thread.sleep(500);
+                    long start = System.nanoTime();
+                    task.cancel();
+                    assertTimeoutPreemptively(Duration.ofSeconds(1), task::awaitReleased);
+                    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+                    assertTrue(task.future().isCancelled());
+                }
+            }
+        }
+    }
+}
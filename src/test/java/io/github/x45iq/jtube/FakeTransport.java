@@ -0,0 +1,186 @@
+package io.github.x45iq.jtube;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+//in-memory HttpTransport answering ranges of streams with 206 as googlevideo does,
+//the handler may answer any request in its own way by returning a response instead of null
+final class FakeTransport implements HttpTransport {
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d+)");
+    private final Function<String, byte[]> streams;
+    private final Function<Request, Response> handler;
+    private final List<Request> requests = Collections.synchronizedList(new ArrayList<>());
+
+    FakeTransport(byte[] data) {
+        this(data, request -> null);
+    }
+
+    FakeTransport(byte[] data, Function<Request, Response> handler) {
+        this(url -> data, handler);
+    }
+
+    //streams by url
+    FakeTransport(Map<String, byte[]> streams, Function<Request, Response> handler) {
+        this(streams::get, handler);
+    }
+
+    private FakeTransport(Function<String, byte[]> streams, Function<Request, Response> handler) {
+        this.streams = streams;
+        this.handler = handler;
+    }
+
+    List<Request> requests() {
+        synchronized (requests) {
+            return new ArrayList<>(requests);
+        }
+    }
+
+    @Override
+    public Response execute(Request request) throws IOException {
+        requests.add(request);
+        Response response = handler.apply(request);
+        if (response != null) {
+            return response;
+        }
+        byte[] data = streams.apply(request.url());
+        if (data == null) {
+            return new FakeResponse(404, new ByteArrayInputStream(new byte[0]));
+        }
+        return range(request, new ByteArrayInputStream(data, (int) start(request), length(request)));
+    }
+
+    //a 206 response for the range of the request with the given body
+    FakeResponse range(Request request, InputStream body) {
+        byte[] data = streams.apply(request.url());
+        long start = start(request);
+        int length = length(request);
+        return new FakeResponse(206, body)
+                .header("Content-Range", String.format("bytes %s-%s/%s", start, start + length - 1, data.length))
+                .header("Content-Length", String.valueOf(length));
+    }
+
+    static long start(Request request) {
+        return range(request)[0];
+    }
+
+    private int length(Request request) {
+        byte[] data = streams.apply(request.url());
+        long[] range = range(request);
+        return (int) (Math.min(range[1], data.length - 1) - range[0] + 1);
+    }
+
+    private static long[] range(Request request) {
+        Matcher matcher = RANGE.matcher(request.headers().getOrDefault("Range", ""));
+        if (!matcher.matches()) {
+            return new long[]{0, Long.MAX_VALUE - 1};
+        }
+        return new long[]{Long.parseLong(matcher.group(1)), Long.parseLong(matcher.group(2))};
+    }
+
+    //gives the first bytes, then blocks until the response is aborted, as a connection stalled by the server
+    static InputStream stalled(byte[] data, int offset, int length) {
+        return new InputStream() {
+            private final CountDownLatch aborted = new CountDownLatch(1);
+            private int position = offset;
+
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (position < offset + length) {
+                    int read = Math.min(len, offset + length - position);
+                    System.arraycopy(data, position, b, off, read);
+                    position += read;
+                    return read;
+                }
+                try {
+                    aborted.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new IOException("connection aborted");
+            }
+
+            @Override
+            public void close() {
+                aborted.countDown();
+            }
+        };
+    }
+
+    static final class FakeResponse implements Response {
+        private final int status;
+        private final InputStream body;
+        private final Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+        private final AtomicBoolean aborted = new AtomicBoolean(false);
+
+        FakeResponse(int status, InputStream body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        FakeResponse header(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+
+        boolean closed() {
+            return closed.get();
+        }
+
+        boolean aborted() {
+            return aborted.get();
+        }
+
+        @Override
+        public int status() {
+            return status;
+        }
+
+        @Override
+        public Optional<String> header(String name) {
+            return Optional.ofNullable(headers.get(name));
+        }
+
+        @Override
+        public InputStream body() {
+            return body;
+        }
+
+        //a read blocked on the body fails at once, as on a closed socket
+        @Override
+        public void abort() {
+            if (!closed.get() && aborted.compareAndSet(false, true)) {
+                try {
+                    body.close();
+                } catch (IOException ignored) {
+                    //the body is dropped anyway
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            if (!aborted.get()) {
+                closed.set(true);
+            }
+        }
+    }
+}
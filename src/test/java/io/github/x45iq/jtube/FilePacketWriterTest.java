@@ -0,0 +1,188 @@
+package io.github.x45iq.jtube;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FilePacketWriterTest {
+    @TempDir
+    File folder;
+
+    @Test
+    void noneNeverForces() throws IOException {
+        assertEquals(0, forcesWhileWriting(Durability.NONE, 1));
+        assertEquals(0, forcesOnComplete(Durability.NONE));
+    }
+
+    @Test
+    void onCompleteForcesOnlyOnCompletion() throws IOException {
+        assertEquals(0, forcesWhileWriting(Durability.ON_COMPLETE, 1));
+        assertEquals(1, forcesOnComplete(Durability.ON_COMPLETE));
+    }
+
+    @Test
+    void periodicForcesOncePerInterval() throws IOException {
+        assertEquals(4, forcesWhileWriting(Durability.PERIODIC, 1));
+        assertEquals(0, forcesWhileWriting(Durability.PERIODIC, TimeUnit.HOURS.toNanos(1)));
+        assertEquals(1, forcesOnComplete(Durability.PERIODIC));
+    }
+
+    @Test
+    void packetsAreWrittenAtTheirPositions() throws IOException {
+        File file = new File(folder, "file");
+        byte[] data = RangeServer.bytes(1000);
+        try (FilePacketWriter writer = FilePacketWriter.open(file, data.length, Durability.ON_COMPLETE, 1)) {
+            //packets of parallel workers arrive in any order
+            for (int start : new int[]{600, 0, 900, 300}) {
+                writer.write(start, ByteBuffer.wrap(data, start, Math.min(300, data.length - start)));
+            }
+            writer.complete();
+        }
+        assertArrayEquals(data, Files.readAllBytes(file.toPath()));
+    }
+
+    //forces while writing four packets with a pause longer than the interval between them
+    private int forcesWhileWriting(Durability durability, long forceIntervalNanos) throws IOException {
+        try (CountingChannel channel = channel()) {
+            FilePacketWriter writer = new FilePacketWriter(channel, 400, durability, forceIntervalNanos);
+            for (int i = 0; i < 4; i++) {
+                sleep();
+                writer.write(i * 100, ByteBuffer.allocate(100));
+            }
+            return channel.forces.get();
+        }
+    }
+
+    private int forcesOnComplete(Durability durability) throws IOException {
+        try (CountingChannel channel = channel()) {
+            FilePacketWriter writer = new FilePacketWriter(channel, 400, durability, TimeUnit.HOURS.toNanos(1));
+            writer.write(0, ByteBuffer.allocate(400));
+            writer.complete();
+            return channel.forces.get();
+        }
+    }
+
+    private CountingChannel channel() throws IOException {
+        return new CountingChannel(new RandomAccessFile(new File(folder, "file"), "rw").getChannel());
+    }
+
+    private static void sleep() {
+        try {
+            Thread.sleep(2);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    //file channel counting calls of force()
+    private static final class CountingChannel extends FileChannel {
+        private final FileChannel channel;
+        private final AtomicInteger forces = new AtomicInteger();
+
+        CountingChannel(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            forces.incrementAndGet();
+            channel.force(metaData);
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return channel.read(dst);
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+            return channel.read(dsts, offset, length);
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            return channel.write(src);
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            return channel.write(srcs, offset, length);
+        }
+
+        @Override
+        public long position() throws IOException {
+            return channel.position();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) throws IOException {
+            channel.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return channel.size();
+        }
+
+        @Override
+        public FileChannel truncate(long size) throws IOException {
+            channel.truncate(size);
+            return this;
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            return channel.transferTo(position, count, target);
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+            return channel.transferFrom(src, position, count);
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            return channel.read(dst, position);
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) throws IOException {
+            return channel.write(src, position);
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+            return channel.map(mode, position, size);
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) throws IOException {
+            return channel.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+            return channel.tryLock(position, size, shared);
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            channel.close();
+        }
+    }
+}
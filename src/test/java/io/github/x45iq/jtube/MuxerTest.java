@@ -0,0 +1,368 @@
+package io.github.x45iq.jtube;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MuxerTest {
+    @Test
+    void mp4FragmentsAreInterleavedWithNewTrackIds() throws IOException {
+        byte[] out = mux(Mp4.video(), Mp4.audio());
+        List<Box> top = Box.children(out, 0, out.length);
+        assertEquals(Arrays.asList("ftyp", "moov", "moof", "mdat", "moof", "mdat", "moof", "mdat", "moof", "mdat", "moof", "mdat"),
+                Box.types(top));
+
+        Box moov = top.get(1);
+        ByteBuffer buffer = ByteBuffer.wrap(out);
+        Box mvhd = moov.child(out, "mvhd");
+        assertEquals(1000, buffer.getInt(mvhd.offset + 20));
+        assertEquals(2000, buffer.getInt(mvhd.offset + 24));
+        assertEquals(3, buffer.getInt(mvhd.offset + mvhd.size - 4));
+        List<Box> traks = moov.all(out, "trak");
+        assertEquals(2, traks.size());
+        assertEquals(1, buffer.getInt(traks.get(0).child(out, "tkhd").offset + 20));
+        Box audioTkhd = traks.get(1).child(out, "tkhd");
+        assertEquals(2, buffer.getInt(audioTkhd.offset + 20));
+        //the audio durations are moved to the timescale of the movie
+        assertEquals(1500, buffer.getInt(audioTkhd.offset + 28));
+        assertEquals(1500, buffer.getInt(traks.get(1).child(out, "edts").child(out, "elst").offset + 16));
+        List<Box> trexes = moov.child(out, "mvex").all(out, "trex");
+        assertEquals(1, buffer.getInt(trexes.get(0).offset + 12));
+        assertEquals(2, buffer.getInt(trexes.get(1).offset + 12));
+
+        //video 0-1s, audio 0-0.5s, audio 0.5-1s, video 1-2s, audio 1-1.5s
+        int[] tracks = {1, 2, 2, 1, 2};
+        String[] payloads = {"video-0", "audio-0", "audio-1", "video-1", "audio-2"};
+        for (int i = 0; i < 5; i++) {
+            Box moof = top.get(2 + i * 2);
+            Box mdat = top.get(3 + i * 2);
+            assertEquals(i + 1, buffer.getInt(moof.child(out, "mfhd").offset + 12));
+            Box traf = moof.child(out, "traf");
+            assertEquals(tracks[i], buffer.getInt(traf.child(out, "tfhd").offset + 12));
+            //the data offset points to the samples after the moof moved together with them
+            int dataOffset = buffer.getInt(traf.child(out, "trun").offset + 16);
+            assertEquals(mdat.offset + 8, moof.offset + dataOffset);
+            assertEquals(payloads[i], new String(out, mdat.offset + 8, mdat.size - 8, StandardCharsets.ISO_8859_1));
+        }
+    }
+
+    @Test
+    void webmClustersAreInterleavedWithNewTrackNumbers() throws IOException {
+        byte[] out = mux(Webm.video(), Webm.audio());
+        List<Element> top = Element.children(out, 0, out.length);
+        assertEquals(2, top.size());
+        assertEquals(Webm.EBML, top.get(0).id);
+        Element segment = top.get(1);
+        assertEquals(Webm.SEGMENT, segment.id);
+        //the size of the segment is unknown, so the file is written as a stream
+        assertEquals(-1, segment.size);
+
+        List<Element> children = Element.children(out, segment.dataOffset, out.length);
+        Element info = children.get(0);
+        assertEquals(Webm.INFO, info.id);
+        assertEquals(2500f, ByteBuffer.wrap(out).getFloat(info.child(out, Webm.DURATION).dataOffset));
+        Element tracks = children.get(1);
+        List<Element> entries = tracks.all(out, Webm.TRACK_ENTRY);
+        assertEquals(2, entries.size());
+        assertEquals(1, entries.get(0).child(out, Webm.TRACK_NUMBER).unsigned(out));
+        assertEquals(2, entries.get(1).child(out, Webm.TRACK_NUMBER).unsigned(out));
+        assertNotEquals(entries.get(0).child(out, Webm.TRACK_UID).unsigned(out), entries.get(1).child(out, Webm.TRACK_UID).unsigned(out));
+
+        long[] timecodes = {0, 0, 500, 1000, 1000};
+        int[] trackNumbers = {1, 2, 2, 1, 2};
+        String[] payloads = {"video-0", "audio-0", "audio-1", "video-1", "audio-2"};
+        List<Element> clusters = children.subList(2, children.size());
+        assertEquals(5, clusters.size());
+        for (int i = 0; i < 5; i++) {
+            Element cluster = clusters.get(i);
+            assertEquals(Webm.CLUSTER, cluster.id);
+            assertEquals(timecodes[i], cluster.child(out, Webm.TIMECODE).unsigned(out));
+            Element block = cluster.find(out, Webm.SIMPLE_BLOCK);
+            if (block == null) {
+                block = cluster.child(out, Webm.BLOCK_GROUP).child(out, Webm.BLOCK);
+            }
+            //the track number is a one byte variable size integer
+            assertEquals(0x80 | trackNumbers[i], out[block.dataOffset] & 0xFF);
+            assertEquals(payloads[i], new String(out, block.dataOffset + 4, (int) block.size - 4, StandardCharsets.ISO_8859_1));
+        }
+    }
+
+    @Test
+    void differentContainersAreRejected() {
+        assertThrows(IOException.class, () -> mux(Mp4.video(), Webm.audio()));
+    }
+
+    private static byte[] mux(byte[] video, byte[] audio) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Muxer.mux(new ByteArrayInputStream(video), new ByteArrayInputStream(audio), out);
+        return out.toByteArray();
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    //fragmented mp4 streams of one track each: ftyp, moov, sidx, then moof and mdat pairs
+    static final class Mp4 {
+        static byte[] video() {
+            return stream(1000, 2000, 1000, false, "video-0", "video-1");
+        }
+
+        static byte[] audio() {
+            return stream(48000, 72000, 24000, true, "audio-0", "audio-1", "audio-2");
+        }
+
+        static byte[] stream(int timescale, int duration, int sampleDuration, boolean edits, String... samples) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] header = concat(
+                    box("ftyp", ascii("dash"), ByteBuffer.allocate(4).array(), ascii("iso6")),
+                    box("moov", mvhd(timescale, duration), trak(timescale, duration, edits), box("mvex", trex(sampleDuration))),
+                    box("sidx", new byte[24]));
+            out.write(header, 0, header.length);
+            for (int i = 0; i < samples.length; i++) {
+                byte[] sample = ascii(samples[i]);
+                //a box between moof and mdat moves the samples away from the moof
+                byte[] free = i == 1 ? box("free", new byte[10]) : new byte[0];
+                byte[] fragment = concat(fragment(i + 1, (long) i * sampleDuration, sampleDuration, sample.length, free.length), free, box("mdat", sample));
+                out.write(fragment, 0, fragment.length);
+            }
+            return out.toByteArray();
+        }
+
+        private static byte[] mvhd(int timescale, int duration) {
+            ByteBuffer payload = ByteBuffer.allocate(100);
+            payload.putInt(0).putInt(0).putInt(0).putInt(timescale).putInt(duration);
+            payload.putInt(96, 2);
+            return box("mvhd", payload.array());
+        }
+
+        private static byte[] trak(int timescale, int duration, boolean edits) {
+            ByteBuffer tkhd = ByteBuffer.allocate(84);
+            tkhd.putInt(0).putInt(0).putInt(0).putInt(1).putInt(0).putInt(duration);
+            ByteBuffer elst = ByteBuffer.allocate(20);
+            elst.putInt(0).putInt(1).putInt(duration).putInt(0).putInt(0x10000);
+            ByteBuffer mdhd = ByteBuffer.allocate(24);
+            mdhd.putInt(0).putInt(0).putInt(0).putInt(timescale).putInt(duration);
+            return box("trak", box("tkhd", tkhd.array()), edits ? box("edts", box("elst", elst.array())) : new byte[0],
+                    box("mdia", box("mdhd", mdhd.array())));
+        }
+
+        private static byte[] trex(int sampleDuration) {
+            ByteBuffer trex = ByteBuffer.allocate(24);
+            trex.putInt(0).putInt(1).putInt(1).putInt(sampleDuration).putInt(0).putInt(0);
+            return box("trex", trex.array());
+        }
+
+        //one traf of one sample, its data offset is relative to the moof
+        private static byte[] fragment(int sequence, long decodeTime, int sampleDuration, int sampleSize, int gap) {
+            byte[] mfhd = box("mfhd", ByteBuffer.allocate(8).putInt(0).putInt(sequence).array());
+            byte[] tfhd = box("tfhd", ByteBuffer.allocate(8).putInt(0x20000).putInt(1).array());
+            byte[] tfdt = box("tfdt", ByteBuffer.allocate(12).putInt(0x01000000).putLong(decodeTime).array());
+            int moofSize = 8 + mfhd.length + 8 + tfhd.length + tfdt.length + 8 + 20;
+            byte[] trun = box("trun", ByteBuffer.allocate(20).putInt(0x301).putInt(1).putInt(moofSize + gap + 8)
+                    .putInt(sampleDuration).putInt(sampleSize).array());
+            return box("moof", mfhd, box("traf", tfhd, tfdt, trun));
+        }
+
+        private static byte[] box(String type, byte[]... payload) {
+            byte[] data = concat(payload);
+            return concat(ByteBuffer.allocate(4).putInt(8 + data.length).array(), ascii(type), data);
+        }
+    }
+
+    //WebM streams of one track each: EBML header, Segment with Info, Tracks, Cues and Clusters
+    static final class Webm {
+        static final long EBML = 0x1A45DFA3L;
+        static final long SEGMENT = 0x18538067L;
+        static final long INFO = 0x1549A966L;
+        static final long DURATION = 0x4489L;
+        static final long TRACK_ENTRY = 0xAEL;
+        static final long TRACK_NUMBER = 0xD7L;
+        static final long TRACK_UID = 0x73C5L;
+        static final long CLUSTER = 0x1F43B675L;
+        static final long TIMECODE = 0xE7L;
+        static final long SIMPLE_BLOCK = 0xA3L;
+        static final long BLOCK_GROUP = 0xA0L;
+        static final long BLOCK = 0xA1L;
+
+        static byte[] video() {
+            return stream(2000, "V_VP9", false, "video-0", "video-1");
+        }
+
+        static byte[] audio() {
+            return stream(2500, "A_OPUS", true, "audio-0", "audio-1", "audio-2");
+        }
+
+        //clusters are 1000 ms long for video and 500 ms long for audio
+        private static byte[] stream(float duration, String codec, boolean audio, String... blocks) {
+            byte[] info = element(INFO, element(0x2AD7B1L, 0x0F, 0x42, 0x40),
+                    element(DURATION, ByteBuffer.allocate(4).putFloat(duration).array()));
+            byte[] tracks = element(0x1654AE6BL, element(TRACK_ENTRY, element(TRACK_NUMBER, 1), element(TRACK_UID, 5),
+                    element(0x86L, ascii(codec))));
+            byte[] cues = element(0x1C53BB6BL, new byte[6]);
+            ByteArrayOutputStream clusters = new ByteArrayOutputStream();
+            for (int i = 0; i < blocks.length; i++) {
+                int timecode = i * (audio ? 500 : 1000);
+                byte[] block = concat(new byte[]{(byte) 0x81, 0, 0, (byte) 0x80}, ascii(blocks[i]));
+                //the last audio block is wrapped in a BlockGroup
+                byte[] content = audio && i == blocks.length - 1
+                        ? element(BLOCK_GROUP, element(BLOCK, block), element(0x9BL, 20))
+                        : element(SIMPLE_BLOCK, block);
+                byte[] cluster = element(CLUSTER, element(TIMECODE, timecode >> 8, timecode & 0xFF), content);
+                clusters.write(cluster, 0, cluster.length);
+            }
+            return concat(element(EBML, element(0x4282L, ascii("webm"))),
+                    element(SEGMENT, info, tracks, cues, clusters.toByteArray()));
+        }
+
+        private static byte[] element(long id, int... data) {
+            byte[] bytes = new byte[data.length];
+            for (int i = 0; i < data.length; i++) {
+                bytes[i] = (byte) data[i];
+            }
+            return element(id, bytes);
+        }
+
+        //sizes are written with 8 bytes, as the remuxer writes them
+        private static byte[] element(long id, byte[]... data) {
+            byte[] payload = concat(data);
+            int idLength = id > 0xFFFFFF ? 4 : id > 0xFFFF ? 3 : id > 0xFF ? 2 : 1;
+            ByteBuffer header = ByteBuffer.allocate(idLength + 8);
+            for (int i = idLength - 1; i >= 0; i--) {
+                header.put((byte) (id >> (8 * i)));
+            }
+            header.putLong(payload.length | 0x0100000000000000L);
+            return concat(header.array(), payload);
+        }
+    }
+
+    private static final class Box {
+        private final String type;
+        private final int offset;
+        private final int size;
+
+        private Box(String type, int offset, int size) {
+            this.type = type;
+            this.offset = offset;
+            this.size = size;
+        }
+
+        private static List<Box> children(byte[] data, int from, int to) {
+            List<Box> boxes = new ArrayList<>();
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            for (int offset = from; offset < to; ) {
+                int size = buffer.getInt(offset);
+                boxes.add(new Box(new String(data, offset + 4, 4, StandardCharsets.ISO_8859_1), offset, size));
+                offset += size;
+            }
+            return boxes;
+        }
+
+        private static List<String> types(List<Box> boxes) {
+            List<String> types = new ArrayList<>();
+            boxes.forEach(box -> types.add(box.type));
+            return types;
+        }
+
+        private List<Box> all(byte[] data, String type) {
+            List<Box> found = new ArrayList<>();
+            for (Box box : children(data, offset + 8, offset + size)) {
+                if (box.type.equals(type)) {
+                    found.add(box);
+                }
+            }
+            return found;
+        }
+
+        private Box child(byte[] data, String type) {
+            List<Box> found = all(data, type);
+            assertEquals(1, found.size(), type);
+            return found.get(0);
+        }
+    }
+
+    private static final class Element {
+        private final long id;
+        private final int dataOffset;
+        private final long size;
+
+        private Element(long id, int dataOffset, long size) {
+            this.id = id;
+            this.dataOffset = dataOffset;
+            this.size = size;
+        }
+
+        //an element of unknown size lasts until the end
+        private static List<Element> children(byte[] data, int from, int to) {
+            List<Element> elements = new ArrayList<>();
+            for (int offset = from; offset < to; ) {
+                int idLength = length(data[offset]);
+                long id = 0;
+                for (int i = 0; i < idLength; i++) {
+                    id = (id << 8) | (data[offset + i] & 0xFF);
+                }
+                int sizeLength = length(data[offset + idLength]);
+                long size = data[offset + idLength] & (0xFF >> sizeLength);
+                boolean unknown = size == (0xFF >> sizeLength);
+                for (int i = 1; i < sizeLength; i++) {
+                    size = (size << 8) | (data[offset + idLength + i] & 0xFF);
+                    unknown &= (data[offset + idLength + i] & 0xFF) == 0xFF;
+                }
+                int dataOffset = offset + idLength + sizeLength;
+                elements.add(new Element(id, dataOffset, unknown ? -1 : size));
+                offset = unknown ? to : dataOffset + (int) size;
+            }
+            return elements;
+        }
+
+        private static int length(byte first) {
+            return Integer.numberOfLeadingZeros(first & 0xFF) - 23;
+        }
+
+        private List<Element> all(byte[] data, long id) {
+            List<Element> found = new ArrayList<>();
+            for (Element element : children(data, dataOffset, dataOffset + (int) size)) {
+                if (element.id == id) {
+                    found.add(element);
+                }
+            }
+            return found;
+        }
+
+        private Element find(byte[] data, long id) {
+            List<Element> found = all(data, id);
+            return found.isEmpty() ? null : found.get(0);
+        }
+
+        private Element child(byte[] data, long id) {
+            Element found = find(data, id);
+            assertNotNull(found, Long.toHexString(id));
+            return found;
+        }
+
+        private long unsigned(byte[] data) {
+            long value = 0;
+            for (int i = 0; i < size; i++) {
+                value = (value << 8) | (data[dataOffset + i] & 0xFF);
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package io.github.x45iq.jtube;
+
+import org.jsoup.HttpStatusException;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MuxingDownloaderTest {
+    private static final String VIDEO_URL = "https://host/videoplayback?id=video";
+    private static final String AUDIO_URL = "https://host/videoplayback?id=audio";
+    private static final byte[] VIDEO = MuxerTest.Mp4.video();
+    private static final byte[] AUDIO = MuxerTest.Mp4.audio();
+    private static final VideoTrack VIDEO_TRACK = new VideoTrack(new VideoResolution(256, 144, VideoQuality.Q_144p), 30, VideoFormat.F_MP4, "avc1");
+    private static final AudioTrack AUDIO_TRACK = new AudioTrack(128000, 44100, null, AudioFormat.F_M4A, "mp4a");
+
+    @Test
+    void streamsAreMuxedIntoOutputStream() throws IOException {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        Muxer.mux(new ByteArrayInputStream(VIDEO), new ByteArrayInputStream(AUDIO), expected);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        //no folder is needed to download into a stream
+        builder(new FakeTransport(streams(), request -> null), new FakeTransport(streams(), request -> null)).build().download(out);
+        assertArrayEquals(expected.toByteArray(), out.toByteArray());
+    }
+
+    @Test
+    void failedDownloadIsReportedInsteadOfBrokenStream() {
+        //only the first packet of audio is served, so the muxer meets the end of the audio stream too
+        FakeTransport audioTransport = new FakeTransport(streams(), request -> FakeTransport.start(request) > 0
+                ? new FakeTransport.FakeResponse(403, new ByteArrayInputStream(new byte[0]))
+                : null);
+        MuxingDownloader downloader = builder(new FakeTransport(streams(), request -> null), audioTransport)
+                .retryPolicy(new RetryPolicy.Builder().retryBudget(0).build())
+                .build();
+        IOException e = assertThrows(IOException.class, () -> downloader.download(new ByteArrayOutputStream()));
+        assertEquals("Download failed", e.getMessage());
+        assertInstanceOf(HttpStatusException.class, e.getCause());
+        assertEquals(403, ((HttpStatusException) e.getCause()).getStatusCode());
+    }
+
+    @Test
+    void streamsOfOneHostAreMuxedWithFewConnections() throws Exception {
+        //samples larger than the pipes and the reorder buffer keep workers of one stream waiting for the muxer
+        byte[] video = MuxerTest.Mp4.stream(1000, 2000, 1000, false, sample('v', 300_000), sample('w', 300_000));
+        byte[] audio = MuxerTest.Mp4.stream(48000, 72000, 24000, true, sample('a', 100_000), sample('b', 100_000), sample('c', 100_000));
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        Muxer.mux(new ByteArrayInputStream(video), new ByteArrayInputStream(audio), expected);
+        try (RangeServer server = new RangeServer()) {
+            String videoUrl = server.stream("video", video);
+            String audioUrl = server.stream("audio", audio);
+            for (boolean ownTransports : new boolean[]{false, true}) {
+                MuxingDownloader.Builder builder = new MuxingDownloader.Builder()
+                        .videoStreamingData(new VideoStreamingData(videoUrl, video.length, VIDEO_TRACK))
+                        .audioStreamingData(new AudioStreamingData(audioUrl, audio.length, AUDIO_TRACK))
+                        .threadsCount(2)
+                        .packetSize(10_000)
+                        .reorderBufferSize(10_000);
+                if (!ownTransports) {
+                    //both streams come from one host and each may take only two connections to it
+                    builder.videoTransport(new PooledHttpTransport.Builder().maxConnectionsPerHost(2).build())
+                            .audioTransport(new PooledHttpTransport.Builder().maxConnectionsPerHost(2).build());
+                }
+                MuxingDownloader downloader = builder.build();
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                assertTimeoutPreemptively(Duration.ofSeconds(10), () -> downloader.download(out));
+                assertArrayEquals(expected.toByteArray(), out.toByteArray());
+            }
+        }
+    }
+
+    @Test
+    void streamsCantShareTransport() {
+        HttpTransport transport = new PooledHttpTransport.Builder().build();
+        MuxingDownloader.Builder builder = builder(transport, transport);
+        assertThrows(IllegalArgumentException.class, builder::build);
+    }
+
+    private static String sample(char c, int length) {
+        char[] chars = new char[length];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    private static Map<String, byte[]> streams() {
+        Map<String, byte[]> streams = new HashMap<>();
+        streams.put(VIDEO_URL, VIDEO);
+        streams.put(AUDIO_URL, AUDIO);
+        return streams;
+    }
+
+    private static MuxingDownloader.Builder builder(HttpTransport videoTransport, HttpTransport audioTransport) {
+        return new MuxingDownloader.Builder()
+                .videoStreamingData(new VideoStreamingData(VIDEO_URL, VIDEO.length, VIDEO_TRACK))
+                .audioStreamingData(new AudioStreamingData(AUDIO_URL, AUDIO.length, AUDIO_TRACK))
+                .videoTransport(videoTransport)
+                .audioTransport(audioTransport)
+                .threadsCount(2)
+                .packetSize(100);
+    }
+}
@@ -0,0 +1,83 @@
+package io.github.x45iq.jtube;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NetToolsTest {
+    private static final String URL = "https://www.youtube.com/watch?v=1";
+
+    @Test
+    void rangeHeaderIncludesLastByte() {
+        HttpTransport.Request request = NetTools.rangeRequest("https://host/videoplayback?id=1", 100, 200, RangeMode.HEADER);
+        assertEquals("bytes=100-199", request.headers().get("Range"));
+        assertEquals("https://host/videoplayback?id=1", request.url());
+    }
+
+    @Test
+    void rangeParamIsAppendedToUrl() {
+        HttpTransport.Request request = NetTools.rangeRequest("https://host/videoplayback?id=1", 0, 1, RangeMode.URL_PARAM);
+        assertEquals("https://host/videoplayback?id=1&range=0-0", request.url());
+        assertFalse(request.headers().containsKey("Range"));
+    }
+
+    @Test
+    void watchPageIsReadUntilScannerIsComplete() throws IOException {
+        WatchPage page = new WatchPage(WatchPageScannerTest.PAGE + filler());
+        WatchPageScanner scanner = NetTools.getWatchPage(page.transport(), URL);
+        assertTrue(scanner.complete());
+        //the rest of the page is left unread and its connection is dropped
+        assertTrue(page.read() < page.length() - 100_000);
+        assertTrue(page.response.get().aborted());
+        assertFalse(page.response.get().closed());
+    }
+
+    @Test
+    void watchPageReadToEndIsClosed() throws IOException {
+        WatchPage page = new WatchPage("<html><body>" + filler() + "</body></html>");
+        WatchPageScanner scanner = NetTools.getWatchPage(page.transport(), URL);
+        assertFalse(scanner.complete());
+        assertEquals(page.length(), page.read());
+        assertTrue(page.response.get().closed());
+        assertFalse(page.response.get().aborted());
+    }
+
+    private static String filler() {
+        char[] chars = new char[200_000];
+        Arrays.fill(chars, 'x');
+        return new String(chars);
+    }
+
+    //counts bytes of the page read by the client
+    private static final class WatchPage {
+        private final byte[] data;
+        private final ByteArrayInputStream body;
+        private final AtomicReference<FakeTransport.FakeResponse> response = new AtomicReference<>();
+
+        private WatchPage(String page) {
+            data = page.getBytes(StandardCharsets.UTF_8);
+            body = new ByteArrayInputStream(data);
+        }
+
+        private HttpTransport transport() {
+            return new FakeTransport(data, request -> {
+                response.set(new FakeTransport.FakeResponse(200, body));
+                return response.get();
+            });
+        }
+
+        private int length() {
+            return data.length;
+        }
+
+        private int read() {
+            return data.length - body.available();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package io.github.x45iq.jtube;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OrderedPacketWriterTest {
+    @Test
+    void writesOutOfOrderPacketsInOrder() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        OrderedPacketWriter writer = new OrderedPacketWriter(Channels.newChannel(out), out, null, 6, 100, new MemoryBudget(100), new BufferPool(0));
+        writer.write(4, ByteBuffer.wrap(new byte[]{4, 5}));
+        writer.write(2, ByteBuffer.wrap(new byte[]{2, 3}));
+        assertEquals(0, out.size());
+        writer.write(0, ByteBuffer.wrap(new byte[]{0, 1}));
+        writer.complete();
+        assertArrayEquals(new byte[]{0, 1, 2, 3, 4, 5}, out.toByteArray());
+    }
+
+    @Test
+    void completeFailsOnMissingData() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        OrderedPacketWriter writer = new OrderedPacketWriter(Channels.newChannel(out), out, null, 4, 100, new MemoryBudget(100), new BufferPool(0));
+        writer.write(0, ByteBuffer.wrap(new byte[]{0, 1}));
+        assertThrows(EOFException.class, writer::complete);
+    }
+
+    @Test
+    void abortWakesWriterAheadOfWindow() throws InterruptedException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        OrderedPacketWriter writer = new OrderedPacketWriter(Channels.newChannel(out), out, null, 100, 10, new MemoryBudget(100), new BufferPool(0));
+        Thread ahead = new Thread(() -> assertThrows(IOException.class, () -> writer.write(50, ByteBuffer.wrap(new byte[10]))));
+        ahead.start();
+        ahead.join(200);
+        assertTrue(ahead.isAlive());
+        writer.abort();
+        ahead.join(1000);
+        assertFalse(ahead.isAlive());
+    }
+
+    @Test
+    void writerOverBudgetWaitsUntilBudgetIsReleased() throws IOException, InterruptedException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MemoryBudget budget = new MemoryBudget(2);
+        OrderedPacketWriter writer = new OrderedPacketWriter(Channels.newChannel(out), out, null, 6, 100, budget, new BufferPool(0));
+        writer.write(2, ByteBuffer.wrap(new byte[]{2, 3}));
+        assertEquals(2, budget.used());
+        Thread ahead = new Thread(() -> assertDoesNotThrow(() -> writer.write(4, ByteBuffer.wrap(new byte[]{4, 5}))));
+        ahead.start();
+        ahead.join(200);
+        assertTrue(ahead.isAlive());
+        writer.write(0, ByteBuffer.wrap(new byte[]{0, 1}));
+        ahead.join(1000);
+        assertFalse(ahead.isAlive());
+        writer.complete();
+        assertEquals(0, budget.used());
+        assertArrayEquals(new byte[]{0, 1, 2, 3, 4, 5}, out.toByteArray());
+    }
+}
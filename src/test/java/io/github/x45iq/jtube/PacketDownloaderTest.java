@@ -0,0 +1,171 @@
+package io.github.x45iq.jtube;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PacketDownloaderTest {
+    private static final String URL = "https://host/videoplayback?id=1";
+    private static final byte[] DATA = RangeServer.bytes(100_000);
+    private static final int PACKET_SIZE = 10_000;
+    //the last packet is the straggler, its first request gives some bytes and then stalls
+    private static final int STRAGGLER = 90_000;
+    private static final int STALL = 91_000;
+
+    @Test
+    void hedgeFinishesStalledPacket() throws Exception {
+        AtomicReference<FakeTransport.FakeResponse> stalled = new AtomicReference<>();
+        FakeTransport transport = new FakeTransport(DATA, straggler(request -> {
+            FakeTransport.FakeResponse response = new FakeTransport(DATA).range(request, FakeTransport.stalled(DATA, STRAGGLER, STALL - STRAGGLER));
+            stalled.set(response);
+            return response;
+        }, request -> null));
+        //the stalled request never ends by itself, the download finishes only if the hedge aborts it
+        new Download(transport).run();
+        assertTrue(stalled.get().aborted());
+        assertEquals(2, stragglerRequests(transport));
+    }
+
+    @Test
+    void failedHedgeLeavesOriginalRequest() throws Exception {
+        CountDownLatch hedgeFailed = new CountDownLatch(1);
+        FakeTransport transport = new FakeTransport(DATA, straggler(request -> {
+            //the rest of the packet comes only after the hedge has failed
+            InputStream rest = new InputStream() {
+                private InputStream body;
+
+                @Override
+                public int read() throws IOException {
+                    return body().read();
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    return body().read(b, off, len);
+                }
+
+                private InputStream body() throws IOException {
+                    if (body == null) {
+                        try {
+                            if (!hedgeFailed.await(5, TimeUnit.SECONDS)) {
+                                throw new IOException("no hedge");
+                            }
+                        } catch (InterruptedException e) {
+                            throw new IOException(e);
+                        }
+                        body = new ByteArrayInputStream(DATA, STALL, DATA.length - STALL);
+                    }
+                    return body;
+                }
+            };
+            return new FakeTransport(DATA).range(request,
+                    new SequenceInputStream(new ByteArrayInputStream(DATA, STRAGGLER, STALL - STRAGGLER), rest));
+        }, request -> {
+            hedgeFailed.countDown();
+            return new FakeTransport.FakeResponse(503, new ByteArrayInputStream(new byte[0]));
+        }));
+        new Download(transport).run();
+        assertEquals(2, stragglerRequests(transport));
+    }
+
+    @Test
+    void serverIgnoringRangesIsReadInOneRequest() throws Exception {
+        FakeTransport transport = new FakeTransport(DATA, request -> new FakeTransport.FakeResponse(200, new ByteArrayInputStream(DATA))
+                .header("Content-Length", String.valueOf(DATA.length)));
+        new Download(transport).run();
+        //the packets requested before the first response and the rest of the stream
+        assertTrue(transport.requests().size() <= 3);
+    }
+
+    //the first request for the last packet is the original one, the next one is its hedge,
+    //the hedge may start before the original has read anything
+    private static Function<HttpTransport.Request, HttpTransport.Response> straggler(
+            Function<HttpTransport.Request, HttpTransport.Response> original, Function<HttpTransport.Request, HttpTransport.Response> hedge) {
+        AtomicBoolean first = new AtomicBoolean(true);
+        return request -> FakeTransport.start(request) < STRAGGLER ? null
+                : first.getAndSet(false) ? original.apply(request) : hedge.apply(request);
+    }
+
+    private static long stragglerRequests(FakeTransport transport) {
+        return transport.requests().stream()
+                .filter(request -> FakeTransport.start(request) >= STRAGGLER)
+                .count();
+    }
+
+    //a hedging download of DATA on two workers
+    private static final class Download {
+        private final MemoryWriter writer = new MemoryWriter();
+        private final ProgressTracker progress = new ProgressTracker(DATA.length, 0, 0, null);
+        private final Map<Long, Long> packets = new ConcurrentHashMap<>();
+        private final AtomicInteger callbacks = new AtomicInteger(0);
+        private final PacketDownloader downloader;
+
+        private Download(HttpTransport transport) {
+            downloader = new PacketDownloader(URL, DATA.length, transport, RangeMode.HEADER, writer,
+                    new PacketPlanner(DATA.length, PACKET_SIZE), progress, packet -> {
+                        packets.put(packet.start, packet.end);
+                        callbacks.incrementAndGet();
+                    },
+                    Collections.emptyList(), new RetryPolicy.Builder().retryBudget(0).build(), true);
+        }
+
+        private void run() throws Exception {
+            DownloadJob job = new DownloadJob(downloader, ConcurrencyController.fixed(2), 1);
+            try (DownloadEngine engine = new DownloadEngine.Builder().workersCount(2).build()) {
+                engine.submit(job);
+                job.done().get(5, TimeUnit.SECONDS);
+            }
+            assertFalse(job.failed());
+            assertNull(downloader.failure());
+            assertArrayEquals(DATA, writer.data);
+            //bytes written by both copies of the straggler are counted once
+            assertEquals(DATA.length, progress.downloaded());
+            //every packet is reported once and the packets cover the stream
+            assertEquals(packets.size(), callbacks.get());
+            long position = 0;
+            while (packets.containsKey(position)) {
+                position = packets.get(position);
+            }
+            assertEquals(DATA.length, position);
+        }
+    }
+
+    private static final class MemoryWriter implements PacketWriter {
+        private final byte[] data = new byte[DATA.length];
+
+        @Override
+        public synchronized void write(long position, ByteBuffer buffer) {
+            buffer.get(data, (int) position, buffer.remaining());
+        }
+
+        @Override
+        public void flush() {
+
+        }
+
+        @Override
+        public void complete() {
+
+        }
+
+        @Override
+        public void close() {
+
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package io.github.x45iq.jtube;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PacketPlannerTest {
+
+    @Test
+    void fixedPacketsCoverContent() {
+        PacketPlanner planner = new PacketPlanner(1050, 100);
+        long used = 0;
+        PacketPlanner.Packet packet;
+        while ((packet = planner.next()) != null) {
+            assertEquals(used, packet.start);
+            assertTrue(packet.length() <= 100);
+            used = packet.end;
+        }
+        assertEquals(1050, used);
+    }
+
+    @Test
+    void adaptivePacketsGrowWithinBounds() {
+        PacketPlanner planner = new PacketPlanner(1L << 40, 100, 1000, TimeUnit.SECONDS.toNanos(1), 1, true);
+        assertEquals(100, planner.packetSize());
+        planner.report(100, TimeUnit.MILLISECONDS.toNanos(10));
+        assertEquals(200, planner.packetSize());
+        for (int i = 0; i < 10; i++) {
+            planner.report(planner.packetSize(), TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        assertEquals(1000, planner.packetSize());
+    }
+
+    @Test
+    void adaptivePacketsShrinkToMinAndStayAligned() {
+        PacketPlanner planner = new PacketPlanner(1L << 40, 100, 10_000, TimeUnit.SECONDS.toNanos(1), 1, true);
+        for (int i = 0; i < 5; i++) {
+            planner.report(planner.packetSize(), TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        assertEquals(3200, planner.packetSize());
+        for (int i = 0; i < 20; i++) {
+            planner.report(planner.packetSize(), TimeUnit.SECONDS.toNanos(100));
+        }
+        assertEquals(100, planner.packetSize());
+        assertEquals(0, planner.next().length() % 100);
+    }
+
+    @Test
+    void adaptiveTailIsSharedBetweenConnections() {
+        PacketPlanner planner = new PacketPlanner(1000, 100, 1000, TimeUnit.SECONDS.toNanos(1), 4, true);
+        for (int i = 0; i < 5; i++) {
+            planner.report(planner.packetSize(), TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        assertEquals(200, planner.next().length());
+    }
+
+    @Test
+    void wholeSpansAreGivenAsOnePacket() {
+        PacketPlanner planner = new PacketPlanner(1000, 100, 1000, TimeUnit.SECONDS.toNanos(1), 4, true);
+        assertEquals(100, planner.next().length());
+        planner.wholeSpans();
+        PacketPlanner.Packet rest = planner.next();
+        assertEquals(100, rest.start);
+        assertEquals(1000, rest.end);
+        assertNull(planner.next());
+    }
+}
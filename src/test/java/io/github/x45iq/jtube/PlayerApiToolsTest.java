@@ -0,0 +1,76 @@
+package io.github.x45iq.jtube;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PlayerApiToolsTest {
+    @Test
+    void signatureTimestampOfPlayerJsIsSent() throws IOException, ResponseParsingException {
+        WatchPageScanner page = new WatchPageScanner();
+        page.feed(WatchPageScannerTest.PAGE);
+        PlayerApiTools.update(page);
+        PlayerApiTools.Config config = PlayerApiTools.config().orElseThrow(AssertionError::new);
+        //the timestamp of another player version is not sent
+        PlayerApiTools.signatureTimestamp("/s/player/old/base.js", 19000);
+        assertFalse(playerRequest(config).has("playbackContext"));
+        PlayerApiTools.signatureTimestamp(config.playerJsPath(), 19876);
+        JsonObject post = playerRequest(config);
+        assertEquals(19876, post.getAsJsonObject("playbackContext").getAsJsonObject("contentPlaybackContext").get("signatureTimestamp").getAsInt());
+    }
+
+    @Test
+    void signatureTimestampIsFoundInPlayerJs() {
+        assertEquals(19876, PlayerApiTools.findSignatureTimestamp("var posts:1;a={signatureTimestamp:19876,b:2}").orElse(0));
+        assertEquals(19877, PlayerApiTools.findSignatureTimestamp("c={sts: 19877}").orElse(0));
+        assertFalse(PlayerApiTools.findSignatureTimestamp("var a=1;").isPresent());
+    }
+
+    private static JsonObject playerRequest(PlayerApiTools.Config config) throws IOException, ResponseParsingException {
+        List<JsonObject> posts = new ArrayList<>();
+        PlayerApiTools.player(request -> {
+            posts.add(JsonParser.parseString(new String(request.body().orElse(new byte[0]), StandardCharsets.UTF_8)).getAsJsonObject());
+            return response("{\"playabilityStatus\":{\"status\":\"OK\"}}");
+        }, ClientProfile.WEB, config, "dQw4w9WgXcQ");
+        return posts.get(0);
+    }
+
+    private static HttpTransport.Response response(String body) {
+        return new HttpTransport.Response() {
+            @Override
+            public int status() {
+                return 200;
+            }
+
+            @Override
+            public Optional<String> header(String name) {
+                return Optional.empty();
+            }
+
+            @Override
+            public InputStream body() {
+                return new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+            }
+
+            @Override
+            public void abort() {
+
+            }
+
+            @Override
+            public void close() {
+
+            }
+        };
+    }
+}
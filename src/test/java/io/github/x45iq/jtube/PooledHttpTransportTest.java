@@ -0,0 +1,196 @@
+package io.github.x45iq.jtube;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PooledHttpTransportTest {
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final CyclicBarrier held = new CyclicBarrier(new PooledHttpTransport.Builder().build().maxConnectionsPerHost());
+    private HttpServer server;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", exchange -> {
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            String path = exchange.getRequestURI().getPath();
+            if (path.equals("/redirect")) {
+                exchange.getResponseHeaders().add("Location", "/fixed");
+                exchange.sendResponseHeaders(302, 0);
+                exchange.close();
+                return;
+            }
+            if (path.equals("/held")) {
+                //all parallel requests are answered together, so each one needs its own connection
+                try {
+                    held.await(5, TimeUnit.SECONDS);
+                } catch (Exception ignored) {
+                    //the test fails on the count of connections
+                }
+            }
+            //a zero length means a chunked body
+            exchange.sendResponseHeaders(200, path.equals("/chunked") ? 0 : 1000);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(new byte[100]);
+                out.flush();
+                if (path.equals("/stall")) {
+                    release.await();
+                }
+                out.write(new byte[900]);
+            } catch (InterruptedException ignored) {
+                //the test is over
+            }
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        release.countDown();
+        server.stop(0);
+    }
+
+    @Test
+    void readBodiesReuseConnection() throws IOException {
+        PooledHttpTransport transport = new PooledHttpTransport.Builder().build();
+        for (String path : new String[]{"/fixed", "/chunked", "/redirect", "/fixed"}) {
+            try (HttpTransport.Response response = get(transport, path)) {
+                assertEquals(200, response.status());
+                assertEquals(1000, readAll(response.body()).length);
+            }
+        }
+        assertEquals(1, clientPorts.size());
+    }
+
+    @Test
+    void parallelRequestsKeepTheirConnections() throws InterruptedException {
+        PooledHttpTransport transport = new PooledHttpTransport.Builder().build();
+        int parallel = transport.maxConnectionsPerHost();
+        CyclicBarrier round = new CyclicBarrier(parallel);
+        List<Thread> threads = new ArrayList<>();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        for (int i = 0; i < parallel; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    for (int j = 0; j < 3; j++) {
+                        round.await(5, TimeUnit.SECONDS);
+                        try (HttpTransport.Response response = get(transport, "/held")) {
+                            readAll(response.body());
+                        }
+                    }
+                } catch (Exception e) {
+                    failure.set(e);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join(10000);
+        }
+        assertNull(failure.get());
+        assertEquals(parallel, clientPorts.size());
+    }
+
+    @Test
+    void abortFailsBlockedReadAtOnce() throws IOException, InterruptedException {
+        PooledHttpTransport transport = new PooledHttpTransport.Builder().readTimeoutMils(30000).build();
+        HttpTransport.Response response = get(transport, "/stall");
+        InputStream body = response.body();
+        assertEquals(100, body.read(new byte[100]));
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread reader = new Thread(() -> failure.set(assertThrows(IOException.class, () -> readAll(body))));
+        reader.start();
+        reader.join(200);
+        assertTrue(reader.isAlive());
+        long start = System.nanoTime();
+        response.abort();
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        reader.join(1000);
+        assertFalse(reader.isAlive());
+        assertNotNull(failure.get());
+        //the dropped connection is not given to the next request
+        try (HttpTransport.Response next = get(transport, "/fixed")) {
+            assertEquals(1000, readAll(next.body()).length);
+        }
+        assertEquals(2, clientPorts.size());
+    }
+
+    @Test
+    void closedTransportDropsReleasedConnections() throws IOException {
+        PooledHttpTransport transport = new PooledHttpTransport.Builder().build();
+        HttpTransport.Response response = get(transport, "/fixed");
+        transport.close();
+        //the response in progress is still read to the end
+        assertEquals(1000, readAll(response.body()).length);
+        response.close();
+        assertThrows(IOException.class, () -> get(transport, "/fixed"));
+    }
+
+    @Test
+    void headCutOffByServerIsEof() throws IOException, InterruptedException {
+        try (ServerSocket truncating = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"))) {
+            Thread thread = new Thread(() -> {
+                try (Socket socket = truncating.accept()) {
+                    BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1));
+                    while (!in.readLine().isEmpty()) {
+                        continue;
+                    }
+                    //the connection is closed before the empty line ending the headers
+                    socket.getOutputStream().write("HTTP/1.1 200 OK\r\nContent-Length: 10\r\n".getBytes(StandardCharsets.ISO_8859_1));
+                } catch (IOException ignored) {
+                    //the test fails on the response
+                }
+            });
+            thread.start();
+            String url = "http://127.0.0.1:" + truncating.getLocalPort() + "/";
+            PooledHttpTransport transport = new PooledHttpTransport.Builder().build();
+            assertThrows(EOFException.class, () -> transport.execute(new HttpTransport.Request("GET", url, Collections.emptyMap(), null)));
+            thread.join(5000);
+        }
+    }
+
+    private HttpTransport.Response get(HttpTransport transport, String path) throws IOException {
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + path;
+        return transport.execute(new HttpTransport.Request("GET", url, Collections.emptyMap(), null));
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,79 @@
+package io.github.x45iq.jtube;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProgressTrackerTest {
+
+    @Test
+    void startHasNoSpeedAndUnknownEta() {
+        List<Progress> events = new ArrayList<>();
+        new ProgressTracker(1000, 400, 0, events::add).start();
+        assertEquals(1, events.size());
+        assertEquals(400, events.get(0).downloaded());
+        assertEquals(1000, events.get(0).contentLen());
+        assertEquals(0, events.get(0).speed());
+        assertEquals(-1, events.get(0).etaMils());
+    }
+
+    @Test
+    void eventsAreThrottledByInterval() {
+        List<Progress> events = new ArrayList<>();
+        ProgressTracker tracker = new ProgressTracker(1000, 0, TimeUnit.HOURS.toNanos(1), events::add);
+        tracker.start();
+        for (int i = 0; i < 10; i++) {
+            tracker.add(100);
+        }
+        assertEquals(1, events.size());
+        //the last event is emitted whatever the interval
+        tracker.finish();
+        assertEquals(2, events.size());
+        assertEquals(1000, events.get(1).downloaded());
+        assertEquals(100, events.get(1).percentValue());
+    }
+
+    @Test
+    void etaFollowsSmoothedSpeed() throws InterruptedException {
+        List<Progress> events = new ArrayList<>();
+        //bytes of a resumed download are not counted as speed
+        ProgressTracker tracker = new ProgressTracker(1_000_000, 500_000, 0, events::add);
+        tracker.start();
+        Thread.sleep(100);
+        tracker.add(10_000);
+        Progress first = events.get(1);
+        assertEquals(510_000, first.downloaded());
+        assertTrue(first.speed() >= 20_000 && first.speed() <= 100_000, String.valueOf(first.speed()));
+        assertEquals(490_000 * 1000 / first.speed(), first.etaMils(), 1);
+
+        //a pause drops the speed at once, while the eta grows smoothly
+        Thread.sleep(100);
+        tracker.add(0);
+        Progress second = events.get(2);
+        assertEquals(0, second.speed());
+        assertEquals((long) (490_000 * 1000 / (0.8 * first.speed())), second.etaMils(), 1);
+    }
+
+    @Test
+    void downloadedNeverExceedsLength() {
+        List<Progress> events = new ArrayList<>();
+        ProgressTracker tracker = new ProgressTracker(1000, 0, 0, events::add);
+        tracker.add(1200);
+        assertEquals(1000, events.get(0).downloaded());
+        assertEquals(0, events.get(0).etaMils());
+    }
+
+    @Test
+    void failingCallbackDoesNotStopDownload() {
+        ProgressTracker tracker = new ProgressTracker(1000, 0, 0, progress -> {
+            throw new IllegalStateException();
+        });
+        tracker.start();
+        tracker.add(100);
+        assertEquals(100, tracker.downloaded());
+    }
+}
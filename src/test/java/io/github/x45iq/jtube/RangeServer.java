@@ -0,0 +1,127 @@
+package io.github.x45iq.jtube;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+//local http server answering ranges of streams with 206 as googlevideo does,
+//bodies of ranges starting at or after the stall position are held until release() is called
+final class RangeServer implements Closeable {
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d+)");
+    private final Map<String, byte[]> streams = new ConcurrentHashMap<>();
+    private final List<Long> starts = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> ids = Collections.synchronizedList(new ArrayList<>());
+    private final CountDownLatch stalled = new CountDownLatch(1);
+    private final CountDownLatch released = new CountDownLatch(1);
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final HttpServer server;
+    private volatile long stallPosition = Long.MAX_VALUE;
+
+    RangeServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    //bytes with no repeating short pattern, so a packet written at a wrong position is noticed
+    static byte[] bytes(int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (i * 31 + i / 251);
+        }
+        return bytes;
+    }
+
+    //url of the stream with the given id
+    String stream(String id, byte[] data) {
+        streams.put(id, data);
+        return String.format("http://127.0.0.1:%s/videoplayback?id=%s&itag=18", server.getAddress().getPort(), id);
+    }
+
+    void stall(long position) {
+        stallPosition = position;
+    }
+
+    //waits until a request meets the stall position
+    boolean awaitStalled() throws InterruptedException {
+        return stalled.await(10, TimeUnit.SECONDS);
+    }
+
+    void release() {
+        stallPosition = Long.MAX_VALUE;
+        released.countDown();
+    }
+
+    //starts of all requested ranges in order of arrival
+    List<Long> starts() {
+        synchronized (starts) {
+            return new ArrayList<>(starts);
+        }
+    }
+
+    //ids of streams of all requests in order of arrival
+    List<String> ids() {
+        synchronized (ids) {
+            return new ArrayList<>(ids);
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String query = exchange.getRequestURI().getQuery();
+            String id = query.replaceAll(".*id=([^&]*).*", "$1");
+            byte[] data = streams.get(id);
+            Matcher matcher = RANGE.matcher(String.valueOf(exchange.getRequestHeaders().getFirst("Range")));
+            if (data == null || !matcher.matches()) {
+                exchange.sendResponseHeaders(data == null ? 404 : 400, -1);
+                return;
+            }
+            long start = Long.parseLong(matcher.group(1));
+            long end = Math.min(Long.parseLong(matcher.group(2)), data.length - 1);
+            synchronized (this) {
+                starts.add(start);
+                ids.add(id);
+            }
+            exchange.getResponseHeaders().add("Content-Range", String.format("bytes %s-%s/%s", start, end, data.length));
+            exchange.sendResponseHeaders(206, end - start + 1);
+            try (OutputStream out = exchange.getResponseBody()) {
+                if (start >= stallPosition) {
+                    //the headers are sent, the body is held as by a stalled connection
+                    out.flush();
+                    stalled.countDown();
+                    released.await();
+                }
+                out.write(data, (int) start, (int) (end - start + 1));
+            } catch (InterruptedException ignored) {
+                //the server is stopped
+            }
+        } catch (IOException ignored) {
+            //the client gave up on the response
+        } finally {
+            exchange.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        release();
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,38 @@
+package io.github.x45iq.jtube;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.SocketTimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RetryPolicyTest {
+
+    @Test
+    void failureTypeOfStatus() {
+        assertEquals(FailureType.THROTTLED, FailureType.ofStatus(429));
+        assertEquals(FailureType.THROTTLED, FailureType.ofStatus(503));
+        assertEquals(FailureType.EXPIRED_URL, FailureType.ofStatus(403));
+        assertEquals(FailureType.RANGE_NOT_SATISFIABLE, FailureType.ofStatus(416));
+        assertEquals(FailureType.CLIENT_ERROR, FailureType.ofStatus(400));
+        assertEquals(FailureType.NETWORK, FailureType.ofStatus(502));
+        assertEquals(FailureType.NETWORK, FailureType.of(new SocketTimeoutException()));
+    }
+
+    @Test
+    void delayGrowsExponentiallyWithinBounds() {
+        RetryPolicy policy = new RetryPolicy.Builder()
+                .rule(FailureType.NETWORK, 10, 100, 1000)
+                .build();
+        for (int i = 0; i < 20; i++) {
+            long first = policy.delayMils(FailureType.NETWORK, 1);
+            assertTrue(first >= 50 && first <= 100, String.valueOf(first));
+            long third = policy.delayMils(FailureType.NETWORK, 3);
+            assertTrue(third >= 200 && third <= 400, String.valueOf(third));
+            long last = policy.delayMils(FailureType.NETWORK, 40);
+            assertTrue(last >= 500 && last <= 1000, String.valueOf(last));
+        }
+        assertEquals(10, policy.maxAttempts(FailureType.NETWORK));
+        assertEquals(1, policy.maxAttempts(FailureType.RANGE_NOT_SATISFIABLE));
+    }
+}
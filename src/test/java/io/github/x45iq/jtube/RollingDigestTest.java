@@ -0,0 +1,34 @@
+package io.github.x45iq.jtube;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RollingDigestTest {
+    @Test
+    void outOfOrderWritesGiveDigestOfWholeData() throws IOException, NoSuchAlgorithmException {
+        byte[] data = new byte[300_000];
+        new Random(7).nextBytes(data);
+        RollingDigest digest = new RollingDigest(MessageDigest.getInstance("SHA-256"),
+                (position, buffer) -> buffer.put(data, (int) position, buffer.remaining()), new BufferPool(0));
+        digest.update(200_000, ByteBuffer.wrap(data, 200_000, 50_000));
+        digest.update(100_000, ByteBuffer.wrap(data, 100_000, 100_000));
+        digest.update(0, ByteBuffer.wrap(data, 0, 120_000));
+        //a hedged copy writes the same bytes once more
+        digest.update(100_000, ByteBuffer.wrap(data, 100_000, 50_000));
+        assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(data), digest.finish(data.length));
+    }
+
+    @Test
+    void gapWithoutBackfillFails() throws IOException, NoSuchAlgorithmException {
+        RollingDigest digest = new RollingDigest(MessageDigest.getInstance("SHA-256"), null, new BufferPool(0));
+        digest.append(ByteBuffer.wrap(new byte[10]));
+        assertThrows(IntegrityException.class, () -> digest.finish(20));
+    }
+}
@@ -0,0 +1,88 @@
+package io.github.x45iq.jtube;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SegmentIndexTest {
+    @Test
+    void mapsTimeWindowToMp4Fragments() throws IOException {
+        ByteBuffer sidx = ByteBuffer.allocate(68);
+        sidx.putInt(68).put("sidx".getBytes(StandardCharsets.ISO_8859_1)).putInt(0).putInt(1).putInt(1000).putInt(0).putInt(0)
+                .putShort((short) 0).putShort((short) 3);
+        for (int i = 0; i < 3; i++) {
+            sidx.putInt(100).putInt(2000).putInt(0x90000000);
+        }
+        byte[] data = concat(box("ftyp", 8), box("moov", 0), sidx.array(), box("moof", 292));
+        SegmentIndex index = SegmentIndex.read((start, end) -> Arrays.copyOfRange(data, (int) start, (int) end), data.length);
+        assertArrayEquals(Arrays.copyOfRange(data, 0, 24), index.header());
+        assertEquals(3, index.segments().size());
+        List<PacketPlanner.Packet> spans = index.spans(2500, 5000);
+        assertEquals(1, spans.size());
+        assertEquals(192, spans.get(0).start);
+        assertEquals(392, spans.get(0).end);
+    }
+
+    @Test
+    void mapsTimeWindowToWebmClusters() throws IOException {
+        byte[] info = element(0x1549A966, element(0x2AD7B1, 0x0F, 0x42, 0x40));
+        byte[] tracks = element(0x1654AE6B, element(0xAE, element(0xD7, 1)));
+        byte[] cluster = element(0x1F43B675, concat(element(0xE7, 0), element(0xEC, 0, 0, 0)));
+        int cuesLength = cues(0, 0).length;
+        int first = info.length + tracks.length + cuesLength;
+        byte[] segment = concat(info, tracks, cues(first, first + cluster.length), cluster, cluster);
+        byte[] bytes = concat(element(0x1A45DFA3), id(0x18538067), new byte[]{(byte) (0x80 | segment.length)}, segment);
+        SegmentIndex index = SegmentIndex.read((start, end) -> Arrays.copyOfRange(bytes, (int) start, (int) end), bytes.length);
+        assertEquals(2, index.segments().size());
+        List<PacketPlanner.Packet> spans = index.spans(2500, 3000);
+        assertEquals(1, spans.size());
+        assertEquals(bytes.length - cluster.length, spans.get(0).start);
+        assertEquals(bytes.length, spans.get(0).end);
+    }
+
+    private static byte[] cues(int firstPosition, int secondPosition) {
+        return element(0x1C53BB6B, concat(
+                element(0xBB, concat(element(0xB3, 0, 0), element(0xB7, element(0xF1, firstPosition)))),
+                element(0xBB, concat(element(0xB3, 0x07, 0xD0), element(0xB7, element(0xF1, secondPosition))))));
+    }
+
+    private static byte[] box(String type, int payload) {
+        return ByteBuffer.allocate(8 + payload).putInt(8 + payload).put(type.getBytes(StandardCharsets.ISO_8859_1)).array();
+    }
+
+    private static byte[] element(long id, int... data) {
+        byte[] bytes = new byte[data.length];
+        for (int i = 0; i < data.length; i++) {
+            bytes[i] = (byte) data[i];
+        }
+        return element(id, bytes);
+    }
+
+    private static byte[] element(long id, byte[] data) {
+        return concat(id(id), new byte[]{(byte) (0x80 | data.length)}, data);
+    }
+
+    private static byte[] id(long id) {
+        int length = id > 0xFFFFFF ? 4 : id > 0xFFFF ? 3 : id > 0xFF ? 2 : 1;
+        byte[] bytes = new byte[length];
+        for (int i = length - 1; i >= 0; i--, id >>= 8) {
+            bytes[i] = (byte) id;
+        }
+        return bytes;
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,124 @@
+package io.github.x45iq.jtube;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamingDataDownloaderTest {
+    private static final byte[] DATA = RangeServer.bytes(100_000);
+    @TempDir
+    File folder;
+    private RangeServer server;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = new RangeServer();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.close();
+    }
+
+    @Test
+    void fileIsDownloadedWithEveryDurability() throws IOException {
+        for (Durability durability : Durability.values()) {
+            File file = builder(server.stream(durability.name(), DATA))
+                    .fileName(durability.name())
+                    .durability(durability)
+                    .forceInterval(1)
+                    .build()
+                    .download();
+            assertEquals(new File(folder, durability.name() + ".m4a"), file);
+            assertArrayEquals(DATA, Files.readAllBytes(file.toPath()), durability.name());
+        }
+    }
+
+    @Test
+    void interruptedDownloadFetchesOnlyMissingPackets() throws Exception {
+        String url = server.stream("1", DATA);
+        interrupt(builder(url).fileName("a").resume(true).threadsCount(1).build());
+        int requested = server.starts().size();
+        File file = builder(url).fileName("a").resume(true).build().download();
+        assertEquals(new File(folder, "a.m4a"), file);
+        assertArrayEquals(DATA, Files.readAllBytes(file.toPath()));
+        assertTrue(server.starts().subList(requested, server.starts().size()).stream().allMatch(start -> start >= DATA.length / 2));
+        assertFalse(new File(folder, "a.m4a.jtube").exists());
+    }
+
+    @Test
+    void downloadNextToFinishedFileIsResumed() throws Exception {
+        String url = server.stream("1", DATA);
+        File finished = new File(folder, "a.m4a");
+        Files.write(finished.toPath(), new byte[]{1, 2, 3});
+        interrupt(builder(url).fileName("a").resume(true).threadsCount(1).build());
+        int requested = server.starts().size();
+        //the data went to a new file, its manifest is still found by the name of the finished one
+        File file = builder(url).fileName("a").resume(true).build().download();
+        assertEquals(new File(folder, "a(0).m4a"), file);
+        assertArrayEquals(DATA, Files.readAllBytes(file.toPath()));
+        assertTrue(server.starts().subList(requested, server.starts().size()).stream().allMatch(start -> start >= DATA.length / 2));
+        assertArrayEquals(new byte[]{1, 2, 3}, Files.readAllBytes(finished.toPath()));
+        assertEquals(2, folder.list().length);
+    }
+
+    @Test
+    void throwingDigestCallbackFailsDownload() throws Exception {
+        String url = server.stream("1", DATA);
+        StreamingDataDownloader downloader = builder(url)
+                .fileName("a")
+                .digest("SHA-256", digest -> {
+                    throw new IllegalStateException("digest rejected");
+                })
+                .build();
+        DownloadTask<File> task = downloader.downloadAsync();
+        ExecutionException e = assertThrows(ExecutionException.class, () -> task.future().get(5, TimeUnit.SECONDS));
+        assertEquals("digest rejected", e.getCause().getMessage());
+        assertEquals(0, folder.list().length);
+
+        DownloadTask<Void> streamTask = downloader.downloadAsync(new ByteArrayOutputStream());
+        e = assertThrows(ExecutionException.class, () -> streamTask.future().get(5, TimeUnit.SECONDS));
+        assertEquals("digest rejected", e.getCause().getMessage());
+    }
+
+    //interrupts the download once the first half of the stream is written
+    private void interrupt(StreamingDataDownloader downloader) throws InterruptedException {
+        server.stall(DATA.length / 2);
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread thread = new Thread(() -> {
+            try {
+                downloader.download();
+            } catch (Throwable e) {
+                error.set(e);
+            }
+        });
+        thread.start();
+        assertTrue(server.awaitStalled());
+        thread.interrupt();
+        thread.join(5000);
+        assertFalse(thread.isAlive());
+        assertInstanceOf(IOException.class, error.get());
+        server.release();
+    }
+
+    private StreamingDataDownloader.Builder builder(String url) {
+        return new StreamingDataDownloader.Builder()
+                .streamingData(new AudioStreamingData(url, DATA.length, new AudioTrack(128000, 44100, null, AudioFormat.F_M4A, "mp4a")))
+                .folder(folder)
+                .threadsCount(4)
+                .packetSize(10_000)
+                .progressCallback(progress -> {
+                });
+    }
+}
@@ -0,0 +1,45 @@
+package io.github.x45iq.jtube;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WatchPageScannerTest {
+    private static final String RESPONSE = "{\"a\":\"}{\\\"\",\"b\":{\"c\":[1,{\"d\":\"/s/player/y.js\"}]}}";
+    static final String PAGE = "<html><head><script src=\"/s/player/abc/player_ias.vflset/en_US/base.js\"></script>"
+            + "<script>ytcfg.set({\"INNERTUBE_API_KEY\": \"key\",\"INNERTUBE_CONTEXT\":{\"client\":{\"clientName\":\"WEB\"}},\"INNERTUBE_CONTEXT_CLIENT_NAME\":1});"
+            + "window.ytInitialPlayerResponse = null;</script></head><body><script>var ytInitialPlayerResponse = "
+            + RESPONSE + ";var meta = {};</script></body></html>";
+
+    @Test
+    void capturesBalancedObjectAndJsPath() {
+        WatchPageScanner scanner = new WatchPageScanner();
+        scanner.feed(PAGE);
+        assertTrue(scanner.complete());
+        assertEquals(RESPONSE, scanner.playerResponse());
+        assertEquals("/s/player/abc/player_ias.vflset/en_US/base.js", scanner.playerJsPath());
+        assertEquals("key", scanner.apiKey());
+        assertEquals("{\"client\":{\"clientName\":\"WEB\"}}", scanner.innerTubeContext());
+    }
+
+    @Test
+    void charByCharFeedGivesSameResult() {
+        WatchPageScanner scanner = new WatchPageScanner();
+        for (int i = 0; i < PAGE.length(); i++) {
+            scanner.feed(PAGE.subSequence(i, i + 1));
+        }
+        assertEquals(RESPONSE, scanner.playerResponse());
+        assertEquals("/s/player/abc/player_ias.vflset/en_US/base.js", scanner.playerJsPath());
+        assertEquals("key", scanner.apiKey());
+        assertTrue(scanner.complete());
+    }
+
+    @Test
+    void missingBlocksAreNull() {
+        WatchPageScanner scanner = new WatchPageScanner();
+        scanner.feed("<script>var ytInitialPlayerResponse = {\"a\":1</script>");
+        assertFalse(scanner.complete());
+        assertNull(scanner.playerResponse());
+        assertNull(scanner.playerJsPath());
+    }
+}